@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the time until a local grid of a hub and one node offers its slots, when the
+ * node is started after the hub and when {@link Grid#start()} starts them concurrently.
+ * <p>Before every measured start the other mode is started and stopped once, so both modes
+ * alternate and are measured in the same warmed up jvm rather than one after the other.</p>
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+public class GridStartupBenchmark
+{
+    private static final String SEQUENTIAL = "sequential";
+    private static final String OVERLAPPED = "overlapped";
+    private static final int HUB_PORT = 4466;
+    private static final int NODE_PORT = 5720;
+
+    @Param({SEQUENTIAL, OVERLAPPED})
+    public String mode;
+
+    /** Held so the level is kept, the hub and node log every registration */
+    private final Logger seleniumLogger = Logger.getLogger("org.openqa");
+    private GridHub hub;
+    private GridNode node;
+
+    @Setup(Level.Trial)
+    public void setUpLogging()
+    {
+        seleniumLogger.setLevel(java.util.logging.Level.WARNING);
+    }
+
+    /**
+     * Starts and stops the grid in the other mode so the measured start follows it.
+     */
+    @Setup(Level.Iteration)
+    public void alternate()
+    {
+        start(SEQUENTIAL.equals(mode) ? OVERLAPPED : SEQUENTIAL);
+        stop();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop()
+    {
+        node.stop();
+        hub.stop();
+    }
+
+    @Benchmark
+    public GridHub startup()
+    {
+        start(mode);
+        return hub;
+    }
+
+    private void start(final String startMode)
+    {
+        hub = new GridHub(HUB_PORT);
+        node = new GridNode(HUB_PORT, NODE_PORT);
+        if(SEQUENTIAL.equals(startMode))
+        {
+            hub.run();
+            node.start();
+            HubLoadGenerator.awaitSlots(hub.getUrl(), node.getSlotCount());
+        }
+        else
+        {
+            new Grid(hub, Collections.singletonList(node)).start();
+        }
+    }
+}
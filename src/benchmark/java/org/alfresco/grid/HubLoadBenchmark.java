@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a hub under parallel load with different http server settings.
+ * <p>Each invocation drives {@value #SESSIONS} sessions from {@value #CLIENTS} clients through
+ * a hub and {@link SyntheticNode} nodes, so the time per invocation shows how the hub request
+ * threads limit the throughput. The executor parameter is the executor type followed by the
+ * maximum number of threads, 0 keeps the default.</p>
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class HubLoadBenchmark
+{
+    private static final int HUB_PORT = 4461;
+    private static final int NODE_PORT = 5680;
+    private static final int NODES = 2;
+    private static final int SLOTS = 32;
+    private static final int SESSIONS = 200;
+    private static final int CLIENTS = 64;
+    private static final int COMMANDS = 4;
+    private static final long NODE_LATENCY = 50;
+
+    @Param({"pooled:0", "pooled:8", "elastic:0"})
+    public String executor;
+
+    /** Held so the level is kept, the hub logs every request which would otherwise dominate the result */
+    private final Logger seleniumLogger = Logger.getLogger("org.openqa");
+    private GridHub hub;
+    private final List<SyntheticNode> nodes = new ArrayList<SyntheticNode>();
+    private HubLoadGenerator generator;
+
+    @Setup
+    public void setUp()
+    {
+        seleniumLogger.setLevel(Level.WARNING);
+        String[] setting = executor.split(":");
+        HttpServerSettings settings = new HttpServerSettings(0, Integer.parseInt(setting[1]), 0, 0, 0, 0, setting[0]);
+        hub = new GridHub(settings, HUB_PORT);
+        hub.run();
+        String hubUrl = "http://localhost:" + HUB_PORT;
+        for (int i = 0; i < NODES; i++)
+        {
+            SyntheticNode node = new SyntheticNode(hubUrl, NODE_PORT + i, SLOTS, NODE_LATENCY, NODE_LATENCY);
+            node.start();
+            nodes.add(node);
+        }
+        HubLoadGenerator.awaitSlots(hubUrl, NODES * SLOTS);
+        generator = new HubLoadGenerator(hubUrl, CLIENTS, COMMANDS);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        for (SyntheticNode node : nodes)
+        {
+            node.stop();
+        }
+        nodes.clear();
+        hub.stop();
+    }
+
+    @Benchmark
+    public HubLoadGenerator.Report load()
+    {
+        return generator.run(SESSIONS);
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Drives sessions of {@link SyntheticNode} browsers through a hub and reports its throughput.
+ * <p>Each client thread opens a session, runs a number of commands and quits it until the
+ * requested number of sessions has been run. The report gives the sessions per second,
+ * the time new session requests waited before reaching a node and the command latency
+ * seen through the hub.</p>
+ * <p>Run without a hub url, {@link #main(String[])} starts a hub and synthetic nodes in
+ * process so that the whole test runs offline on one machine:</p>
+ * <pre>
+ * HubLoadGenerator [sessions] [clients] [commands] [nodes] [slots per node] [command latency ms] [hub url]
+ * </pre>
+ *
+ * @since 1.9
+ */
+public class HubLoadGenerator
+{
+    private static final String NEW_SESSION = "{\"desiredCapabilities\":{\"browserName\":\"" + SyntheticNode.BROWSER_NAME + "\"}}";
+    private static final String COMMAND = "{\"url\":\"about:blank\"}";
+    private static final int HUB_PORT = 4460;
+    private static final int NODE_PORT = 5660;
+    private static final long READY_TIMEOUT = 30000;
+    private static final long READY_POLL_INTERVAL = 100;
+    private static final int REQUEST_TIMEOUT = 600000;
+    private final String sessionUrl;
+    private final int clients;
+    private final int commands;
+
+    /**
+     * Constructor.
+     * @param hubUrl String url of the hub such as <code>http://localhost:4444</code>
+     * @param clients int number of concurrent sessions to drive
+     * @param commands int number of commands run in each session
+     */
+    public HubLoadGenerator(final String hubUrl, final int clients, final int commands)
+    {
+        if(clients < 1 || commands < 0)
+        {
+            throw new IllegalArgumentException(String.format("Invalid load, clients: %d commands: %d", clients, commands));
+        }
+        this.sessionUrl = hubUrl + "/wd/hub/session";
+        this.clients = clients;
+        this.commands = commands;
+    }
+
+    /**
+     * Runs the sessions through the hub and waits for all of them to finish.
+     * @param sessions int total number of sessions to run
+     * @return {@link Report} throughput and latency of the run
+     */
+    public Report run(final int sessions)
+    {
+        final AtomicInteger remaining = new AtomicInteger(sessions);
+        final AtomicLong failures = new AtomicLong();
+        final Latencies queueWait = new Latencies();
+        final Latencies sessionLatency = new Latencies();
+        final Latencies commandLatency = new Latencies();
+        RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(REQUEST_TIMEOUT)
+                .setConnectionRequestTimeout(REQUEST_TIMEOUT)
+                .setSocketTimeout(REQUEST_TIMEOUT)
+                .build();
+        final CloseableHttpClient client = HttpClients.custom()
+                .setDefaultRequestConfig(config)
+                .setMaxConnTotal(clients * 2)
+                .setMaxConnPerRoute(clients * 2)
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < clients; i++)
+            {
+                futures.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        while(remaining.getAndDecrement() > 0)
+                        {
+                            try
+                            {
+                                runSession(client, queueWait, sessionLatency, commandLatency);
+                            }
+                            catch (IOException e)
+                            {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Load client failed", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running load", e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            try
+            {
+                client.close();
+            }
+            catch (IOException e)
+            {
+                // nothing left to release
+            }
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Report(sessions, failures.get(), elapsed, queueWait, sessionLatency, commandLatency);
+    }
+
+    private void runSession(final CloseableHttpClient client, final Latencies queueWait,
+            final Latencies sessionLatency, final Latencies commandLatency) throws IOException
+    {
+        HttpPost newSession = new HttpPost(sessionUrl);
+        newSession.setHeader(SyntheticNode.SENT_HEADER, String.valueOf(System.currentTimeMillis()));
+        newSession.setEntity(new StringEntity(NEW_SESSION, ContentType.APPLICATION_JSON));
+        long start = System.nanoTime();
+        JsonObject response = execute(client, newSession);
+        sessionLatency.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        JsonElement sessionId = response.get("sessionId");
+        if(sessionId == null || sessionId.isJsonNull())
+        {
+            throw new IOException("New session response has no session id: " + response);
+        }
+        JsonElement value = response.get("value");
+        if(value != null && value.isJsonObject() && value.getAsJsonObject().has(SyntheticNode.QUEUE_WAIT))
+        {
+            queueWait.add(value.getAsJsonObject().get(SyntheticNode.QUEUE_WAIT).getAsLong());
+        }
+        String url = sessionUrl + "/" + sessionId.getAsString();
+        try
+        {
+            for (int i = 0; i < commands; i++)
+            {
+                HttpRequestBase command;
+                if(i % 2 == 0)
+                {
+                    HttpPost post = new HttpPost(url + "/url");
+                    post.setEntity(new StringEntity(COMMAND, ContentType.APPLICATION_JSON));
+                    command = post;
+                }
+                else
+                {
+                    command = new HttpGet(url + "/title");
+                }
+                start = System.nanoTime();
+                execute(client, command);
+                commandLatency.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+        finally
+        {
+            execute(client, new HttpDelete(url));
+        }
+    }
+
+    private static JsonObject execute(final CloseableHttpClient client, final HttpRequestBase request) throws IOException
+    {
+        CloseableHttpResponse response = client.execute(request);
+        try
+        {
+            int code = response.getStatusLine().getStatusCode();
+            String body = EntityUtils.toString(response.getEntity());
+            if(code != Grid.RESPONSE_STATUS_200)
+            {
+                throw new IOException(String.format("%s %s failed with %d: %s", request.getMethod(), request.getURI(), code, body));
+            }
+            return new JsonParser().parse(body).getAsJsonObject();
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Invalid response to " + request.getURI(), e);
+        }
+        finally
+        {
+            response.close();
+        }
+    }
+
+    /**
+     * Waits until the hub offers the given number of slots.
+     * @param hubUrl String url of the hub
+     * @param slots int expected total number of slots
+     */
+    public static void awaitSlots(final String hubUrl, final int slots)
+    {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        while(true)
+        {
+            try
+            {
+                if(HubStatus.fetch(hubUrl).getTotalSlots() >= slots)
+                {
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                // hub still starting
+            }
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new RuntimeException(String.format("Hub %s did not offer %d slots within %d ms", hubUrl, slots, READY_TIMEOUT));
+            }
+            try
+            {
+                Thread.sleep(READY_POLL_INTERVAL);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the hub", e);
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int commands = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int nodes = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int slots = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        long latency = args.length > 5 ? Long.parseLong(args[5]) : 5;
+        String hubUrl = args.length > 6 ? args[6] : null;
+
+        GridHub hub = null;
+        List<SyntheticNode> started = new ArrayList<SyntheticNode>();
+        try
+        {
+            if(hubUrl == null)
+            {
+                hub = new GridHub(HUB_PORT);
+                hub.run();
+                hubUrl = "http://localhost:" + HUB_PORT;
+            }
+            for (int i = 0; i < nodes; i++)
+            {
+                SyntheticNode node = new SyntheticNode(hubUrl, NODE_PORT + i, slots, latency, latency);
+                node.start();
+                started.add(node);
+            }
+            awaitSlots(hubUrl, nodes * slots);
+            Report report = new HubLoadGenerator(hubUrl, clients, commands).run(sessions);
+            System.out.println(report);
+        }
+        finally
+        {
+            for (SyntheticNode node : started)
+            {
+                node.stop();
+            }
+            if(hub != null)
+            {
+                hub.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Latencies in milliseconds recorded by many client threads.
+     */
+    static class Latencies
+    {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(final long value)
+        {
+            if(size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized long[] sorted()
+        {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    /**
+     * Result of a load run.
+     */
+    public static class Report
+    {
+        private final int sessions;
+        private final long failures;
+        private final long elapsed;
+        private final long[] queueWait;
+        private final long[] sessionLatency;
+        private final long[] commandLatency;
+
+        Report(final int sessions, final long failures, final long elapsed,
+                final Latencies queueWait, final Latencies sessionLatency, final Latencies commandLatency)
+        {
+            this.sessions = sessions;
+            this.failures = failures;
+            this.elapsed = elapsed;
+            this.queueWait = queueWait.sorted();
+            this.sessionLatency = sessionLatency.sorted();
+            this.commandLatency = commandLatency.sorted();
+        }
+
+        static long percentile(final long[] sorted, final double percentile)
+        {
+            if(sorted.length == 0)
+            {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        public long getElapsed()
+        {
+            return elapsed;
+        }
+
+        public double getSessionsPerSecond()
+        {
+            return elapsed == 0 ? 0 : (sessions - failures) * 1000d / elapsed;
+        }
+
+        public long getQueueWait(final double percentile)
+        {
+            return percentile(queueWait, percentile);
+        }
+
+        public long getSessionLatency(final double percentile)
+        {
+            return percentile(sessionLatency, percentile);
+        }
+
+        public long getCommandLatency(final double percentile)
+        {
+            return percentile(commandLatency, percentile);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Sessions: %d, failed: %d, elapsed: %d ms, %.1f sessions/s%n"
+                    + "Queue wait ms: p50 %d, p99 %d%n"
+                    + "New session ms: p50 %d, p99 %d%n"
+                    + "Command ms: p50 %d, p99 %d",
+                    sessions, failures, elapsed, getSessionsPerSecond(),
+                    getQueueWait(50), getQueueWait(99),
+                    getSessionLatency(50), getSessionLatency(99),
+                    getCommandLatency(50), getCommandLatency(99));
+        }
+    }
+}
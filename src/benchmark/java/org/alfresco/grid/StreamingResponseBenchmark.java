@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.SessionId;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Benchmarks reading large responses with the selenium executor and the {@link StreamingCommandExecutor}.
+ * <p>A local server answers the page source command with about {@value #PAYLOAD_SIZE} characters
+ * of markup and the screenshot command with base64 of random bytes of the same length. The
+ * page source is read as a string, the screenshot is written to a png file. Run with
+ * <code>-prof gc</code> to compare the bytes allocated per operation, which is what the streaming
+ * executor saves.</p>
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingResponseBenchmark
+{
+    private static final int HUB_PORT = 4463;
+    private static final int PAYLOAD_SIZE = 4 * 1024 * 1024;
+    private static final SessionId SESSION_ID = new SessionId("benchmark");
+
+    @Param({"selenium", "streaming"})
+    public String executor;
+
+    private HttpServer server;
+    private SharedHttpClientFactory factory;
+    private CommandExecutor commandExecutor;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        final byte[] source = response(createSource());
+        final byte[] screenshot = response(createScreenshot());
+        server = HttpServer.create(new InetSocketAddress(HUB_PORT), 0);
+        server.createContext("/wd/hub", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                byte[] body = exchange.getRequestURI().getPath().endsWith("/source") ? source : screenshot;
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        factory = new SharedHttpClientFactory(4, 4, 2000, 30000, 30000);
+        URL url = new URL("http://localhost:" + HUB_PORT + "/wd/hub");
+        commandExecutor = "streaming".equals(executor) ? new StreamingCommandExecutor(url, factory)
+                                                       : new HttpCommandExecutor(Collections.<String, CommandInfo>emptyMap(), url, factory);
+        file = File.createTempFile("screenshot", ".png");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        factory.close();
+        server.stop(0);
+        FileUtils.deleteQuietly(file);
+    }
+
+    private static byte[] response(final String value)
+    {
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", SESSION_ID.toString());
+        response.addProperty("status", 0);
+        response.addProperty("value", value);
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Page source like markup with the quotes and line breaks json has to escape.
+     */
+    private static String createSource()
+    {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder(PAYLOAD_SIZE + 256);
+        source.append("<html><head><title>Document Library</title></head><body><table class=\"documents\">\n");
+        while(source.length() < PAYLOAD_SIZE)
+        {
+            int id = random.nextInt(1000000);
+            source.append("<tr class=\"document-row\" id=\"doc-").append(id).append("\"><td class=\"name\">Document ").append(id)
+                  .append(".docx</td><td class=\"size\">").append(random.nextInt(4096)).append(" KB</td></tr>\n");
+        }
+        return source.append("</table></body></html>").toString();
+    }
+
+    private static String createScreenshot()
+    {
+        byte[] image = new byte[PAYLOAD_SIZE * 3 / 4];
+        new Random(1).nextBytes(image);
+        return Base64.encodeBase64String(image);
+    }
+
+    @Benchmark
+    public Object pageSource() throws IOException
+    {
+        return commandExecutor.execute(new Command(SESSION_ID, DriverCommand.GET_PAGE_SOURCE)).getValue();
+    }
+
+    @Benchmark
+    public File screenshotToFile() throws IOException
+    {
+        Command command = new Command(SESSION_ID, DriverCommand.SCREENSHOT);
+        if(commandExecutor instanceof StreamingCommandExecutor)
+        {
+            return (File) ((StreamingCommandExecutor) commandExecutor).execute(command, file, true).getValue();
+        }
+        String base64 = (String) commandExecutor.execute(command).getValue();
+        FileUtils.writeByteArrayToFile(file, Base64.decodeBase64(base64));
+        return file;
+    }
+}
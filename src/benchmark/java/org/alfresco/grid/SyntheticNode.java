@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.utils.SelfRegisteringRemote;
+import org.openqa.grid.shared.GridNodeServer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in grid node that answers the webdriver wire protocol without starting a browser.
+ * <p>The node registers with the hub through {@link SelfRegisteringRemote} the same way
+ * {@link GridNode} does and offers <code>slots</code> sessions of the browser
+ * {@value #BROWSER_NAME}. New sessions and commands are answered after a fixed latency,
+ * so that a single machine can host enough nodes to find the limits of the hub.</p>
+ * <p>A client may send the header {@value #SENT_HEADER} with the epoch milliseconds of
+ * its new session request, the node then returns the time the request spent before
+ * reaching it as the capability {@value #QUEUE_WAIT}.</p>
+ * <p>Commands answer with a null value, or with the string set by {@link #setPayload(String)}
+ * to stand in for page sources and screenshots.</p>
+ *
+ * @since 1.9
+ */
+public class SyntheticNode implements GridNodeServer
+{
+    public static final String BROWSER_NAME = "synthetic";
+    public static final String SENT_HEADER = "X-Synthetic-Sent";
+    public static final String QUEUE_WAIT = "synthetic.queueWait";
+    private static final String CONTEXT = "/wd/hub";
+    private static final String SESSION = CONTEXT + "/session";
+    private static final int STATUS_SUCCESS = 0;
+    private static final int STATUS_NO_SUCH_SESSION = 6;
+    private static final int BUFFER_SIZE = 4096;
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+    private final Log logger = LogFactory.getLog(SyntheticNode.class);
+    private final int port;
+    private final long sessionLatency;
+    private final long commandLatency;
+    private final RegistrationRequest registrationRequest;
+    private final SelfRegisteringRemote remote;
+    private final Map<String, Long> sessions = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong commandCount = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile String payload;
+
+    /**
+     * Constructor.
+     * @param hubUrl String url of the hub such as <code>http://localhost:4444</code>
+     * @param port int port the node listens on
+     * @param slots int number of concurrent sessions offered to the hub
+     * @param sessionLatency long milliseconds taken to answer a new session
+     * @param commandLatency long milliseconds taken to answer a command
+     */
+    public SyntheticNode(final String hubUrl, final int port, final int slots, final long sessionLatency, final long commandLatency)
+    {
+        this.port = port;
+        this.sessionLatency = sessionLatency;
+        this.commandLatency = commandLatency;
+        registrationRequest = RegistrationRequest.build("-role", "node",
+                "-host", "localhost",
+                "-port", String.valueOf(port),
+                "-hub", hubUrl + "/grid/register",
+                "-browser", String.format("browserName=%s,maxInstances=%d", BROWSER_NAME, slots),
+                "-maxSession", String.valueOf(slots));
+        remote = new SelfRegisteringRemote(registrationRequest);
+        remote.setRemoteServer(this);
+    }
+
+    /**
+     * Starts the node and registers it once with the hub.
+     */
+    public void start()
+    {
+        try
+        {
+            remote.startRemoteServer();
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException("Unable to start synthetic node on port " + port, e);
+        }
+        remote.sendRegistrationRequest();
+    }
+
+    public void boot() throws Exception
+    {
+        executor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "synthetic-node-" + port + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Without it the headers and body of small answers wait on delayed acks and add 40 ms to each call
+        System.setProperty(NO_DELAY, "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(CONTEXT, new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    dispatch(exchange);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("Synthetic node failed to answer " + exchange.getRequestURI(), e);
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop()
+    {
+        if(server != null)
+        {
+            server.stop(0);
+            server = null;
+        }
+        if(executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+        sessions.clear();
+    }
+
+    /**
+     * @param payload String value of every command response, null for no value
+     */
+    public void setPayload(final String payload)
+    {
+        this.payload = payload;
+    }
+
+    /**
+     * @return long number of sessions started since the node started
+     */
+    public long getSessionCount()
+    {
+        return sessionCount.get();
+    }
+
+    /**
+     * @return long number of commands answered since the node started
+     */
+    public long getCommandCount()
+    {
+        return commandCount.get();
+    }
+
+    /**
+     * @return int number of open sessions
+     */
+    public int getActiveSessionCount()
+    {
+        return sessions.size();
+    }
+
+    private void dispatch(final HttpExchange exchange) throws IOException
+    {
+        long received = System.currentTimeMillis();
+        drain(exchange.getRequestBody());
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if(path.equals(CONTEXT + "/status"))
+        {
+            respond(exchange, 200, null, new JsonObject());
+            return;
+        }
+        if(!path.startsWith(SESSION))
+        {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        String rest = path.substring(SESSION.length());
+        if(rest.isEmpty() || "/".equals(rest))
+        {
+            newSession(exchange, received);
+            return;
+        }
+        String sessionId = rest.substring(1);
+        int end = sessionId.indexOf('/');
+        boolean quit = end < 0 && "DELETE".equals(method);
+        if(end >= 0)
+        {
+            sessionId = sessionId.substring(0, end);
+        }
+        if(!sessions.containsKey(sessionId))
+        {
+            JsonObject error = new JsonObject();
+            error.addProperty("message", "No such session " + sessionId);
+            respond(exchange, 404, STATUS_NO_SUCH_SESSION, sessionId, error);
+            return;
+        }
+        pause(commandLatency);
+        commandCount.incrementAndGet();
+        if(quit)
+        {
+            sessions.remove(sessionId);
+        }
+        String value = payload;
+        respond(exchange, 200, sessionId, quit || value == null ? null : new JsonPrimitive(value));
+    }
+
+    private void newSession(final HttpExchange exchange, final long received) throws IOException
+    {
+        pause(sessionLatency);
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(sessionId, received);
+        sessionCount.incrementAndGet();
+        JsonObject capabilities = new JsonObject();
+        capabilities.addProperty("browserName", BROWSER_NAME);
+        String sent = exchange.getRequestHeaders().getFirst(SENT_HEADER);
+        if(sent != null)
+        {
+            capabilities.addProperty(QUEUE_WAIT, received - Long.parseLong(sent));
+        }
+        respond(exchange, 200, sessionId, capabilities);
+    }
+
+    private void respond(final HttpExchange exchange, final int code, final String sessionId, final JsonElement value) throws IOException
+    {
+        respond(exchange, code, STATUS_SUCCESS, sessionId, value);
+    }
+
+    private void respond(final HttpExchange exchange, final int code, final int status, final String sessionId, final JsonElement value) throws IOException
+    {
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", sessionId);
+        response.addProperty("status", status);
+        response.add("value", value);
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static void drain(final InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while(in.read(buffer) >= 0)
+        {
+            continue;
+        }
+        in.close();
+    }
+
+    private static void pause(final long latency)
+    {
+        if(latency <= 0)
+        {
+            return;
+        }
+        try
+        {
+            Thread.sleep(latency);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.po.Browser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.firefox.FirefoxProfile;
+
+/**
+ * Benchmarks building a firefox profile, encoding the profile of a remote session
+ * with and without the {@link FirefoxProfileCache}, and starting a local session.
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebDriverFactoryBenchmark
+{
+    private WebDriverFactory factory;
+    private final FirefoxProfileCache profileCache = new FirefoxProfileCache();
+    private final Map<String, Object> preferences = new TreeMap<String, Object>();
+
+    @Setup
+    public void setUp()
+    {
+        factory = new WebDriverFactory();
+        factory.language = "en-GB, en";
+        factory.locale = "en-GB";
+        //Preferences of a remote firefox session as set by the factory
+        preferences.put("dom.mms.retrievalRetryIntervals;", "60000,120000");
+        preferences.put("browser.sessionhistory.max_total_viewers;", "0");
+        preferences.put("intl.accept_languages", factory.language);
+        preferences.put("general.useragent.locale", factory.locale);
+        preferences.put("app.update.auto", false);
+        preferences.put("app.update.enabled", false);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        factory.destroy();
+    }
+
+    @Benchmark
+    public FirefoxProfile createProfile()
+    {
+        return factory.createProfile(null);
+    }
+
+    @Benchmark
+    public String encodeProfile() throws IOException
+    {
+        return FirefoxProfileCache.build(preferences).toJson();
+    }
+
+    @Benchmark
+    public String encodeCachedProfile()
+    {
+        return profileCache.getEncoded(preferences);
+    }
+
+    @Benchmark
+    public WebDriver getHtmlUnit()
+    {
+        WebDriver driver = factory.getObject(Browser.HtmlUnit);
+        driver.quit();
+        return driver;
+    }
+}
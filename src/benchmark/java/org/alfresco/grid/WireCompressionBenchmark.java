@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.protocol.HttpContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Benchmarks large commands through a hub with and without {@link WireCompression}.
+ * <p>A {@link SyntheticNode} answers every command with a payload of about {@value #PAYLOAD_SIZE}
+ * characters, either page source like markup or base64 of random bytes that stands in for
+ * a png screenshot or a zipped upload. The client reads the page source or the screenshot,
+ * and sends the payload as a script argument or as an uploaded file. The time per operation
+ * is the round trip including compression, the bytes on the wire per operation are printed
+ * after each trial.</p>
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireCompressionBenchmark
+{
+    private static final int HUB_PORT = 4462;
+    private static final int NODE_PORT = 5700;
+    private static final int PAYLOAD_SIZE = 512 * 1024;
+    private static final int GZIP_MIN_SIZE = 2048;
+    private static final String NEW_SESSION = "{\"desiredCapabilities\":{\"browserName\":\"" + SyntheticNode.BROWSER_NAME + "\"}}";
+
+    @Param({"off", "gzip"})
+    public String compression;
+
+    @Param({"source", "screenshot"})
+    public String payload;
+
+    /** Held so the level is kept, the hub logs every request which would otherwise dominate the result */
+    private final Logger seleniumLogger = Logger.getLogger("org.openqa");
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private GridHub hub;
+    private SyntheticNode node;
+    private CloseableHttpClient client;
+    private String sessionUrl;
+    private String readCommand;
+    private String sendCommand;
+    private String sendBody;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        seleniumLogger.setLevel(Level.WARNING);
+        boolean gzip = "gzip".equals(compression);
+        hub = new GridHub(new HttpServerSettings(0, 0, 0, 0, 0, 0, null, gzip ? GZIP_MIN_SIZE : 0), HUB_PORT);
+        hub.run();
+        String hubUrl = "http://localhost:" + HUB_PORT;
+        String value = "source".equals(payload) ? createSource() : createScreenshot();
+        node = new SyntheticNode(hubUrl, NODE_PORT, 1, 0, 0);
+        node.setPayload(value);
+        node.start();
+        HubLoadGenerator.awaitSlots(hubUrl, 1);
+        JsonObject body = new JsonObject();
+        if("source".equals(payload))
+        {
+            body.addProperty("script", "return arguments[0];");
+            body.addProperty("args", value);
+            readCommand = "/source";
+            sendCommand = "/execute";
+        }
+        else
+        {
+            body.addProperty("file", value);
+            readCommand = "/screenshot";
+            sendCommand = "/file";
+        }
+        sendBody = body.toString();
+
+        HttpClientBuilder builder = HttpClients.custom().disableContentCompression();
+        if(gzip)
+        {
+            builder.addInterceptorFirst(WireCompression.createRequestInterceptor(GZIP_MIN_SIZE));
+        }
+        client = builder.addInterceptorLast(new HttpRequestInterceptor()
+        {
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException
+            {
+                Header length = request.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+                if(length != null)
+                {
+                    bytes.addAndGet(Long.parseLong(length.getValue()));
+                }
+            }
+        }).build();
+        HttpPost newSession = new HttpPost(hubUrl + "/wd/hub/session");
+        newSession.setEntity(new StringEntity(NEW_SESSION, ContentType.APPLICATION_JSON));
+        String sessionId = new JsonParser().parse(new String(execute(newSession), "UTF-8")).getAsJsonObject().get("sessionId").getAsString();
+        sessionUrl = hubUrl + "/wd/hub/session/" + sessionId;
+        bytes.set(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        System.out.println(String.format("%n%s %s: %d bytes on the wire per operation", compression, payload,
+                operations.get() == 0 ? 0 : bytes.get() / operations.get()));
+        client.close();
+        node.stop();
+        hub.stop();
+    }
+
+    /**
+     * Page source like markup, repetitive but not identical.
+     */
+    private static String createSource()
+    {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder(PAYLOAD_SIZE + 256);
+        source.append("<html><head><title>Document Library</title></head><body><table class=\"documents\">");
+        while(source.length() < PAYLOAD_SIZE)
+        {
+            int id = random.nextInt(1000000);
+            source.append("<tr class=\"document-row\" id=\"doc-").append(id).append("\"><td class=\"name\"><a href=\"/share/page/document-details?nodeRef=workspace://SpacesStore/")
+                  .append(Long.toHexString(random.nextLong())).append("\">Document ").append(id)
+                  .append(".docx</a></td><td class=\"modified\">Modified ").append(random.nextInt(60))
+                  .append(" minutes ago by Administrator</td><td class=\"size\">").append(random.nextInt(4096)).append(" KB</td></tr>");
+        }
+        return source.append("</table></body></html>").toString();
+    }
+
+    /**
+     * Base64 of random bytes, like a png screenshot that is compressed already.
+     */
+    private static String createScreenshot()
+    {
+        byte[] image = new byte[PAYLOAD_SIZE * 3 / 4];
+        new Random(1).nextBytes(image);
+        return Base64.encodeBase64String(image);
+    }
+
+    private byte[] execute(final HttpRequestBase request) throws IOException
+    {
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, WireCompression.GZIP);
+        CloseableHttpResponse response = client.execute(request);
+        try
+        {
+            byte[] raw = IOUtils.toByteArray(response.getEntity().getContent());
+            bytes.addAndGet(raw.length);
+            if(response.getStatusLine().getStatusCode() != Grid.RESPONSE_STATUS_200)
+            {
+                throw new IOException(request.getURI() + " failed with " + response.getStatusLine());
+            }
+            Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            if(encoding == null)
+            {
+                return raw;
+            }
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(raw));
+            try
+            {
+                return IOUtils.toByteArray(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        finally
+        {
+            response.close();
+        }
+    }
+
+    @Benchmark
+    public int read() throws IOException
+    {
+        operations.incrementAndGet();
+        return execute(new HttpGet(sessionUrl + readCommand)).length;
+    }
+
+    @Benchmark
+    public int send() throws IOException
+    {
+        operations.incrementAndGet();
+        HttpPost post = new HttpPost(sessionUrl + sendCommand);
+        post.setEntity(new StringEntity(sendBody, ContentType.APPLICATION_JSON));
+        return execute(post).length;
+    }
+}
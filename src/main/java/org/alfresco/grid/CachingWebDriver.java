@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.Keys;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.Keyboard;
+import org.openqa.selenium.interactions.Mouse;
+import org.openqa.selenium.interactions.internal.Coordinates;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.internal.WrapsElement;
+
+/**
+ * {@link WebDriver} decorator that remembers the elements found per locator while the page stays the same.
+ * <p>Page objects look up the same locators over and over, and for a remote driver each lookup
+ * is a round trip through the hub. The decorator answers a repeated <code>findElement</code> of the
+ * driver or of a found element from its cache. Lookups that find nothing are not cached so that
+ * waiting for an element keeps working, and <code>findElements</code> always asks the browser so
+ * that polling a list that grows or shrinks sees its current content.</p>
+ * <p>The cache is dropped when the page may have changed: on navigation, switching window or frame,
+ * running a script, clicking, submitting or pressing enter, when {@link #getCurrentUrl()} reports
+ * a different url and when a cached element turns out to be stale. A stale element is not looked
+ * up again, its {@link StaleElementReferenceException} reaches the caller so that waits such as
+ * <code>ExpectedConditions.stalenessOf</code> keep working, and the next lookup finds the new element.
+ * Pages that change without any of these, such as by a timer, should call {@link #invalidate()}.</p>
+ *
+ * @since 1.9
+ */
+public class CachingWebDriver extends DelegatingWebDriver
+{
+    private final ElementCache cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private long generation;
+    private String url;
+
+    public CachingWebDriver(final WebDriver driver)
+    {
+        super(driver);
+        cache = new ElementCache(driver);
+    }
+
+    /**
+     * Drops every cached element.
+     */
+    public void invalidate()
+    {
+        generation++;
+        cache.clear();
+        invalidations.incrementAndGet();
+    }
+
+    @Override
+    public void get(String url)
+    {
+        invalidate();
+        this.url = null;
+        driver.get(url);
+    }
+
+    @Override
+    public String getCurrentUrl()
+    {
+        String current = driver.getCurrentUrl();
+        if(url != null && !url.equals(current))
+        {
+            invalidate();
+        }
+        url = current;
+        return current;
+    }
+
+    @Override
+    public WebElement findElement(By by)
+    {
+        return cache.findElement(by);
+    }
+
+    @Override
+    public List<WebElement> findElements(By by)
+    {
+        return cache.findElements(by);
+    }
+
+    @Override
+    public void close()
+    {
+        invalidate();
+        driver.close();
+    }
+
+    @Override
+    public void quit()
+    {
+        invalidate();
+        driver.quit();
+    }
+
+    @Override
+    public TargetLocator switchTo()
+    {
+        invalidate();
+        return driver.switchTo();
+    }
+
+    @Override
+    public Navigation navigate()
+    {
+        final Navigation navigation = driver.navigate();
+        return new Navigation()
+        {
+            public void back()
+            {
+                invalidate();
+                navigation.back();
+            }
+
+            public void forward()
+            {
+                invalidate();
+                navigation.forward();
+            }
+
+            public void to(String url)
+            {
+                invalidate();
+                navigation.to(url);
+            }
+
+            public void to(URL url)
+            {
+                invalidate();
+                navigation.to(url);
+            }
+
+            public void refresh()
+            {
+                invalidate();
+                navigation.refresh();
+            }
+        };
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args)
+    {
+        invalidate();
+        return super.executeScript(script, args);
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args)
+    {
+        invalidate();
+        return super.executeAsyncScript(script, args);
+    }
+
+    @Override
+    public Keyboard getKeyboard()
+    {
+        final Keyboard keyboard = super.getKeyboard();
+        return new Keyboard()
+        {
+            public void sendKeys(CharSequence... keysToSend)
+            {
+                invalidate();
+                keyboard.sendKeys(keysToSend);
+            }
+
+            public void pressKey(CharSequence keyToPress)
+            {
+                invalidate();
+                keyboard.pressKey(keyToPress);
+            }
+
+            public void releaseKey(CharSequence keyToRelease)
+            {
+                keyboard.releaseKey(keyToRelease);
+            }
+        };
+    }
+
+    @Override
+    public Mouse getMouse()
+    {
+        final Mouse mouse = super.getMouse();
+        return new Mouse()
+        {
+            public void click(Coordinates where)
+            {
+                invalidate();
+                mouse.click(where);
+            }
+
+            public void doubleClick(Coordinates where)
+            {
+                invalidate();
+                mouse.doubleClick(where);
+            }
+
+            public void mouseDown(Coordinates where)
+            {
+                mouse.mouseDown(where);
+            }
+
+            public void mouseUp(Coordinates where)
+            {
+                invalidate();
+                mouse.mouseUp(where);
+            }
+
+            public void mouseMove(Coordinates where)
+            {
+                mouse.mouseMove(where);
+            }
+
+            public void mouseMove(Coordinates where, long xOffset, long yOffset)
+            {
+                mouse.mouseMove(where, xOffset, yOffset);
+            }
+
+            public void contextClick(Coordinates where)
+            {
+                invalidate();
+                mouse.contextClick(where);
+            }
+        };
+    }
+
+    /**
+     * @return long number of lookups answered from the cache
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return long number of lookups passed to the browser
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return long number of times the cache was dropped
+     */
+    public long getInvalidationCount()
+    {
+        return invalidations.get();
+    }
+
+    /**
+     * @return long number of elements found to be stale
+     */
+    public long getStaleCount()
+    {
+        return stale.get();
+    }
+
+    /**
+     * Elements found under a search context, the driver or a found element.
+     */
+    private class ElementCache
+    {
+        private final SearchContext context;
+        private final Map<By, WebElement> elements = new HashMap<By, WebElement>();
+        private long filled = generation;
+
+        ElementCache(final SearchContext context)
+        {
+            this.context = context;
+        }
+
+        WebElement findElement(final By by)
+        {
+            validate();
+            WebElement element = elements.get(by);
+            if(element != null)
+            {
+                hits.incrementAndGet();
+                return element;
+            }
+            misses.incrementAndGet();
+            element = new CachedElement(context.findElement(by));
+            elements.put(by, element);
+            return element;
+        }
+
+        /**
+         * Lists are not cached, their elements are wrapped so that the lookups made under them are.
+         */
+        List<WebElement> findElements(final By by)
+        {
+            misses.incrementAndGet();
+            List<WebElement> found = context.findElements(by);
+            List<WebElement> list = new ArrayList<WebElement>(found.size());
+            for (WebElement element : found)
+            {
+                list.add(new CachedElement(element));
+            }
+            return list;
+        }
+
+        /**
+         * Drops the elements cached before the last invalidation, which also covers
+         * the cache of an element kept by the caller from an earlier page.
+         */
+        private void validate()
+        {
+            if(filled != generation)
+            {
+                clear();
+            }
+        }
+
+        void clear()
+        {
+            elements.clear();
+            filled = generation;
+        }
+    }
+
+    /**
+     * Element found through the cache, which caches the lookups made under it and
+     * reports a stale reference to the driver.
+     */
+    private class CachedElement implements WebElement, WrapsElement, WrapsDriver, Locatable
+    {
+        private final WebElement element;
+        private final ElementCache children;
+
+        CachedElement(final WebElement element)
+        {
+            this.element = element;
+            this.children = new ElementCache(element);
+        }
+
+        /**
+         * Drops the cache so that the next lookup finds the element that replaced this one.
+         * @param e {@link StaleElementReferenceException} thrown by the element
+         * @return {@link StaleElementReferenceException} to rethrow
+         */
+        private StaleElementReferenceException stale(final StaleElementReferenceException e)
+        {
+            stale.incrementAndGet();
+            invalidate();
+            return e;
+        }
+
+        public void click()
+        {
+            invalidate();
+            try
+            {
+                element.click();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public void submit()
+        {
+            invalidate();
+            try
+            {
+                element.submit();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public void sendKeys(CharSequence... keysToSend)
+        {
+            if(isEnter(keysToSend))
+            {
+                invalidate();
+            }
+            try
+            {
+                element.sendKeys(keysToSend);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public void clear()
+        {
+            try
+            {
+                element.clear();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public String getTagName()
+        {
+            try
+            {
+                return element.getTagName();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public String getAttribute(String name)
+        {
+            try
+            {
+                return element.getAttribute(name);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public boolean isSelected()
+        {
+            try
+            {
+                return element.isSelected();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public boolean isEnabled()
+        {
+            try
+            {
+                return element.isEnabled();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public String getText()
+        {
+            try
+            {
+                return element.getText();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public List<WebElement> findElements(By by)
+        {
+            try
+            {
+                return children.findElements(by);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public WebElement findElement(By by)
+        {
+            try
+            {
+                return children.findElement(by);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public boolean isDisplayed()
+        {
+            try
+            {
+                return element.isDisplayed();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public Point getLocation()
+        {
+            try
+            {
+                return element.getLocation();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public Dimension getSize()
+        {
+            try
+            {
+                return element.getSize();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public Rectangle getRect()
+        {
+            try
+            {
+                return element.getRect();
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public String getCssValue(String propertyName)
+        {
+            try
+            {
+                return element.getCssValue(propertyName);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public <X> X getScreenshotAs(OutputType<X> target) throws WebDriverException
+        {
+            try
+            {
+                return element.getScreenshotAs(target);
+            }
+            catch (StaleElementReferenceException e)
+            {
+                throw stale(e);
+            }
+        }
+
+        public Coordinates getCoordinates()
+        {
+            return ((Locatable) element).getCoordinates();
+        }
+
+        public WebElement getWrappedElement()
+        {
+            return element;
+        }
+
+        public WebDriver getWrappedDriver()
+        {
+            return CachingWebDriver.this;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            Object other = obj instanceof WrapsElement ? ((WrapsElement) obj).getWrappedElement() : obj;
+            return element.equals(other);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return element.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return element.toString();
+        }
+    }
+
+    private static boolean isEnter(final CharSequence... keys)
+    {
+        for (CharSequence key : keys)
+        {
+            String value = String.valueOf(key);
+            if(value.indexOf(Keys.ENTER.charAt(0)) >= 0 || value.indexOf(Keys.RETURN.charAt(0)) >= 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
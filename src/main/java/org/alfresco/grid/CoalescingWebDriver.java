@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * {@link WebDriver} decorator that lets page objects read several elements in one round trip.
+ * <p>Calls made through the {@link WebDriver} interface are passed on unchanged. Lookups and
+ * reads queued on a {@link #batch()} run together in a single script call when the batch is
+ * executed, which over a distant grid saves the latency of every call but the first.
+ * The decorator counts the round trips the batches saved.</p>
+ * <pre>
+ * ElementBatch batch = driver.batch();
+ * Result&lt;String&gt; title = batch.getText(By.cssSelector("h1"));
+ * Result&lt;Boolean&gt; menu = batch.isDisplayed(By.id("menu"));
+ * batch.execute();
+ * </pre>
+ *
+ * @since 1.9
+ */
+public class CoalescingWebDriver extends DelegatingWebDriver
+{
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    public CoalescingWebDriver(final WebDriver driver)
+    {
+        super(driver);
+    }
+
+    /**
+     * Starts a new batch of element lookups and reads against the current page.
+     * @return {@link ElementBatch} empty batch
+     */
+    public ElementBatch batch()
+    {
+        return new ElementBatch(driver)
+        {
+            @Override
+            public int execute()
+            {
+                int queued = size();
+                int made = super.execute();
+                operations.addAndGet(queued);
+                roundTrips.addAndGet(made);
+                return made;
+            }
+        };
+    }
+
+    /**
+     * Starts a batch on any driver, so that page objects need not know whether their driver is decorated.
+     * @param driver {@link WebDriver} possibly a {@link CoalescingWebDriver} or wrapping one
+     * @return {@link ElementBatch} empty batch
+     */
+    public static ElementBatch batch(final WebDriver driver)
+    {
+        WebDriver decorated = driver;
+        while(decorated instanceof DelegatingWebDriver)
+        {
+            if(decorated instanceof CoalescingWebDriver)
+            {
+                return ((CoalescingWebDriver) decorated).batch();
+            }
+            decorated = ((DelegatingWebDriver) decorated).getWrappedDriver();
+        }
+        return new ElementBatch(driver);
+    }
+
+    /**
+     * @return long number of operations run through batches
+     */
+    public long getOperationCount()
+    {
+        return operations.get();
+    }
+
+    /**
+     * @return long number of round trips the batches made
+     */
+    public long getRoundTripCount()
+    {
+        return roundTrips.get();
+    }
+
+    /**
+     * @return long round trips saved against running each operation on its own
+     */
+    public long getRoundTripsSaved()
+    {
+        return Math.max(0, operations.get() - roundTrips.get());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.List;
+import java.util.Set;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.interactions.HasInputDevices;
+import org.openqa.selenium.interactions.Keyboard;
+import org.openqa.selenium.interactions.Mouse;
+
+/**
+ * Base of the {@link WebDriver} decorators handed out by the {@link WebDriverFactory}.
+ * <p>Every call is passed to the wrapped driver. The decorator offers the optional
+ * interfaces of a remote driver, screenshots, scripts, capabilities and input devices,
+ * and fails with an {@link UnsupportedOperationException} where the wrapped driver does not.</p>
+ *
+ * @since 1.9
+ */
+public abstract class DelegatingWebDriver implements WebDriver, JavascriptExecutor, TakesScreenshot,
+                                                     HasCapabilities, HasInputDevices, WrapsDriver
+{
+    protected final WebDriver driver;
+
+    protected DelegatingWebDriver(final WebDriver driver)
+    {
+        if(driver == null)
+        {
+            throw new IllegalArgumentException("WebDriver is required");
+        }
+        this.driver = driver;
+    }
+
+    /**
+     * Removes every decorator from a driver.
+     * @param driver {@link WebDriver} possibly decorated
+     * @return {@link WebDriver} the driver that talks to the browser
+     */
+    public static WebDriver unwrap(final WebDriver driver)
+    {
+        WebDriver unwrapped = driver;
+        while(unwrapped instanceof DelegatingWebDriver)
+        {
+            unwrapped = ((DelegatingWebDriver) unwrapped).getWrappedDriver();
+        }
+        return unwrapped;
+    }
+
+    public WebDriver getWrappedDriver()
+    {
+        return driver;
+    }
+
+    public void get(String url)
+    {
+        driver.get(url);
+    }
+
+    public String getCurrentUrl()
+    {
+        return driver.getCurrentUrl();
+    }
+
+    public String getTitle()
+    {
+        return driver.getTitle();
+    }
+
+    public List<WebElement> findElements(By by)
+    {
+        return driver.findElements(by);
+    }
+
+    public WebElement findElement(By by)
+    {
+        return driver.findElement(by);
+    }
+
+    public String getPageSource()
+    {
+        return driver.getPageSource();
+    }
+
+    public void close()
+    {
+        driver.close();
+    }
+
+    public void quit()
+    {
+        driver.quit();
+    }
+
+    public Set<String> getWindowHandles()
+    {
+        return driver.getWindowHandles();
+    }
+
+    public String getWindowHandle()
+    {
+        return driver.getWindowHandle();
+    }
+
+    public TargetLocator switchTo()
+    {
+        return driver.switchTo();
+    }
+
+    public Navigation navigate()
+    {
+        return driver.navigate();
+    }
+
+    public Options manage()
+    {
+        return driver.manage();
+    }
+
+    public Object executeScript(String script, Object... args)
+    {
+        return getJavascriptExecutor().executeScript(script, args);
+    }
+
+    public Object executeAsyncScript(String script, Object... args)
+    {
+        return getJavascriptExecutor().executeAsyncScript(script, args);
+    }
+
+    /**
+     * @return boolean true if the wrapped driver runs scripts
+     */
+    public boolean isJavascriptEnabled()
+    {
+        return driver instanceof JavascriptExecutor;
+    }
+
+    public <X> X getScreenshotAs(OutputType<X> target) throws WebDriverException
+    {
+        if(!(driver instanceof TakesScreenshot))
+        {
+            throw new UnsupportedOperationException("The wrapped driver does not take screenshots");
+        }
+        return ((TakesScreenshot) driver).getScreenshotAs(target);
+    }
+
+    public Capabilities getCapabilities()
+    {
+        if(!(driver instanceof HasCapabilities))
+        {
+            throw new UnsupportedOperationException("The wrapped driver has no capabilities");
+        }
+        return ((HasCapabilities) driver).getCapabilities();
+    }
+
+    public Keyboard getKeyboard()
+    {
+        return getInputDevices().getKeyboard();
+    }
+
+    public Mouse getMouse()
+    {
+        return getInputDevices().getMouse();
+    }
+
+    private JavascriptExecutor getJavascriptExecutor()
+    {
+        if(!isJavascriptEnabled())
+        {
+            throw new UnsupportedOperationException("The wrapped driver does not run scripts");
+        }
+        return (JavascriptExecutor) driver;
+    }
+
+    private HasInputDevices getInputDevices()
+    {
+        if(!(driver instanceof HasInputDevices))
+        {
+            throw new UnsupportedOperationException("The wrapped driver has no input devices");
+        }
+        return (HasInputDevices) driver;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + " [" + driver + "]";
+    }
+}
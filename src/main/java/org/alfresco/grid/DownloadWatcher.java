@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for browser downloads to complete by watching the download directory.
+ * <p>Firefox writes a download to <code>&lt;name&gt;.part</code>, and may create an
+ * empty <code>&lt;name&gt;</code> placeholder, until the transfer is complete, when the
+ * partial file is renamed or removed. A download is complete once the file exists
+ * and its partial file does not; an empty file must stay so for a short while as the
+ * placeholder can appear before the partial file. The directory is only checked again
+ * when it changes.</p>
+ *
+ * @since 1.9
+ */
+public final class DownloadWatcher
+{
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final long PLACEHOLDER_SETTLE_TIME = 500;
+
+    private DownloadWatcher(){};
+
+    /**
+     * Waits until the file has been downloaded completely to the directory.
+     * @param directory File download directory
+     * @param fileName String name of the downloaded file
+     * @param timeout long maximum time in milliseconds to wait
+     * @return File downloaded file
+     * @throws RuntimeException if the download did not complete within the timeout
+     */
+    public static File waitForFile(final File directory, final String fileName, final long timeout)
+    {
+        if(directory == null || !directory.isDirectory())
+        {
+            throw new IllegalArgumentException(String.format("Download directory %s does not exist", directory));
+        }
+        if(fileName == null || fileName.isEmpty())
+        {
+            throw new IllegalArgumentException("File name is required");
+        }
+        File file = new File(directory, fileName);
+        File partial = new File(directory, fileName + PARTIAL_SUFFIX);
+        long deadline = System.currentTimeMillis() + timeout;
+        WatchService watcher = null;
+        try
+        {
+            watcher = FileSystems.getDefault().newWatchService();
+            Path path = directory.toPath();
+            path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_MODIFY,
+                                   StandardWatchEventKinds.ENTRY_DELETE);
+            //Checked after registering so that a download completing meanwhile is not missed
+            long emptySince = 0;
+            while(true)
+            {
+                long now = System.currentTimeMillis();
+                if(file.isFile() && !partial.exists())
+                {
+                    if(file.length() > 0)
+                    {
+                        return file;
+                    }
+                    emptySince = emptySince == 0 ? now : emptySince;
+                    if(now - emptySince >= PLACEHOLDER_SETTLE_TIME)
+                    {
+                        return file;
+                    }
+                }
+                else
+                {
+                    emptySince = 0;
+                }
+                long remaining = deadline - now;
+                if(remaining <= 0)
+                {
+                    throw new RuntimeException(String.format("Download of %s did not complete within %d ms", file, timeout));
+                }
+                long wait = emptySince == 0 ? remaining : Math.min(remaining, emptySince + PLACEHOLDER_SETTLE_TIME - now);
+                WatchKey key = watcher.poll(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+                if(key != null)
+                {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(String.format("Unable to watch download directory %s", directory), e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for download " + fileName, e);
+        }
+        finally
+        {
+            if(watcher != null)
+            {
+                try
+                {
+                    watcher.close();
+                }
+                catch (IOException e)
+                {
+                    //Nothing left to release
+                }
+            }
+        }
+    }
+}
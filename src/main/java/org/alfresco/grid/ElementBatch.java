@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+/**
+ * Element lookups and reads queued to be run together in a single script call.
+ * <p>Each lookup and read of a remote driver is a round trip through the hub and the node.
+ * A batch collects them, {@link #execute()} runs all of them in one <code>executeScript</code>
+ * and each queued call returns a {@link Result} that holds its value afterwards.</p>
+ * <p>The batch reads the page as it is when it is executed: it does not wait for elements
+ * like an implicit wait does. Text is the trimmed <code>innerText</code> of the element and
+ * the displayed check looks at the computed style and the size of the element, which agree
+ * with the driver for ordinary pages but not in every corner case. Locators other than the
+ * standard {@link By} strategies, and drivers that do not run scripts, fall back to one
+ * driver call per operation.</p>
+ *
+ * @since 1.9
+ */
+public class ElementBatch
+{
+    private static final String SCRIPT_RESOURCE = "element-batch.js";
+    private static final String SCRIPT = loadScript();
+    private static final Map<Class<? extends By>, String[]> STRATEGIES = new HashMap<Class<? extends By>, String[]>();
+    static
+    {
+        STRATEGIES.put(By.ById.class, new String[] {"id", "By.id: "});
+        STRATEGIES.put(By.ByName.class, new String[] {"name", "By.name: "});
+        STRATEGIES.put(By.ByCssSelector.class, new String[] {"css selector", "By.cssSelector: "});
+        STRATEGIES.put(By.ByClassName.class, new String[] {"class name", "By.className: "});
+        STRATEGIES.put(By.ByTagName.class, new String[] {"tag name", "By.tagName: "});
+        STRATEGIES.put(By.ByXPath.class, new String[] {"xpath", "By.xpath: "});
+        STRATEGIES.put(By.ByLinkText.class, new String[] {"link text", "By.linkText: "});
+        STRATEGIES.put(By.ByPartialLinkText.class, new String[] {"partial link text", "By.partialLinkText: "});
+    }
+    private final WebDriver driver;
+    private final List<Operation<?>> operations = new ArrayList<Operation<?>>();
+
+    /**
+     * Constructor.
+     * @param driver {@link WebDriver} to read the page of
+     */
+    public ElementBatch(final WebDriver driver)
+    {
+        if(driver == null)
+        {
+            throw new IllegalArgumentException("WebDriver is required");
+        }
+        this.driver = driver;
+    }
+
+    private static String loadScript()
+    {
+        InputStream in = ElementBatch.class.getResourceAsStream(SCRIPT_RESOURCE);
+        if(in == null)
+        {
+            throw new IllegalStateException("Missing element batch script " + SCRIPT_RESOURCE);
+        }
+        try
+        {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read element batch script " + SCRIPT_RESOURCE, e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Queues a lookup of the first element matching the locator.
+     * @param by {@link By} locator
+     * @return {@link Result} holding the element, which throws {@link NoSuchElementException} if there was none
+     */
+    public Result<WebElement> findElement(final By by)
+    {
+        return add(new Operation<WebElement>(Type.FIND, by, null));
+    }
+
+    /**
+     * Queues a lookup of all elements matching the locator.
+     * @param by {@link By} locator
+     * @return {@link Result} holding the possibly empty list of elements
+     */
+    public Result<List<WebElement>> findElements(final By by)
+    {
+        return add(new Operation<List<WebElement>>(Type.FIND_ALL, by, null));
+    }
+
+    /**
+     * Queues a check whether any element matches the locator.
+     * @param by {@link By} locator
+     * @return {@link Result} holding true if an element was found
+     */
+    public Result<Boolean> isPresent(final By by)
+    {
+        return add(new Operation<Boolean>(Type.PRESENT, by, null));
+    }
+
+    /**
+     * Queues a read of the visible text of the first element matching the locator,
+     * empty for an element that is not displayed as with {@link WebElement#getText()}.
+     * @param by {@link By} locator
+     * @return {@link Result} holding the text, which throws {@link NoSuchElementException} if there was no element
+     */
+    public Result<String> getText(final By by)
+    {
+        return add(new Operation<String>(Type.TEXT, by, null));
+    }
+
+    /**
+     * Queues a read of the text of all elements matching the locator.
+     * @param by {@link By} locator
+     * @return {@link Result} holding the texts in document order
+     */
+    public Result<List<String>> getTexts(final By by)
+    {
+        return add(new Operation<List<String>>(Type.TEXTS, by, null));
+    }
+
+    /**
+     * Queues a check whether the first element matching the locator is displayed.
+     * @param by {@link By} locator
+     * @return {@link Result} holding true if displayed, which throws {@link NoSuchElementException} if there was no element
+     */
+    public Result<Boolean> isDisplayed(final By by)
+    {
+        return add(new Operation<Boolean>(Type.DISPLAYED, by, null));
+    }
+
+    /**
+     * Queues a read of an attribute or property of the first element matching the locator.
+     * @param by {@link By} locator
+     * @param name String attribute name
+     * @return {@link Result} holding the value or null, which throws {@link NoSuchElementException} if there was no element
+     */
+    public Result<String> getAttribute(final By by, final String name)
+    {
+        if(name == null || name.isEmpty())
+        {
+            throw new IllegalArgumentException("Attribute name is required");
+        }
+        return add(new Operation<String>(Type.ATTRIBUTE, by, name));
+    }
+
+    /**
+     * @return int number of queued operations
+     */
+    public int size()
+    {
+        return operations.size();
+    }
+
+    /**
+     * Runs the queued operations, the operations the script can express in one round trip
+     * and the others one by one. The batch is empty afterwards and can be reused.
+     * @return int number of round trips made to the browser
+     */
+    public int execute()
+    {
+        List<Operation<?>> scripted = new ArrayList<Operation<?>>();
+        List<Operation<?>> direct = new ArrayList<Operation<?>>();
+        boolean javascript = driver instanceof JavascriptExecutor
+                && (!(driver instanceof DelegatingWebDriver) || ((DelegatingWebDriver) driver).isJavascriptEnabled());
+        for (Operation<?> operation : operations)
+        {
+            if(javascript && operation.strategy != null)
+            {
+                scripted.add(operation);
+            }
+            else
+            {
+                direct.add(operation);
+            }
+        }
+        operations.clear();
+        int roundTrips = 0;
+        if(!scripted.isEmpty())
+        {
+            roundTrips += runScript(scripted);
+        }
+        for (Operation<?> operation : direct)
+        {
+            roundTrips += operation.runDirect(driver);
+        }
+        return roundTrips;
+    }
+
+    private <T> Result<T> add(final Operation<T> operation)
+    {
+        operations.add(operation);
+        return operation.result;
+    }
+
+    /**
+     * Runs the operations in one script, those the browser can not run in the script are run directly.
+     * @return int number of round trips made
+     */
+    private int runScript(final List<Operation<?>> scripted)
+    {
+        List<List<String>> arguments = new ArrayList<List<String>>();
+        for (Operation<?> operation : scripted)
+        {
+            arguments.add(operation.toArguments());
+        }
+        Object response = ((JavascriptExecutor) driver).executeScript(SCRIPT, arguments);
+        if(!(response instanceof List) || ((List<?>) response).size() != scripted.size())
+        {
+            throw new IllegalStateException("Unexpected element batch response: " + response);
+        }
+        List<?> results = (List<?>) response;
+        int roundTrips = 1;
+        for (int i = 0; i < scripted.size(); i++)
+        {
+            List<?> result = (List<?>) results.get(i);
+            if(result.get(0) == null)
+            {
+                roundTrips += scripted.get(i).runDirect(driver);
+            }
+            else
+            {
+                scripted.get(i).complete(Boolean.TRUE.equals(result.get(0)), result.get(1));
+            }
+        }
+        return roundTrips;
+    }
+
+    /**
+     * Value of a queued operation, available once the batch has been executed.
+     */
+    public static class Result<T>
+    {
+        private final By by;
+        private boolean done;
+        private boolean found;
+        private T value;
+
+        Result(final By by)
+        {
+            this.by = by;
+        }
+
+        /**
+         * @return T value read by the batch
+         * @throws IllegalStateException if the batch has not been executed
+         * @throws NoSuchElementException if the operation needed an element and none was found
+         */
+        public T get()
+        {
+            if(!done)
+            {
+                throw new IllegalStateException("The batch has not been executed");
+            }
+            if(!found)
+            {
+                throw new NoSuchElementException("Unable to locate element: " + by);
+            }
+            return value;
+        }
+
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        void set(final boolean found, final T value)
+        {
+            this.found = found;
+            this.value = value;
+            this.done = true;
+        }
+    }
+
+    private static enum Type
+    {
+        FIND("find"), FIND_ALL("findAll"), PRESENT("present"), TEXT("text"),
+        TEXTS("texts"), DISPLAYED("displayed"), ATTRIBUTE("attribute");
+
+        private final String value;
+
+        private Type(final String value)
+        {
+            this.value = value;
+        }
+    }
+
+    private static class Operation<T>
+    {
+        private final Type type;
+        private final By by;
+        private final String name;
+        private final String[] strategy;
+        private final Result<T> result;
+
+        Operation(final Type type, final By by, final String name)
+        {
+            if(by == null)
+            {
+                throw new IllegalArgumentException("Locator is required");
+            }
+            this.type = type;
+            this.by = by;
+            this.name = name;
+            this.strategy = STRATEGIES.get(by.getClass());
+            this.result = new Result<T>(by);
+        }
+
+        List<String> toArguments()
+        {
+            return Arrays.asList(type.value, strategy[0], by.toString().substring(strategy[1].length()), name == null ? "" : name);
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(final boolean found, final Object value)
+        {
+            result.set(found, (T) value);
+        }
+
+        /**
+         * Runs the operation with plain driver calls.
+         * @return int number of round trips made
+         */
+        int runDirect(final WebDriver driver)
+        {
+            List<WebElement> elements = driver.findElements(by);
+            WebElement first = elements.isEmpty() ? null : elements.get(0);
+            switch (type)
+            {
+                case FIND:
+                    complete(first != null, first);
+                    return 1;
+                case FIND_ALL:
+                    complete(true, elements);
+                    return 1;
+                case PRESENT:
+                    complete(true, first != null);
+                    return 1;
+                case TEXTS:
+                    List<String> texts = new ArrayList<String>();
+                    for (WebElement element : elements)
+                    {
+                        texts.add(element.getText());
+                    }
+                    complete(true, Collections.unmodifiableList(texts));
+                    return 1 + elements.size();
+                case TEXT:
+                    complete(first != null, first == null ? null : first.getText());
+                    break;
+                case DISPLAYED:
+                    complete(first != null, first == null ? null : first.isDisplayed());
+                    break;
+                case ATTRIBUTE:
+                    complete(first != null, first == null ? null : first.getAttribute(name));
+                    break;
+            }
+            return first == null ? 1 : 2;
+        }
+    }
+}
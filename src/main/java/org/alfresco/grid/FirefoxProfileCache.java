@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openqa.selenium.firefox.FirefoxProfile;
+
+/**
+ * Cache of encoded {@link FirefoxProfile} keyed by the effective set of preferences.
+ * <p>Encoding a profile lays it out on disk, zips it and base64 encodes the result,
+ * which is repeated for every remote session although the preferences rarely change.
+ * The cache builds the encoded profile once per preference set so that it can be
+ * passed as the profile capability of any number of sessions.</p>
+ *
+ * @since 1.9
+ */
+public class FirefoxProfileCache
+{
+    private final ConcurrentMap<Map<String, Object>, String> encodedProfiles = new ConcurrentHashMap<Map<String, Object>, String>();
+
+    /**
+     * Builds a new profile with native events enabled and the given preferences applied.
+     * @param preferences Map of firefox preference keys and values
+     * @return {@link FirefoxProfile} profile
+     */
+    public static FirefoxProfile build(final Map<String, Object> preferences)
+    {
+        FirefoxProfile profile = new FirefoxProfile();
+        apply(profile, preferences);
+        return profile;
+    }
+
+    /**
+     * Applies preferences to a profile using the setter matching the value type.
+     * @param profile {@link FirefoxProfile} to update
+     * @param preferences Map of firefox preference keys and values
+     */
+    public static void apply(final FirefoxProfile profile, final Map<String, Object> preferences)
+    {
+        profile.setEnableNativeEvents(true);
+        for (Map.Entry<String, Object> preference : preferences.entrySet())
+        {
+            Object value = preference.getValue();
+            if(value instanceof Integer)
+            {
+                profile.setPreference(preference.getKey(), ((Integer) value).intValue());
+            }
+            else if(value instanceof Boolean)
+            {
+                profile.setPreference(preference.getKey(), ((Boolean) value).booleanValue());
+            }
+            else
+            {
+                profile.setPreference(preference.getKey(), (String) value);
+            }
+        }
+    }
+
+    /**
+     * Gets the encoded profile for the preferences, building it on first use.
+     * @param preferences Map of firefox preference keys and values
+     * @return String base64 encoded zip of the profile
+     */
+    public String getEncoded(final Map<String, Object> preferences)
+    {
+        Map<String, Object> key = Collections.unmodifiableMap(new TreeMap<String, Object>(preferences));
+        String encoded = encodedProfiles.get(key);
+        if(encoded == null)
+        {
+            try
+            {
+                encoded = build(key).toJson();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Unable to encode firefox profile", e);
+            }
+            String existing = encodedProfiles.putIfAbsent(key, encoded);
+            if(existing != null)
+            {
+                encoded = existing;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @return int number of cached profiles
+     */
+    public int size()
+    {
+        return encodedProfiles.size();
+    }
+
+    /**
+     * Removes all cached profiles.
+     */
+    public void clear()
+    {
+        encodedProfiles.clear();
+    }
+}
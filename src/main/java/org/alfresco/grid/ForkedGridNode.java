@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.grid.common.RegistrationRequest;
+
+/**
+ * Runs a {@link GridNode} in a jvm of its own so that its garbage and the buffers of its
+ * browser drivers do not pause the jvm running the tests.
+ * <p>The child jvm gets the classpath of this jvm, the options of
+ * <code>node.fork.jvm.args</code> such as its heap size, and the <code>webdriver.*</code>,
+ * <code>grid.upload.cache.*</code> and {@value GridProperties#CONFIG_DIR} system properties.
+ * Its upload cache is kept under a directory named after the node port. Its output is logged here under
+ * <code>org.alfresco.grid.GridNode.&lt;port&gt;</code>. {@link #stop()} closes the standard
+ * input of the child, which stops its node and exits; a child that does not exit in time is
+ * killed. A child whose parent dies sees its input closed the same way.</p>
+ *
+ * @since 1.9
+ */
+public class ForkedGridNode implements LocalNode
+{
+    /** Lines written by {@link GridNode#main(String[])} to report its progress */
+    static final String STARTED = "@grid.node.started";
+    static final String REGISTERED = "@grid.node.registered";
+    private static final String JVM_ARGS = "node.fork.jvm.args";
+    private static final String WEBDRIVER_PREFIX = "webdriver.";
+    private static final String UPLOAD_CACHE_PREFIX = "grid.upload.cache.";
+    private static final long STOP_TIMEOUT = 15000;
+    private static final long KILL_TIMEOUT = 5000;
+    private final Log logger = LogFactory.getLog(ForkedGridNode.class);
+    private final Log nodeLogger;
+    private final int hubPort;
+    private final int nodePort;
+    private final List<String> jvmArgs;
+    private final int slotCount;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private Process process;
+    private Thread pump;
+
+    /**
+     * Constructor with the jvm options of the node properties.
+     * @param hubPort int port of the local hub
+     * @param nodePort int port of the node
+     */
+    public ForkedGridNode(final int hubPort, final int nodePort)
+    {
+        this(hubPort, nodePort, GridProperties.getNodeSetting(JVM_ARGS));
+    }
+
+    /**
+     * Constructor.
+     * @param hubPort int port of the local hub
+     * @param nodePort int port of the node
+     * @param jvmArgs String options of the child jvm separated by spaces, such as <code>-Xmx512m</code>
+     */
+    public ForkedGridNode(final int hubPort, final int nodePort, final String jvmArgs)
+    {
+        this.hubPort = hubPort;
+        this.nodePort = nodePort;
+        this.jvmArgs = StringUtils.isBlank(jvmArgs) ? new ArrayList<String>() : Arrays.asList(jvmArgs.trim().split("\\s+"));
+        this.nodeLogger = LogFactory.getLog(GridNode.class.getName() + "." + nodePort);
+        this.slotCount = GridNode.getSlotCount(RegistrationRequest.build(GridProperties.getNodeProperties(hubPort, nodePort)));
+    }
+
+    /**
+     * Launches the child jvm and waits until its node server has started.
+     * @throws RuntimeException if the child could not be launched or exited
+     */
+    public synchronized void startServer()
+    {
+        if(process != null)
+        {
+            throw new IllegalStateException("Grid node on port " + nodePort + " is already started");
+        }
+        List<String> command = getCommand();
+        logger.info("Starting the grid node in a new jvm: " + StringUtils.join(command, ' '));
+        try
+        {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Unable to start the grid node jvm on port " + nodePort, e);
+        }
+        pump = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                pump();
+            }
+        }, "grid-node-" + nodePort + "-output");
+        pump.setDaemon(true);
+        pump.start();
+        await(started, Grid.READY_TIMEOUT, "start");
+    }
+
+    /**
+     * Waits until the child has registered its node with the hub.
+     * @param timeout long maximum time in milliseconds to wait
+     */
+    public void register(final long timeout)
+    {
+        await(registered, timeout, "register");
+    }
+
+    List<String> getCommand()
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmArgs);
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if(name.startsWith(WEBDRIVER_PREFIX) || name.equals(GridProperties.CONFIG_DIR)
+                    || (name.startsWith(UPLOAD_CACHE_PREFIX) && !name.equals(UploadCache.CACHE_DIR)))
+            {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-D" + UploadCache.CACHE_DIR + "=" + new File(UploadCache.getParentDirectory(), String.valueOf(nodePort)).getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(GridNode.class.getName());
+        command.add(String.valueOf(hubPort));
+        command.add(String.valueOf(nodePort));
+        return command;
+    }
+
+    /**
+     * Logs the output of the child and notes its progress, the latches are released
+     * when the child exits so that nobody waits for a node that is gone.
+     */
+    private void pump()
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        try
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(STARTED.equals(line))
+                {
+                    started.countDown();
+                }
+                else if(REGISTERED.equals(line))
+                {
+                    registered.countDown();
+                }
+                else
+                {
+                    nodeLogger.info(line);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.debug("Stopped reading the output of the grid node on port " + nodePort, e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(reader);
+            started.countDown();
+            registered.countDown();
+        }
+    }
+
+    /**
+     * Waits for a step of the child, a child that fails the step is stopped before the failure is thrown.
+     */
+    private void await(final CountDownLatch latch, final long timeout, final String step)
+    {
+        try
+        {
+            if(!latch.await(timeout, TimeUnit.MILLISECONDS))
+            {
+                throw new RuntimeException(String.format("Grid node on port %d did not %s within %d ms", nodePort, step, timeout));
+            }
+            if(!isAlive())
+            {
+                throw new RuntimeException(String.format("Grid node on port %d exited with %d before it could %s", nodePort, process.exitValue(), step));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            stop();
+            throw new RuntimeException("Interrupted while waiting for the grid node on port " + nodePort, e);
+        }
+        catch (RuntimeException e)
+        {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * @return boolean true if the child jvm is running
+     */
+    public synchronized boolean isAlive()
+    {
+        return process != null && process.isAlive();
+    }
+
+    public int getSlotCount()
+    {
+        return slotCount;
+    }
+
+    public int getPort()
+    {
+        return nodePort;
+    }
+
+    /**
+     * Asks the child to stop its node and exit, and kills it if it does not in time.
+     */
+    public synchronized void stop()
+    {
+        if(process == null)
+        {
+            return;
+        }
+        logger.info("Stopping the grid node jvm on port " + nodePort);
+        IOUtils.closeQuietly(process.getOutputStream());
+        try
+        {
+            if(!process.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS))
+            {
+                logger.warn(String.format("Grid node on port %d did not stop within %d ms, killing it", nodePort, STOP_TIMEOUT));
+                process.destroy();
+                if(!process.waitFor(KILL_TIMEOUT, TimeUnit.MILLISECONDS))
+                {
+                    process.destroyForcibly().waitFor(KILL_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+            pump.join(KILL_TIMEOUT);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+        }
+        process = null;
+    }
+}
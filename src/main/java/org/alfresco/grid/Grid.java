@@ -19,20 +19,27 @@
 package org.alfresco.grid;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
 /**
- * Selenium Grid bean, the bean holds both the grid and a node and acts as the local grid.
+ * Selenium Grid bean, the bean holds both the grid and its nodes and acts as the local grid.
  * All integration tests and Selenium base operation are run via Selenium Grid. 
- * In the local environment it will start the service by starting the local Grid and a node. 
- * The node is registered to the local grid and manages the local browser.  
+ * In the local environment it will start the service by starting the local Grid and the nodes. 
+ * The nodes are registered to the local grid and manage the local browsers, the number of
+ * nodes is set by node.count in the node properties or sized to the available processors.
+ * With node.fork=true each node runs in a jvm of its own, see {@link ForkedGridNode}.
  * 
  * This setup ensures that the grid is always used to run selenium operation, the build environment
  * uses a dedicated grid farm to manage all the browsers and is overriden by setting param:
@@ -45,10 +52,24 @@ public class Grid
 {
     public static int RESPONSE_STATUS_404 = 404;
     public static int RESPONSE_STATUS_200 = 200;
+    static final long READY_TIMEOUT = 60000;
+    static final long MIN_POLL_INTERVAL = 50;
+    private static final long MAX_POLL_INTERVAL = 1000;
+    private static final String NODE_COUNT = "node.count";
+    private static final String NODE_COUNT_AUTO = "auto";
+    private static final String NODE_PORT = "node.port";
+    private static final String NODE_FORK = "node.fork";
+    private static final String NODE_MAX_INSTANCES = "browser.max.instances";
+    private static final int DEFAULT_NODE_PORT = 5555;
     private Log logger = LogFactory.getLog(Grid.class);
     private GridHub grid;
-    private GridNode node;
+    private final List<LocalNode> nodes = new ArrayList<LocalNode>();
     private final boolean isGridLocal;
+    private long startedAt;
+    private long hubStartTime;
+    private long nodeStartTime;
+    private long registrationTime;
+    private long startupTime;
     
     /**
      * Constructor.
@@ -61,15 +82,282 @@ public class Grid
         if(localGrid)
         {
             grid = new GridHub();
-            node = new GridNode();
+            int nodeCount = getNodeCount();
+            int nodePort = getNodePort();
+            boolean fork = Boolean.parseBoolean(GridProperties.getNodeSetting(NODE_FORK));
+            for (int i = 0; i < nodeCount; i++)
+            {
+                nodes.add(fork ? new ForkedGridNode(grid.getPort(), nodePort + i) : new GridNode(true, grid.getPort(), nodePort + i));
+            }
             if(!isAlive())
             {
-                grid.run();
-                node.start();
+                start();
+            }
+        }
+    }
+    
+    /**
+     * Constructor for a local grid made of the given hub and nodes, which are not started.
+     * @param hub {@link GridHub} hub of the grid
+     * @param localNodes List of {@link GridNode} or {@link ForkedGridNode} registering with the hub
+     */
+    Grid(final GridHub hub, final List<? extends LocalNode> localNodes)
+    {
+        this.isGridLocal = true;
+        this.grid = hub;
+        this.nodes.addAll(localNodes);
+    }
+    
+    /**
+     * Number of nodes to start, either configured or one node for each
+     * set of browser max instances processors of the machine.
+     * @return int number of nodes
+     */
+    private int getNodeCount()
+    {
+        String count = GridProperties.getNodeSetting(NODE_COUNT);
+        if(StringUtils.isEmpty(count) || NODE_COUNT_AUTO.equalsIgnoreCase(count))
+        {
+            int maxInstances = Integer.parseInt(GridProperties.getNodeSetting(NODE_MAX_INSTANCES));
+            return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, maxInstances));
+        }
+        int nodeCount = Integer.parseInt(count);
+        if(nodeCount < 1)
+        {
+            throw new IllegalArgumentException(String.format("The property %s requires at least one node: %s", NODE_COUNT, count));
+        }
+        return nodeCount;
+    }
+    
+    private int getNodePort()
+    {
+        String port = GridProperties.getNodeSetting(NODE_PORT);
+        return StringUtils.isEmpty(port) ? DEFAULT_NODE_PORT : Integer.parseInt(port);
+    }
+    
+    /**
+     * Starts the hub and the nodes and waits until the grid is ready.
+     * The hub and the node servers boot concurrently, each node registers
+     * as soon as the hub answers, so the grid is up in about the time of the
+     * slower of the two rather than their sum. If the hub or a node fails to
+     * start, the hub and all nodes are closed before the failure is thrown.
+     */
+    void start()
+    {
+        startedAt = System.currentTimeMillis();
+        final AtomicLong nodeStarted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size() + 1);
+        try
+        {
+            List<Future<?>> started = new ArrayList<Future<?>>();
+            started.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    grid.run();
+                    hubStartTime = System.currentTimeMillis() - startedAt;
+                }
+            }));
+            for (final LocalNode node : nodes)
+            {
+                started.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        node.startServer();
+                        long time = System.currentTimeMillis() - startedAt;
+                        nodeStarted.accumulateAndGet(time, Math::max);
+                        node.register(READY_TIMEOUT);
+                    }
+                }));
+            }
+            for (Future<?> future : started)
+            {
+                future.get();
+            }
+            nodeStartTime = nodeStarted.get();
+            logger.info(String.format("Started grid hub and %d grid nodes", nodes.size()));
+        }
+        catch (ExecutionException e)
+        {
+            abort(executor);
+            throw new RuntimeException("Unable to start the local grid", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            abort(executor);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while starting the local grid", e);
+        }
+        catch (RuntimeException e)
+        {
+            abort(executor);
+            throw e;
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        if(!awaitReady(READY_TIMEOUT))
+        {
+            logger.warn(String.format("Local grid did not register %d slots within %d ms", getSlotCount(), READY_TIMEOUT));
+        }
+    }
+    
+    /**
+     * Stops the hub and nodes after one of them failed to start, the others
+     * are interrupted and waited for so that none is left running.
+     */
+    private void abort(final ExecutorService executor)
+    {
+        executor.shutdownNow();
+        try
+        {
+            executor.awaitTermination(READY_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        try
+        {
+            close();
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to close the local grid after it failed to start", e);
+        }
+    }
+
+    /**
+     * @return int number of browser slots the local nodes offer
+     */
+    public int getSlotCount()
+    {
+        int slots = 0;
+        for (LocalNode node : nodes)
+        {
+            slots += node.getSlotCount();
+        }
+        return slots;
+    }
+    
+    /**
+     * @return List of the local {@link GridNode} running in this jvm
+     */
+    public List<GridNode> getNodes()
+    {
+        return getNodes(GridNode.class);
+    }
+    
+    /**
+     * @return List of the local {@link ForkedGridNode} running in jvms of their own
+     */
+    public List<ForkedGridNode> getForkedNodes()
+    {
+        return getNodes(ForkedGridNode.class);
+    }
+    
+    private <T extends LocalNode> List<T> getNodes(final Class<T> type)
+    {
+        List<T> matching = new ArrayList<T>();
+        for (LocalNode node : nodes)
+        {
+            if(type.isInstance(node))
+            {
+                matching.add(type.cast(node));
+            }
+        }
+        return Collections.unmodifiableList(matching);
+    }
+    
+    /**
+     * Waits until the local nodes have registered and all of their slots are
+     * available on the hub. The hub registry is polled with an increasing interval.
+     * @param timeout long maximum time to wait in milliseconds
+     * @return true if the expected slots are available, false if the timeout expired
+     */
+    public boolean awaitReady(final long timeout)
+    {
+        if(grid == null || nodes.isEmpty())
+        {
+            return true;
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        long interval = MIN_POLL_INTERVAL;
+        int expected = getSlotCount();
+        while(true)
+        {
+            try
+            {
+                HubStatus status = HubStatus.fetch(grid.getUrl());
+                if(status.getFreeSlots() >= expected)
+                {
+                    if(startupTime == 0 && startedAt > 0)
+                    {
+                        startupTime = System.currentTimeMillis() - startedAt;
+                        registrationTime = startupTime - Math.max(hubStartTime, nodeStartTime);
+                        logger.info(String.format("Local grid ready in %d ms: hub start %d ms, node start %d ms, registration %d ms",
+                                getStartupTime(), hubStartTime, nodeStartTime, registrationTime));
+                    }
+                    return true;
+                }
+            }
+            catch (IOException e)
+            {
+                logger.debug("Hub status not available yet", e);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+            {
+                return false;
+            }
+            try
+            {
+                Thread.sleep(Math.min(interval, remaining));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
             }
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
         }
     }
     
+    /**
+     * @return long time in milliseconds from starting the grid until the hub was started, 0 if the grid was not started here
+     */
+    public long getHubStartTime()
+    {
+        return hubStartTime;
+    }
+    
+    /**
+     * @return long time in milliseconds from starting the grid until the node servers were started
+     */
+    public long getNodeStartTime()
+    {
+        return nodeStartTime;
+    }
+    
+    /**
+     * @return long time in milliseconds from the hub and node servers being started until all slots were available on the hub
+     */
+    public long getRegistrationTime()
+    {
+        return registrationTime;
+    }
+    
+    /**
+     * @return long total time in milliseconds from starting the grid until it was ready
+     */
+    public long getStartupTime()
+    {
+        return startupTime;
+    }
+    
     public boolean isGridLocal()
     {
         return isGridLocal;
@@ -112,7 +400,7 @@ public class Grid
     
     public void close()
     {
-        if(node != null)
+        for (LocalNode node : nodes)
         {
             node.stop();
         }
@@ -122,6 +410,19 @@ public class Grid
         }
     }
     
+    /**
+     * Checks if grid is running without blocking the calling thread.
+     * @return {@link CompletableFuture} completed with true if status is 200
+     */
+    public CompletableFuture<Boolean> isAliveAsync()
+    {
+        if(grid == null || StringUtils.isEmpty(grid.getUrl()))
+        {
+            return CompletableFuture.completedFuture(false);
+        }
+        return grid.isAliveAsync();
+    }
+    
     /**
      * Checks the http header response when accessing the page.
      * @return int http status code
@@ -130,27 +431,7 @@ public class Grid
     {
         if(grid != null && StringUtils.isNotEmpty(grid.getUrl())) 
         {
-            String url = grid.getUrl();
-            HttpClient client = HttpClientBuilder.create().build();
-            HttpGet request = new HttpGet(url);
-            try
-            {
-                HttpResponse response = client.execute(request);
-                return response.getStatusLine().getStatusCode();
-            } 
-            catch (ClientProtocolException e)
-            {
-                logger.debug("Client protocol exception", e);
-            } 
-            catch (IOException ioe)
-            {
-                logger.debug("IOE exception",ioe);
-            }
-            finally
-            {
-                request.releaseConnection();
-                client = null;
-            }
+            return GridHttpClient.getStatusCode(grid.getUrl());
         }
         return 0;
     }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Shared http client used by the grid classes to probe hubs and nodes.
+ * <p>A single keep-alive client with a bounded connection pool and short
+ * timeouts replaces a new client per status check, so repeated checks reuse
+ * connections and never leak a connection manager. Asynchronous probes run
+ * on a pool of daemon threads sized to the connections allowed per route, so at most
+ * {@value #MAX_CONNECTIONS_PER_ROUTE} probes run at once and further probes are queued
+ * rather than waiting on the pool for a connection to the same hub or node.</p>
+ *
+ * @since 1.9
+ */
+public final class GridHttpClient
+{
+    private static Log logger = LogFactory.getLog(GridHttpClient.class);
+    private static final int MAX_CONNECTIONS = 50;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final int IDLE_TIMEOUT = 30;
+    private static final int PROBE_THREADS = MAX_CONNECTIONS_PER_ROUTE;
+    private static final CloseableHttpClient client = createClient();
+    private static final ExecutorService probes = createProbeExecutor();
+
+    private GridHttpClient(){};
+
+    private static CloseableHttpClient createClient()
+    {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setConnectionRequestTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(READ_TIMEOUT)
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static ExecutorService createProbeExecutor()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, IDLE_TIMEOUT, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "grid-probe-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return {@link CloseableHttpClient} shared client, must not be closed by callers
+     */
+    public static CloseableHttpClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Http get request to the url.
+     * @param url String url to request
+     * @return int http status code or 0 if the url could not be reached
+     */
+    public static int getStatusCode(final String url)
+    {
+        HttpGet request = new HttpGet(url);
+        try
+        {
+            CloseableHttpResponse response = client.execute(request);
+            try
+            {
+                return response.getStatusLine().getStatusCode();
+            }
+            finally
+            {
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+            }
+        }
+        catch (ClientProtocolException e)
+        {
+            logger.debug("Client protocol exception", e);
+        }
+        catch (IOException ioe)
+        {
+            logger.debug("IOE exception", ioe);
+        }
+        finally
+        {
+            request.releaseConnection();
+        }
+        return 0;
+    }
+
+    /**
+     * Http get request to the url that does not block the calling thread,
+     * queued when {@value #MAX_CONNECTIONS_PER_ROUTE} probes are already running.
+     * @param url String url to request
+     * @return {@link CompletableFuture} completed with the http status code or 0 if the url could not be reached
+     */
+    public static CompletableFuture<Integer> getStatusCodeAsync(final String url)
+    {
+        return supplyAsync(new Supplier<Integer>()
+        {
+            public Integer get()
+            {
+                return getStatusCode(url);
+            }
+        });
+    }
+
+    /**
+     * Runs a blocking call against the grid on the probe threads.
+     * @param call {@link Supplier} call to run
+     * @return {@link CompletableFuture} completed with the result of the call
+     */
+    static <T> CompletableFuture<T> supplyAsync(final Supplier<T> call)
+    {
+        return CompletableFuture.supplyAsync(call, probes);
+    }
+}
@@ -18,20 +18,20 @@
  */
 package org.alfresco.grid;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.openqa.grid.internal.utils.GridHubConfiguration;
 import org.openqa.grid.web.Hub;
 
 /**
  * Creates the configuration for a {@link Hub} an starts it.
+ * <p>Every hub serves its capacity and latency for Prometheus at {@link #getMetricsUrl()},
+ * see {@link HubMetrics}.</p>
  *
  * @author Tuna Aksoy, Michael Suzuki
  * @since 2.2
@@ -40,21 +40,59 @@ public class GridHub implements Runnable
 {
     /** Logger */
     private final Log logger = LogFactory.getLog(GridHub.class);
-    private static int THIRD_PROPERTY = 3;
+    private static final String PORT_PARAMETER = "-port";
+    private static final String NODE_SELECTION = "hub.node.selection";
 
     private Hub hub;
+    private final HttpServerSettings settings;
 
     public GridHub(final int ... port)
+    {
+        this(HttpServerSettings.forHub(), port);
+    }
+
+    /**
+     * Constructor with the http server settings to use instead of those of the hub properties.
+     * @param settings {@link HttpServerSettings} worker pool and connector settings
+     * @param port optional port of the hub
+     */
+    public GridHub(final HttpServerSettings settings, final int ... port)
     {
         String[] hubProperties = GridProperties.getHubProperties();
         if(port.length > 0)
         {
             //Replace default port from array with port passed in args. 
-            hubProperties[THIRD_PROPERTY] = String.valueOf(port[0]);
+            for (int i = 0; i < hubProperties.length - 1; i++)
+            {
+                if(PORT_PARAMETER.equals(hubProperties[i]))
+                {
+                    hubProperties[i + 1] = String.valueOf(port[0]);
+                }
+            }
         }
         
         GridHubConfiguration gridHubConfiguration = GridHubConfiguration.build(hubProperties);
+        addServlet(gridHubConfiguration, HubMetricsServlet.class);
         hub = new Hub(gridHubConfiguration);
+        this.settings = settings;
+        NodeSelectionStrategy.fromString(GridProperties.getHubSetting(NODE_SELECTION)).apply(hub.getRegistry());
+    }
+
+    /**
+     * Adds a servlet to those of the hub properties, the hub serves it under <code>/grid/admin</code>.
+     */
+    private static void addServlet(final GridHubConfiguration configuration, final Class<?> servlet)
+    {
+        List<String> servlets = new ArrayList<String>();
+        if(configuration.getServlets() != null)
+        {
+            servlets.addAll(configuration.getServlets());
+        }
+        if(!servlets.contains(servlet.getName()))
+        {
+            servlets.add(servlet.getName());
+            configuration.setServlets(servlets);
+        }
     }
 
     public String getUrl()
@@ -62,6 +100,19 @@ public class GridHub implements Runnable
         return hub.getUrl().toExternalForm();
     }
 
+    /**
+     * @return String url of the Prometheus metrics of the hub
+     */
+    public String getMetricsUrl()
+    {
+        return getUrl().replaceAll("/$", "") + HubMetricsServlet.PATH;
+    }
+
+    public int getPort()
+    {
+        return hub.getPort();
+    }
+
     /**
      * Start selenium grid server.
      */
@@ -70,7 +121,7 @@ public class GridHub implements Runnable
         try
         {
             logger.info("Starting the grid hub on " + hub.getUrl());
-            hub.start();
+            settings.start(hub);
         }
         catch (Exception e)
         {
@@ -104,6 +155,21 @@ public class GridHub implements Runnable
         return false;
     }
 
+    /**
+     * Verify the status of hub without blocking the calling thread.
+     * @return {@link CompletableFuture} completed with true if running
+     */
+    public CompletableFuture<Boolean> isAliveAsync()
+    {
+        return GridHttpClient.getStatusCodeAsync(getUrl()).thenApply(new Function<Integer, Boolean>()
+        {
+            public Boolean apply(Integer code)
+            {
+                return 200 == code;
+            }
+        });
+    }
+
     /**
      * HttpClient getter call to verify grid response to
      * http get request.
@@ -111,29 +177,6 @@ public class GridHub implements Runnable
      */
     public int checkPageResponse()
     {
-        int code = 0;
-        HttpClient client = HttpClientBuilder.create().build();
-        String url = hub.getUrl().toString();
-        HttpGet request = new HttpGet(url);
-        try
-        {
-            HttpResponse response = client.execute(request);
-            code = response.getStatusLine().getStatusCode();
-        }
-        catch (ClientProtocolException e)
-        {
-            logger.debug("Client protocol exception");
-        }
-        catch (IOException ioe)
-        {
-            logger.debug("IOE exception",ioe);
-        }
-        finally
-        {
-            request.releaseConnection();
-            client = null;
-        }
-        // add request header
-        return code;
+        return GridHttpClient.getStatusCode(getUrl());
     }
 }
\ No newline at end of file
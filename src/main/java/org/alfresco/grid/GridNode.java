@@ -18,30 +18,41 @@
  */
 package org.alfresco.grid;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.StringUtils;
 import org.openqa.grid.common.RegistrationRequest;
 import org.openqa.grid.internal.utils.SelfRegisteringRemote;
 import org.openqa.grid.shared.GridNodeServer;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.server.DriverSessions;
 import org.openqa.selenium.server.SeleniumServer;
 
 /**
  * Builds a {@link RegistrationRequest} for {@link SelfRegisteringRemote} server,
  * starts the remote server and the registration process for the drivers.
+ * <p>{@link #main(String[])} runs a node in a jvm of its own, see {@link ForkedGridNode}.</p>
  *
  * @author Tuna Aksoy, Michael Suzuki
  * @since 2.2
  */
-public class GridNode
+public class GridNode implements LocalNode
 {
     /** Logger */
     private final Logger logger = Logger.getLogger(GridNode.class.getName());
+    private static final long MIN_REGISTER_INTERVAL = 25;
+    private static final long MAX_REGISTER_INTERVAL = 500;
+    private static final String SESSION_IDLE_TIMEOUT = "node.session.idle.timeout";
+    private static final String SESSION_MAX_AGE = "node.session.max.age";
+    private static final String PROXY = "grid.proxy";
 
     private final SelfRegisteringRemote remote;
     private final GridNodeServer server;
     private final RegistrationRequest registrationRequest;
+    private final NodeSessionReaper reaper;
 
     /**
      * Constructor with optional array of ports to set.
@@ -50,22 +61,32 @@ public class GridNode
      * @param port local running grid
      */
     public GridNode(int ...port)
+    {
+        this(false, port);
+    }
+
+    /**
+     * Constructor for a node of the local grid. Unless <code>grid.proxy</code> is set such a node
+     * registers with the {@link LoadAwareRemoteProxy}, which the local hub has on its classpath,
+     * while other nodes keep the default proxy so that they can register with any hub.
+     * @param localGrid boolean true if the node registers with the local {@link GridHub}
+     * @param port local running grid
+     */
+    GridNode(final boolean localGrid, final int ...port)
     {
         try
         {
             String[] nodeProperties = GridProperties.getNodeProperties(port);
             registrationRequest = RegistrationRequest.build(nodeProperties);
-            if(port.length > 0)
+            if(localGrid && GridProperties.getNodeSetting(PROXY) == null)
             {
-                String nodePort = String.valueOf(port[1]);
-                if(StringUtils.isNotEmpty(nodePort))
-                {
-                    Map<String, Object> config = registrationRequest.getConfiguration();
-                    config.put("port", nodePort);
-                }
+                registrationRequest.getConfiguration().put(RegistrationRequest.PROXY_CLASS, LoadAwareRemoteProxy.class.getName());
             }
             remote = new SelfRegisteringRemote(registrationRequest);
-            server = new SeleniumServer(registrationRequest.getConfiguration());
+            SeleniumServer seleniumServer = new SeleniumServer(registrationRequest.getConfiguration());
+            HttpServerSettings.forNode().apply(seleniumServer);
+            server = seleniumServer;
+            reaper = new NodeSessionReaper(getSeconds(SESSION_IDLE_TIMEOUT), getSeconds(SESSION_MAX_AGE));
         } 
         catch (Exception e)
         {
@@ -77,18 +98,140 @@ public class GridNode
      * Starts selenium node and registers against the grid.
      */
     public void start()
+    {
+        startServer();
+        remote.startRegistrationProcess();
+    }
+
+    /**
+     * Starts the selenium node server without registering it, so that
+     * the node can boot while the hub is still starting.
+     */
+    public void startServer()
     {
         try
         {
             logger.info("Starting the grid node.");
             remote.setRemoteServer(server);
             remote.startRemoteServer();
-            remote.startRegistrationProcess();
         }
         catch (Exception e)
         {
             throw new RuntimeException("Unable to start the node", e);
         }
+        startReaper();
+    }
+
+    /**
+     * Starts quitting idle and long lived sessions of the started server.
+     */
+    private void startReaper()
+    {
+        if(!reaper.isEnabled())
+        {
+            return;
+        }
+        DriverSessions sessions = NodeSessionReaper.getDriverSessions((SeleniumServer) server);
+        if(sessions == null)
+        {
+            logger.warning("The node has no webdriver sessions to reap.");
+            return;
+        }
+        reaper.start(sessions, ((SeleniumServer) server).getPort());
+    }
+
+    /**
+     * Reads a node setting given in seconds.
+     * @return long milliseconds or 0 if the setting is not given
+     */
+    private static long getSeconds(final String key)
+    {
+        String value = GridProperties.getNodeSetting(key);
+        return value == null || value.isEmpty() ? 0 : TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+    }
+
+    /**
+     * @return {@link NodeSessionReaperMBean} counts of the sessions quit by the node
+     */
+    public NodeSessionReaperMBean getReaper()
+    {
+        return reaper;
+    }
+
+    /**
+     * Waits for the hub to answer and registers the started node against it.
+     * The hub is polled with a short, increasing interval instead of relying on
+     * the registration cycle, which only retries every few seconds.
+     * @param timeout long maximum time in milliseconds to wait for the hub
+     * @throws RuntimeException if the hub did not answer within the timeout
+     */
+    public void register(final long timeout)
+    {
+        String hubUrl = getHubUrl();
+        long deadline = System.currentTimeMillis() + timeout;
+        long interval = MIN_REGISTER_INTERVAL;
+        while(GridHttpClient.getStatusCode(hubUrl) != Grid.RESPONSE_STATUS_200)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+            {
+                throw new RuntimeException(String.format("Hub %s did not answer within %d ms", hubUrl, timeout));
+            }
+            try
+            {
+                Thread.sleep(Math.min(interval, remaining));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the hub", e);
+            }
+            interval = Math.min(interval * 2, MAX_REGISTER_INTERVAL);
+        }
+        remote.startRegistrationProcess();
+    }
+
+    /**
+     * @return String url of the hub the node registers with
+     */
+    public String getHubUrl()
+    {
+        Map<String, Object> config = registrationRequest.getConfiguration();
+        return String.format("http://%s:%s", config.get(RegistrationRequest.HUB_HOST), config.get(RegistrationRequest.HUB_PORT));
+    }
+
+    /**
+     * Number of browser slots the node offers to the hub once registered.
+     * @return int sum of the max instances of the registered browsers
+     */
+    public int getSlotCount()
+    {
+        return getSlotCount(registrationRequest);
+    }
+
+    /**
+     * @param registrationRequest {@link RegistrationRequest} of a node
+     * @return int sum of the max instances of the browsers of the request
+     */
+    static int getSlotCount(final RegistrationRequest registrationRequest)
+    {
+        int slots = 0;
+        for (DesiredCapabilities capabilities : registrationRequest.getCapabilities())
+        {
+            Object maxInstances = capabilities.getCapability(RegistrationRequest.MAX_INSTANCES);
+            slots += maxInstances == null ? 1 : Integer.parseInt(maxInstances.toString());
+        }
+        return slots;
+    }
+
+    /**
+     * @param server {@link SeleniumServer} node server
+     * @return jetty server of the node, null until the node server is started
+     */
+    @SuppressWarnings("deprecation") // selenium 2.52 has no other access to the jetty server of a node
+    static org.openqa.jetty.jetty.Server getJettyServer(final SeleniumServer server)
+    {
+        return server.getServer();
     }
 
     /**
@@ -97,6 +240,67 @@ public class GridNode
     public void stop()
     {
         logger.info("Stopping the grid node.");
+        reaper.stop();
         server.stop();
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs a node until its standard input is closed, which is how {@link ForkedGridNode}
+     * stops it. Progress is reported on standard output for the parent jvm.
+     * @param args hub port followed by the node port
+     */
+    public static void main(String[] args)
+    {
+        int[] ports = new int[args.length];
+        for (int i = 0; i < args.length; i++)
+        {
+            ports[i] = Integer.parseInt(args[i]);
+        }
+        Logger logger = Logger.getLogger(GridNode.class.getName());
+        GridNode node = null;
+        int status = 0;
+        try
+        {
+            node = new GridNode(true, ports);
+            node.startServer();
+            report(ForkedGridNode.STARTED);
+            node.register(Grid.READY_TIMEOUT);
+            report(ForkedGridNode.REGISTERED);
+            while(System.in.read() >= 0)
+            {
+                continue;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warning("Lost the connection to the parent jvm, stopping the node.");
+        }
+        catch (RuntimeException e)
+        {
+            logger.log(Level.SEVERE, "Unable to run the grid node.", e);
+            status = 1;
+        }
+        finally
+        {
+            if(node != null)
+            {
+                try
+                {
+                    node.stop();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.log(Level.SEVERE, "Unable to stop the grid node.", e);
+                }
+            }
+        }
+        //The selenium server leaves non daemon threads behind
+        System.exit(status);
+    }
+
+    private static void report(final String line)
+    {
+        System.out.println(line);
+        System.out.flush();
+    }
+}
@@ -18,12 +18,25 @@
  */
 package org.alfresco.grid;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.StrSubstitutor;
@@ -32,6 +45,13 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Utility class to provide the properties for the grid hub/node
+ * <p>The property files of each role are read once into an immutable snapshot and
+ * the resulting hub and node arguments are cached per port override. Property files
+ * in the directory named by the <code>grid.config.dir</code> system property override
+ * the classpath ones, changes to that directory are picked up without a restart.</p>
+ * <p>Each {@link #reload()} starts a new generation, a snapshot or argument list built from
+ * an earlier generation is returned to its caller but not cached, so that a read racing a
+ * reload can not cache the old values after the reload.</p>
  *
  * @author Tuna Aksoy
  * @since 2.2
@@ -40,6 +60,7 @@ public final class GridProperties
 {
     /** Constants */
     private static Log logger = LogFactory.getLog(GridProperties.class);
+    public static final String CONFIG_DIR = "grid.config.dir";
     private static final String CMD_PARAMETER_PREFIX = "-";
     private static final String GRID = "grid";
     private static final String GRID_ROLE_HUB = "hub";
@@ -49,6 +70,12 @@ public final class GridProperties
     private static final String PROPERTY_PREFIX = GRID + SEPARATOR;
     private static final String PROPERTY_SUFFIX = SEPARATOR + "properties";
     private static final String PROPERTY_LOCAL_SUFFIX = SEPARATOR + "local" + PROPERTY_SUFFIX;
+    private static final ConcurrentMap<String, Map<String, String>> snapshots = new ConcurrentHashMap<String, Map<String, String>>();
+    private static final ConcurrentMap<String, String[]> arguments = new ConcurrentHashMap<String, String[]>();
+    private static final Object lock = new Object();
+    private static volatile long generation;
+    private static volatile Path watchedDirectory;
+    private static WatchService watcher;
     
     private GridProperties(){};
     /**
@@ -73,7 +100,7 @@ public final class GridProperties
     /**
      * Reads the properties file(s) for the node configuration and returns it as an {@link String} array
      *
-     * @param port int value of port to use
+     * @param port int value of the hub port to register with, optionally followed by the node port
      * @return An array of {@link String} property keys and values
      * @throws RuntimeException Throws an {@link IOException} if the properties file cannot be found or
      * An {@link Exception} if property key has an invalid format
@@ -90,6 +117,62 @@ public final class GridProperties
         }
     }
 
+    /**
+     * Reads a setting of the node properties that is not passed on to the node itself,
+     * such as the number of nodes the local grid starts.
+     *
+     * @param key String property key
+     * @return String property value or null if not set
+     */
+    public static String getNodeSetting(final String key)
+    {
+        String value = getSnapshot(GRID_ROLE_NODE).get(key);
+        return value == null ? null : value.trim();
+    }
+
+    /**
+     * Reads a setting of the hub properties that is not passed on to the hub itself,
+     * such as the node selection strategy.
+     *
+     * @param key String property key
+     * @return String property value or null if not set
+     */
+    public static String getHubSetting(final String key)
+    {
+        String value = getSnapshot(GRID_ROLE_HUB).get(key);
+        return value == null ? null : value.trim();
+    }
+
+    /**
+     * Discards the cached configuration so that the property files are read again on next use.
+     */
+    public static void reload()
+    {
+        synchronized (lock)
+        {
+            generation++;
+            snapshots.clear();
+            arguments.clear();
+        }
+    }
+
+    /**
+     * Caches a value built during the given generation unless a reload happened since.
+     * @return V the cached value, or the given value if it was not cached
+     */
+    private static <V> V publish(ConcurrentMap<String, V> cache, String key, V value, long built)
+    {
+        synchronized (lock)
+        {
+            if(built != generation)
+            {
+                return value;
+            }
+            V existing = cache.putIfAbsent(key, value);
+            return existing == null ? value : existing;
+        }
+    }
+
     /**
      * Helper method to reduce the code duplication.
      * Reads the properties file(s) for the hub/node configuration and returns it as an {@link String} array
@@ -105,7 +188,82 @@ public final class GridProperties
         {
             throw new IllegalArgumentException("Role for the grid is required");
         }
+        String key = role + Arrays.toString(gridPort);
+        String[] propertyKeysAndValues = arguments.get(key);
+        if(propertyKeysAndValues == null)
+        {
+            long built = generation;
+            propertyKeysAndValues = publish(arguments, key, buildProperties(getSnapshot(role), gridPort), built);
+        }
+        //Callers such as the hub replace values in place so each gets its own copy
+        return propertyKeysAndValues.clone();
+    }
+
+    /**
+     * Applies the port overrides on a copy of the snapshot and resolves the placeholders.
+     */
+    private static String[] buildProperties(Map<String, String> snapshot, int ...gridPort)
+    {
+        Map<String, String> properties = new HashMap<String, String>(snapshot);
+        if(gridPort.length > 0)
+        {
+            properties.put("hub.url.port", String.valueOf(gridPort[0]));
+        }
+        if(gridPort.length > 1)
+        {
+            //The node port is needed before the registration request is built as it is part of the node url
+            properties.put(PROPERTY_PREFIX + "port", String.valueOf(gridPort[1]));
+        }
+
         List<String> propertyKeysAndValues = new ArrayList<String>();
+        StrSubstitutor substitutor = new StrSubstitutor(properties);
+        for (Map.Entry<String, String> property : properties.entrySet())
+        {
+            String key = property.getKey();
+            if (key.startsWith(PROPERTY_PREFIX))
+            {
+                String parameter = key.split(PROPERTY_PREFIX)[1];
+                if (StringUtils.isBlank(parameter))
+                {
+                    throw new RuntimeException("The property '" + key + "' does not have a valid format.");
+                }
+                propertyKeysAndValues.add(CMD_PARAMETER_PREFIX + parameter);
+                propertyKeysAndValues.add(substitutor.replace(property.getValue()));
+            }
+        }
+        return propertyKeysAndValues.toArray(new String[propertyKeysAndValues.size()]);
+    }
+
+    /**
+     * @param role {@link String} The role for the grid. Can be hub or node.
+     * @return Map immutable merged properties of the role, read on first use
+     */
+    private static Map<String, String> getSnapshot(String role)
+    {
+        Map<String, String> snapshot = snapshots.get(role);
+        if(snapshot == null)
+        {
+            long built = generation;
+            Properties properties = loadProperties(role);
+            Map<String, String> values = new HashMap<String, String>();
+            for (String key : properties.stringPropertyNames())
+            {
+                values.put(key, properties.getProperty(key));
+            }
+            snapshot = publish(snapshots, role, Collections.unmodifiableMap(values), built);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Loads the properties file for the role, the local properties file that overrides it
+     * and the override file in the external configuration directory if there is one.
+     *
+     * @param role {@link String} The role for the grid. Can be hub or node.
+     * @return {@link Properties} merged properties
+     */
+    private static Properties loadProperties(String role)
+    {
         Properties properties = new Properties();
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
 
@@ -113,7 +271,12 @@ public final class GridProperties
         String propertyPath = PROPERTY_FOLDER + role + PROPERTY_SUFFIX;
         try
         {
-            properties.load(loader.getResourceAsStream(propertyPath));
+            InputStream property = loader.getResourceAsStream(propertyPath);
+            if(property == null)
+            {
+                throw new IOException("Property file not found on the classpath");
+            }
+            load(properties, property);
         } 
         catch (IOException e)
         {
@@ -126,35 +289,140 @@ public final class GridProperties
         {
             try
             {
-                properties.load(localProperty);
+                load(properties, localProperty);
             } 
             catch (IOException e)
             {
                 logger.error(String.format("Unable to load local property file: %s ", localPropertyPath),e);
             }
         }
-        if(gridPort.length > 0)
+        // Load the external properties to override both
+        String configDir = System.getProperty(CONFIG_DIR);
+        if(StringUtils.isNotBlank(configDir))
+        {
+            File externalProperty = new File(configDir, role + PROPERTY_LOCAL_SUFFIX);
+            if(externalProperty.isFile())
+            {
+                try
+                {
+                    load(properties, new FileInputStream(externalProperty));
+                }
+                catch (IOException e)
+                {
+                    logger.error(String.format("Unable to load external property file: %s ", externalProperty),e);
+                }
+            }
+            watch(new File(configDir).toPath());
+        }
+        else
         {
-            properties.setProperty("hub.url.port", String.valueOf(gridPort[0]));
+            watch(null);
         }
+        return properties;
+    }
 
-        Set<Object> keys = properties.keySet();
-        for (Object object : keys)
+    private static void load(Properties properties, InputStream stream) throws IOException
+    {
+        try
         {
-            String key = (String) object;
-            if (key.startsWith(PROPERTY_PREFIX))
+            properties.load(stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Starts a daemon thread that discards the cached configuration whenever
+     * a file in the external configuration directory changes. The watcher of a
+     * previous directory is closed, which ends its thread.
+     * @param directory Path to watch or null to stop watching
+     */
+    private static synchronized void watch(final Path directory)
+    {
+        if(directory == null ? watchedDirectory == null : directory.equals(watchedDirectory))
+        {
+            return;
+        }
+        if(watcher != null)
+        {
+            close(watcher);
+            watcher = null;
+            watchedDirectory = null;
+        }
+        if(directory == null || !directory.toFile().isDirectory())
+        {
+            return;
+        }
+        final WatchService service;
+        try
+        {
+            service = FileSystems.getDefault().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                        StandardWatchEventKinds.ENTRY_MODIFY,
+                                        StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Unable to watch grid configuration directory: %s ", directory), e);
+            return;
+        }
+        watcher = service;
+        watchedDirectory = directory;
+        Thread thread = new Thread(new Runnable()
+        {
+            public void run()
             {
-                String parameter = key.split(PROPERTY_PREFIX)[1];
-                if (StringUtils.isBlank(parameter))
+                try
                 {
-                    throw new RuntimeException("The property '" + key + "' does not have a valid format.");
+                    while(true)
+                    {
+                        WatchKey key = service.take();
+                        key.pollEvents();
+                        logger.info(String.format("Grid configuration in %s changed, reloading", directory));
+                        reload();
+                        if(!key.reset())
+                        {
+                            break;
+                        }
+                    }
+                }
+                catch (ClosedWatchServiceException e)
+                {
+                    logger.debug(String.format("Stopped watching grid configuration directory: %s", directory));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    close(service);
                 }
-                String propertyKey = CMD_PARAMETER_PREFIX + parameter;
-                String propertyValue = StrSubstitutor.replace(properties.getProperty(key), properties);
-                propertyKeysAndValues.add(propertyKey);
-                propertyKeysAndValues.add(propertyValue);
             }
+        }, "grid-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Path external configuration directory being watched, null if none
+     */
+    static Path getWatchedDirectory()
+    {
+        return watchedDirectory;
+    }
+
+    private static void close(final WatchService service)
+    {
+        try
+        {
+            service.close();
+        }
+        catch (IOException e)
+        {
+            logger.debug("Problem closing configuration watcher", e);
         }
-        return propertyKeysAndValues.toArray(new String[propertyKeysAndValues.size()]);
     }
 }
\ No newline at end of file
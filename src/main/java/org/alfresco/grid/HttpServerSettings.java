@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.grid.web.Hub;
+import org.openqa.jetty.http.HttpListener;
+import org.openqa.jetty.util.ThreadedServer;
+import org.openqa.selenium.server.SeleniumServer;
+import org.seleniumhq.jetty9.server.Connector;
+import org.seleniumhq.jetty9.server.Handler;
+import org.seleniumhq.jetty9.server.HttpConnectionFactory;
+import org.seleniumhq.jetty9.server.Server;
+import org.seleniumhq.jetty9.server.ServerConnector;
+import org.seleniumhq.jetty9.util.thread.ExecutorThreadPool;
+import org.seleniumhq.jetty9.util.thread.QueuedThreadPool;
+import org.seleniumhq.jetty9.util.thread.ThreadPool;
+
+/**
+ * Worker pool and connector settings of the embedded http server of a hub or a node.
+ * <p>The settings are read from the hub or node properties with the keys
+ * <code>&lt;role&gt;.http.min.threads</code>, <code>max.threads</code>, <code>acceptors</code>,
+ * <code>queue.size</code>, <code>accept.queue</code>, <code>idle.timeout</code> and
+ * <code>executor</code>. A blank or 0 value keeps the selenium default. The executor is
+ * either <code>pooled</code>, a bounded pool of platform threads, or <code>elastic</code>,
+ * a thread per request that uses virtual threads when the jvm supports them.</p>
+ * <p>The hub runs on jetty 9 and supports every setting, and with <code>hub.http.gzip.min.size</code>
+ * compresses the wire protocol, see {@link WireCompression}. The node runs on the jetty 5
+ * server of the legacy selenium server, which has no request queue, no pluggable
+ * executor and no compression; there a full pool leaves connections in the accept queue.</p>
+ *
+ * @since 1.9
+ */
+public final class HttpServerSettings
+{
+    public static final String EXECUTOR_POOLED = "pooled";
+    public static final String EXECUTOR_ELASTIC = "elastic";
+    private static final String HUB_PREFIX = "hub.http.";
+    private static final String NODE_PREFIX = "node.http.";
+    private static final String SERVER_FIELD = "server";
+    private static final String INIT_SERVER = "initServer";
+    private static final String VIRTUAL_EXECUTOR = "newVirtualThreadPerTaskExecutor";
+    /** Jetty defaults of the hub thread pool */
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int THREAD_IDLE_TIMEOUT = 60000;
+    private static Log logger = LogFactory.getLog(HttpServerSettings.class);
+    private final int minThreads;
+    private final int maxThreads;
+    private final int acceptors;
+    private final int queueSize;
+    private final int acceptQueue;
+    private final int idleTimeout;
+    private final String executor;
+    private final int gzipMinSize;
+
+    /**
+     * Constructor.
+     * @param minThreads int threads kept ready, 0 for the default
+     * @param maxThreads int maximum number of request threads, 0 for the default
+     * @param acceptors int threads accepting connections, 0 for the default
+     * @param queueSize int requests waiting for a free thread, 0 for an unbounded queue
+     * @param acceptQueue int connections waiting to be accepted, 0 for the operating system default
+     * @param idleTimeout int milliseconds an idle keep-alive connection is held open, 0 for the default
+     * @param executor String {@value #EXECUTOR_POOLED} or {@value #EXECUTOR_ELASTIC}, blank for pooled
+     */
+    public HttpServerSettings(final int minThreads, final int maxThreads, final int acceptors, final int queueSize,
+            final int acceptQueue, final int idleTimeout, final String executor)
+    {
+        this(minThreads, maxThreads, acceptors, queueSize, acceptQueue, idleTimeout, executor, 0);
+    }
+
+    /**
+     * Constructor with wire compression.
+     * @param minThreads int threads kept ready, 0 for the default
+     * @param maxThreads int maximum number of request threads, 0 for the default
+     * @param acceptors int threads accepting connections, 0 for the default
+     * @param queueSize int requests waiting for a free thread, 0 for an unbounded queue
+     * @param acceptQueue int connections waiting to be accepted, 0 for the operating system default
+     * @param idleTimeout int milliseconds an idle keep-alive connection is held open, 0 for the default
+     * @param executor String {@value #EXECUTOR_POOLED} or {@value #EXECUTOR_ELASTIC}, blank for pooled
+     * @param gzipMinSize int smallest response in bytes the hub compresses, 0 to not compress
+     */
+    public HttpServerSettings(final int minThreads, final int maxThreads, final int acceptors, final int queueSize,
+            final int acceptQueue, final int idleTimeout, final String executor, final int gzipMinSize)
+    {
+        String type = executor == null || executor.trim().isEmpty() ? EXECUTOR_POOLED : executor.trim();
+        if(!EXECUTOR_POOLED.equalsIgnoreCase(type) && !EXECUTOR_ELASTIC.equalsIgnoreCase(type))
+        {
+            throw new IllegalArgumentException(String.format("Unknown http executor: %s", executor));
+        }
+        if(minThreads < 0 || maxThreads < 0 || (maxThreads > 0 && minThreads > maxThreads))
+        {
+            throw new IllegalArgumentException(String.format("Invalid http threads, min: %d max: %d", minThreads, maxThreads));
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.acceptors = Math.max(0, acceptors);
+        this.queueSize = Math.max(0, queueSize);
+        this.acceptQueue = Math.max(0, acceptQueue);
+        this.idleTimeout = Math.max(0, idleTimeout);
+        this.executor = type.toLowerCase();
+        this.gzipMinSize = Math.max(0, gzipMinSize);
+    }
+
+    /**
+     * @return {@link HttpServerSettings} settings from the hub properties
+     */
+    public static HttpServerSettings forHub()
+    {
+        return new HttpServerSettings(getInt(true, "min.threads"), getInt(true, "max.threads"), getInt(true, "acceptors"),
+                getInt(true, "queue.size"), getInt(true, "accept.queue"), getInt(true, "idle.timeout"),
+                GridProperties.getHubSetting(HUB_PREFIX + "executor"), getInt(true, "gzip.min.size"));
+    }
+
+    /**
+     * @return {@link HttpServerSettings} settings from the node properties
+     */
+    public static HttpServerSettings forNode()
+    {
+        return new HttpServerSettings(getInt(false, "min.threads"), getInt(false, "max.threads"), getInt(false, "acceptors"),
+                getInt(false, "queue.size"), getInt(false, "accept.queue"), getInt(false, "idle.timeout"),
+                GridProperties.getNodeSetting(NODE_PREFIX + "executor"));
+    }
+
+    private static int getInt(final boolean hub, final String key)
+    {
+        String value = hub ? GridProperties.getHubSetting(HUB_PREFIX + key) : GridProperties.getNodeSetting(NODE_PREFIX + key);
+        return value == null || value.isEmpty() ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * @return boolean true if every setting keeps the selenium default
+     */
+    public boolean isDefault()
+    {
+        return isDefaultPool() && gzipMinSize == 0;
+    }
+
+    private boolean isDefaultPool()
+    {
+        return minThreads == 0 && maxThreads == 0 && acceptors == 0 && queueSize == 0
+                && acceptQueue == 0 && idleTimeout == 0 && EXECUTOR_POOLED.equals(executor);
+    }
+
+    /**
+     * Starts a hub with these settings.
+     * The hub builds its jetty server when it starts and offers no way to configure it,
+     * so the server is built, its thread pool and connectors are rebuilt around the same
+     * handlers, the handlers are wrapped for compression and only then the server is started,
+     * which is what {@link Hub#start()} does otherwise.
+     * @param hub {@link Hub} not yet started
+     * @throws Exception if the server fails to start
+     */
+    public void start(final Hub hub) throws Exception
+    {
+        if(isDefault())
+        {
+            hub.start();
+            return;
+        }
+        Method initServer = Hub.class.getDeclaredMethod(INIT_SERVER);
+        initServer.setAccessible(true);
+        initServer.invoke(hub);
+        Field field = Hub.class.getDeclaredField(SERVER_FIELD);
+        field.setAccessible(true);
+        Server server = (Server) field.get(hub);
+        if(!isDefaultPool())
+        {
+            server = rebuild(server);
+            field.set(hub, server);
+        }
+        if(gzipMinSize > 0)
+        {
+            server.setHandler(WireCompression.wrap(server.getHandler(), gzipMinSize));
+        }
+        logger.info("Hub http server uses " + this);
+        server.start();
+    }
+
+    private Server rebuild(final Server current)
+    {
+        Server server = new Server(createThreadPool());
+        for (Connector connector : current.getConnectors())
+        {
+            ServerConnector existing = (ServerConnector) connector;
+            ServerConnector rebuilt = new ServerConnector(server, acceptors > 0 ? acceptors : -1, -1,
+                    new HttpConnectionFactory(existing.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration()));
+            rebuilt.setHost(existing.getHost());
+            rebuilt.setPort(existing.getPort());
+            rebuilt.setAcceptQueueSize(acceptQueue > 0 ? acceptQueue : existing.getAcceptQueueSize());
+            rebuilt.setIdleTimeout(idleTimeout > 0 ? idleTimeout : existing.getIdleTimeout());
+            server.addConnector(rebuilt);
+        }
+        Handler handler = current.getHandler();
+        current.setHandler(null);
+        server.setHandler(handler);
+        return server;
+    }
+
+    /**
+     * Configures the listeners of a node server that has not been started.
+     * @param server {@link SeleniumServer} not yet started
+     */
+    public void apply(final SeleniumServer server)
+    {
+        if(isDefault())
+        {
+            return;
+        }
+        if(EXECUTOR_ELASTIC.equals(executor) || queueSize > 0)
+        {
+            logger.warn("The node http server has no request queue or elastic executor, only its pool and connector are configured");
+        }
+        for (HttpListener listener : GridNode.getJettyServer(server).getListeners())
+        {
+            if(!(listener instanceof ThreadedServer))
+            {
+                continue;
+            }
+            ThreadedServer threaded = (ThreadedServer) listener;
+            if(maxThreads > 0)
+            {
+                threaded.setMaxThreads(maxThreads);
+            }
+            if(minThreads > 0)
+            {
+                threaded.setMinThreads(minThreads);
+            }
+            if(acceptors > 0)
+            {
+                threaded.setAcceptorThreads(acceptors);
+            }
+            if(acceptQueue > 0)
+            {
+                threaded.setAcceptQueueSize(acceptQueue);
+            }
+            if(idleTimeout > 0)
+            {
+                threaded.setMaxIdleTimeMs(idleTimeout);
+            }
+        }
+        logger.info("Node http server uses " + this);
+    }
+
+    /**
+     * Request threads of the hub, an elastic executor falls back to a cached pool
+     * of platform threads on a jvm without virtual threads.
+     */
+    ThreadPool createThreadPool()
+    {
+        if(EXECUTOR_ELASTIC.equals(executor))
+        {
+            return new ExecutorThreadPool(createElasticExecutor());
+        }
+        int max = maxThreads > 0 ? maxThreads : DEFAULT_MAX_THREADS;
+        int min = minThreads > 0 ? minThreads : Math.min(max, DEFAULT_MIN_THREADS);
+        QueuedThreadPool pool;
+        if(queueSize > 0)
+        {
+            pool = new QueuedThreadPool(max, min, THREAD_IDLE_TIMEOUT, new ArrayBlockingQueue<Runnable>(queueSize));
+        }
+        else
+        {
+            pool = new QueuedThreadPool(max, min, THREAD_IDLE_TIMEOUT);
+        }
+        pool.setName("hub-http");
+        return pool;
+    }
+
+    static ExecutorService createElasticExecutor()
+    {
+        try
+        {
+            Method virtual = Executors.class.getMethod(VIRTUAL_EXECUTOR);
+            return (ExecutorService) virtual.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            logger.info("Virtual threads are not supported by this jvm, using a cached thread pool");
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "hub-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getMinThreads()
+    {
+        return minThreads;
+    }
+
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    public int getAcceptors()
+    {
+        return acceptors;
+    }
+
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    public int getAcceptQueue()
+    {
+        return acceptQueue;
+    }
+
+    public int getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public String getExecutor()
+    {
+        return executor;
+    }
+
+    public int getGzipMinSize()
+    {
+        return gzipMinSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HttpServerSettings [executor=%s, minThreads=%d, maxThreads=%d, acceptors=%d, queueSize=%d, acceptQueue=%d, idleTimeout=%d, gzipMinSize=%d]",
+                executor, minThreads, maxThreads, acceptors, queueSize, acceptQueue, idleTimeout, gzipMinSize);
+    }
+}
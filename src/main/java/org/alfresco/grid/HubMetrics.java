@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.grid.internal.TestSlot;
+
+/**
+ * Capacity and latency of a hub in the Prometheus text format.
+ * <p>The slot counts and the length of the new session queue are read from the registry
+ * when the metrics are written. The queue wait, session duration and command latency
+ * histograms are recorded by the {@link LoadAwareRemoteProxy} of the nodes, which the nodes
+ * of the local {@link Grid} use. Nodes that register with the default proxy, as remote nodes do
+ * unless they set <code>grid.proxy</code>, only show up in the slot counts. The queue wait is the time
+ * from the hub receiving a new session request until it is forwarded to a node, requests
+ * that time out in the queue are not counted. Commands are labelled by method and path
+ * with the session, element and other ids replaced by placeholders.</p>
+ * <p>The metrics are served by {@link HubMetricsServlet}.</p>
+ *
+ * @since 1.9
+ */
+public final class HubMetrics
+{
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] WAIT_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300};
+    private static final double[] SESSION_BUCKETS = {1, 5, 10, 30, 60, 120, 300, 600, 1200, 1800, 3600, 7200};
+    private static final double[] COMMAND_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    private static final String SESSION = "/session";
+    private static final String BROWSER_NAME = "browserName";
+    /** Path segments followed by an id or a name */
+    private static final Set<String> ID_SEGMENTS = new HashSet<String>(Arrays.asList("element", "window", "cookie",
+            "equals", "attribute", "css", "key"));
+    private static final Map<Registry, HubMetrics> metrics = new WeakHashMap<Registry, HubMetrics>();
+    private final Histogram queueWait = new Histogram(WAIT_BUCKETS);
+    private final Histogram sessionDuration = new Histogram(SESSION_BUCKETS);
+    private final ConcurrentMap<String, Histogram> commands = new ConcurrentHashMap<String, Histogram>();
+
+    private HubMetrics()
+    {
+    }
+
+    /**
+     * @param registry {@link Registry} of a hub
+     * @return {@link HubMetrics} metrics of the hub
+     */
+    public static HubMetrics get(final Registry registry)
+    {
+        synchronized (metrics)
+        {
+            HubMetrics hubMetrics = metrics.get(registry);
+            if(hubMetrics == null)
+            {
+                hubMetrics = new HubMetrics();
+                metrics.put(registry, hubMetrics);
+            }
+            return hubMetrics;
+        }
+    }
+
+    /**
+     * @param millis long time a new session request waited before it was forwarded to a node
+     */
+    public void recordQueueWait(final long millis)
+    {
+        queueWait.record(millis / 1000d);
+    }
+
+    /**
+     * @param millis long time from a session being assigned a slot until it was released
+     */
+    public void recordSession(final long millis)
+    {
+        sessionDuration.record(millis / 1000d);
+    }
+
+    /**
+     * @param method String http method of the command
+     * @param path String path of the command
+     * @param millis double time the node took to answer
+     */
+    public void recordCommand(final String method, final String path, final double millis)
+    {
+        String command = getCommandName(method, path);
+        Histogram histogram = commands.get(command);
+        if(histogram == null)
+        {
+            commands.putIfAbsent(command, new Histogram(COMMAND_BUCKETS));
+            histogram = commands.get(command);
+        }
+        histogram.record(millis / 1000d);
+    }
+
+    /**
+     * Labels a command by its method and path without the ids, such as
+     * <code>POST /session/:sessionId/element/:id/click</code>.
+     */
+    static String getCommandName(final String method, final String path)
+    {
+        int index = path == null ? -1 : path.indexOf(SESSION);
+        if(index < 0)
+        {
+            return method + " other";
+        }
+        String[] segments = path.substring(index + SESSION.length()).split("/");
+        StringBuilder name = new StringBuilder(method).append(' ').append(SESSION);
+        for (int i = 1; i < segments.length; i++)
+        {
+            name.append('/');
+            if(i == 1)
+            {
+                name.append(":sessionId");
+            }
+            else if(ID_SEGMENTS.contains(segments[i - 1]))
+            {
+                name.append(":id");
+            }
+            else
+            {
+                name.append(segments[i]);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Writes the current metrics of the hub.
+     * @param registry {@link Registry} of the hub to read the slots from
+     * @param out {@link Writer} to write the text format to
+     * @throws IOException if the metrics can not be written
+     */
+    public void write(final Registry registry, final Writer out) throws IOException
+    {
+        Map<String, int[]> slots = new TreeMap<String, int[]>();
+        int nodes = 0;
+        for (RemoteProxy proxy : registry.getAllProxies())
+        {
+            nodes++;
+            for (TestSlot slot : proxy.getTestSlots())
+            {
+                Object browser = slot.getCapabilities().get(BROWSER_NAME);
+                String labels = String.format("node=\"%s\",browser=\"%s\"", escape(proxy.getId()), escape(String.valueOf(browser)));
+                int[] counts = slots.get(labels);
+                if(counts == null)
+                {
+                    counts = new int[2];
+                    slots.put(labels, counts);
+                }
+                counts[0]++;
+                if(slot.getSession() != null)
+                {
+                    counts[1]++;
+                }
+            }
+        }
+        writeHeader(out, "grid_nodes", "gauge", "Nodes registered with the hub");
+        writeSample(out, "grid_nodes", null, nodes);
+        writeHeader(out, "grid_node_slots", "gauge", "Browser slots of a node");
+        for (Map.Entry<String, int[]> entry : slots.entrySet())
+        {
+            writeSample(out, "grid_node_slots", entry.getKey(), entry.getValue()[0]);
+        }
+        writeHeader(out, "grid_node_slots_busy", "gauge", "Browser slots of a node running a session");
+        for (Map.Entry<String, int[]> entry : slots.entrySet())
+        {
+            writeSample(out, "grid_node_slots_busy", entry.getKey(), entry.getValue()[1]);
+        }
+        writeHeader(out, "grid_node_slots_free", "gauge", "Browser slots of a node free for a new session");
+        for (Map.Entry<String, int[]> entry : slots.entrySet())
+        {
+            writeSample(out, "grid_node_slots_free", entry.getKey(), entry.getValue()[0] - entry.getValue()[1]);
+        }
+        writeHeader(out, "grid_sessions_active", "gauge", "Sessions running on the grid");
+        writeSample(out, "grid_sessions_active", null, registry.getActiveSessions().size());
+        writeHeader(out, "grid_new_session_queue_length", "gauge", "New session requests waiting for a free slot");
+        writeSample(out, "grid_new_session_queue_length", null, registry.getNewSessionRequestCount());
+        writeHeader(out, "grid_new_session_queue_wait_seconds", "histogram", "Time new session requests waited before they were forwarded to a node");
+        queueWait.write(out, "grid_new_session_queue_wait_seconds", null);
+        writeHeader(out, "grid_session_duration_seconds", "histogram", "Time from a session getting a slot until it was released");
+        sessionDuration.write(out, "grid_session_duration_seconds", null);
+        writeHeader(out, "grid_command_duration_seconds", "histogram", "Time nodes took to answer commands forwarded by the hub");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(commands).entrySet())
+        {
+            entry.getValue().write(out, "grid_command_duration_seconds", "command=\"" + escape(entry.getKey()) + "\"");
+        }
+    }
+
+    private static void writeHeader(final Writer out, final String name, final String type, final String help) throws IOException
+    {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void writeSample(final Writer out, final String name, final String labels, final double value) throws IOException
+    {
+        out.write(name);
+        if(labels != null)
+        {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + format(value) + "\n");
+    }
+
+    private static String format(final double value)
+    {
+        if(value == Double.POSITIVE_INFINITY)
+        {
+            return "+Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String escape(final String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Cumulative histogram with fixed upper bounds in seconds.
+     */
+    static final class Histogram
+    {
+        private final double[] bounds;
+        private final AtomicLongArray counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(final double[] bounds)
+        {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(final double value)
+        {
+            int bucket = Arrays.binarySearch(bounds, value);
+            counts.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+            sum.add(value);
+        }
+
+        void write(final Writer out, final String name, final String labels) throws IOException
+        {
+            String prefix = labels == null ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i <= bounds.length; i++)
+            {
+                cumulative += counts.get(i);
+                double bound = i < bounds.length ? bounds[i] : Double.POSITIVE_INFINITY;
+                writeSample(out, name + "_bucket", prefix + "le=\"" + format(bound) + "\"", cumulative);
+            }
+            writeSample(out, name + "_sum", labels, sum.sum());
+            writeSample(out, name + "_count", labels, cumulative);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.web.servlet.RegistryBasedServlet;
+
+/**
+ * Hub servlet serving the {@link HubMetrics} in the Prometheus text format under
+ * <code>/grid/admin/HubMetricsServlet</code>. {@link GridHub} registers it on every hub.
+ *
+ * @since 1.9
+ */
+public class HubMetricsServlet extends RegistryBasedServlet
+{
+    private static final long serialVersionUID = 1L;
+    public static final String PATH = "/grid/admin/" + HubMetricsServlet.class.getSimpleName();
+
+    public HubMetricsServlet()
+    {
+        this(null);
+    }
+
+    public HubMetricsServlet(final Registry registry)
+    {
+        super(registry);
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        StringWriter metrics = new StringWriter();
+        HubMetrics.get(getRegistry()).write(getRegistry(), metrics);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(HubMetrics.CONTENT_TYPE);
+        response.getWriter().write(metrics.toString());
+    }
+}
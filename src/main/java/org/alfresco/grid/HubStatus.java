@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Slot and queue counts of a hub read from the hub registry api.
+ *
+ * @since 1.9
+ */
+public final class HubStatus
+{
+    private static final String HUB_API = "/grid/api/hub";
+    private static final String STATUS_REQUEST = "{\"configuration\":[\"slotCounts\",\"newSessionRequestCount\"]}";
+    private final int freeSlots;
+    private final int totalSlots;
+    private final int newSessionRequestCount;
+
+    public HubStatus(final int freeSlots, final int totalSlots, final int newSessionRequestCount)
+    {
+        this.freeSlots = freeSlots;
+        this.totalSlots = totalSlots;
+        this.newSessionRequestCount = newSessionRequestCount;
+    }
+
+    /**
+     * Reads the status from the hub registry api.
+     * @param url String url of the hub or of its webdriver end point
+     * @return {@link HubStatus} status of the hub
+     * @throws IOException if the hub can not be reached or the response is invalid
+     */
+    public static HubStatus fetch(final String url) throws IOException
+    {
+        StatusRequest request = new StatusRequest(getApiUrl(url));
+        request.setEntity(new StringEntity(STATUS_REQUEST, ContentType.APPLICATION_JSON));
+        try
+        {
+            CloseableHttpResponse response = GridHttpClient.getClient().execute(request);
+            try
+            {
+                int code = response.getStatusLine().getStatusCode();
+                String body = EntityUtils.toString(response.getEntity());
+                if(code != Grid.RESPONSE_STATUS_200)
+                {
+                    throw new IOException(String.format("Hub status request to %s failed with %d", url, code));
+                }
+                return parse(body);
+            }
+            finally
+            {
+                response.close();
+            }
+        }
+        finally
+        {
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Parses the json response of the hub registry api.
+     * @param json String response
+     * @return {@link HubStatus} status of the hub
+     * @throws IOException if the response is invalid
+     */
+    static HubStatus parse(final String json) throws IOException
+    {
+        try
+        {
+            JsonObject status = new JsonParser().parse(json).getAsJsonObject();
+            JsonElement slots = status.get("slotCounts");
+            JsonElement queue = status.get("newSessionRequestCount");
+            if(slots == null)
+            {
+                throw new IOException("Hub status response does not contain slot counts: " + json);
+            }
+            return new HubStatus(slots.getAsJsonObject().get("free").getAsInt(),
+                                 slots.getAsJsonObject().get("total").getAsInt(),
+                                 queue == null ? 0 : queue.getAsInt());
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Invalid hub status response: " + json, e);
+        }
+    }
+
+    /**
+     * Resolves the registry api url from a hub url such as <code>http://localhost:4444/wd/hub</code>.
+     */
+    static String getApiUrl(final String url)
+    {
+        try
+        {
+            URL hub = new URL(url);
+            return new URL(hub.getProtocol(), hub.getHost(), hub.getPort(), HUB_API).toExternalForm();
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException(String.format("A valid hub url is required instead of given url: %s", url), e);
+        }
+    }
+
+    public int getFreeSlots()
+    {
+        return freeSlots;
+    }
+
+    public int getTotalSlots()
+    {
+        return totalSlots;
+    }
+
+    public int getBusySlots()
+    {
+        return totalSlots - freeSlots;
+    }
+
+    public int getNewSessionRequestCount()
+    {
+        return newSessionRequestCount;
+    }
+
+    /**
+     * The registry api only answers get requests and reads the requested keys from the body.
+     */
+    private static class StatusRequest extends HttpEntityEnclosingRequestBase
+    {
+        StatusRequest(final String url)
+        {
+            setURI(URI.create(url));
+        }
+
+        @Override
+        public String getMethod()
+        {
+            return "GET";
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HubStatus [free=%d, total=%d, queued=%d]", freeSlots, totalSlots, newSessionRequestCount);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.selenium.proxy.DefaultRemoteProxy;
+import org.openqa.grid.web.servlet.handler.RequestType;
+import org.openqa.grid.web.servlet.handler.SeleniumBasedRequest;
+
+/**
+ * Hub side proxy of a node that keeps a moving average of how long the node takes
+ * to answer commands, used by {@link NodeSelectionStrategy#COMMAND_LATENCY}.
+ * <p>Nodes of the local {@link Grid} register with it, other nodes use it by registering with
+ * <code>grid.proxy=org.alfresco.grid.LoadAwareRemoteProxy</code>, the hub must then have this
+ * class on its classpath.</p>
+ * <p>The proxy also records the queue wait, duration and commands of its sessions in the
+ * {@link HubMetrics} of the hub.</p>
+ *
+ * @since 1.9
+ */
+public class LoadAwareRemoteProxy extends DefaultRemoteProxy
+{
+    private static final String COMMAND_START = LoadAwareRemoteProxy.class.getName() + ".start";
+    private static final String SESSION_START = LoadAwareRemoteProxy.class.getName() + ".sessionStart";
+    /** Weight of the latest command in the moving average. */
+    private static final double SMOOTHING = 0.2;
+    private double commandLatency;
+    private long commandCount;
+    private final HubMetrics metrics;
+
+    public LoadAwareRemoteProxy(final RegistrationRequest request, final Registry registry)
+    {
+        super(request, registry);
+        metrics = HubMetrics.get(registry);
+    }
+
+    @Override
+    public void beforeSession(final TestSession session)
+    {
+        super.beforeSession(session);
+        session.put(SESSION_START, Long.valueOf(System.nanoTime()));
+    }
+
+    @Override
+    public void afterSession(final TestSession session)
+    {
+        super.afterSession(session);
+        Object start = session.get(SESSION_START);
+        if(start instanceof Long)
+        {
+            metrics.recordSession((System.nanoTime() - ((Long) start).longValue()) / 1000000);
+        }
+    }
+
+    @Override
+    public void beforeCommand(final TestSession session, final HttpServletRequest request, final HttpServletResponse response)
+    {
+        super.beforeCommand(session, request, response);
+        session.put(COMMAND_START, Long.valueOf(System.nanoTime()));
+        if(request instanceof SeleniumBasedRequest && ((SeleniumBasedRequest) request).getRequestType() == RequestType.START_SESSION)
+        {
+            metrics.recordQueueWait(System.currentTimeMillis() - ((SeleniumBasedRequest) request).getCreationTime());
+        }
+    }
+
+    @Override
+    public void afterCommand(final TestSession session, final HttpServletRequest request, final HttpServletResponse response)
+    {
+        super.afterCommand(session, request, response);
+        Object start = session.get(COMMAND_START);
+        if(start instanceof Long)
+        {
+            double latency = (System.nanoTime() - ((Long) start).longValue()) / 1000000d;
+            recordCommand(latency);
+            metrics.recordCommand(request.getMethod(), request.getPathInfo(), latency);
+        }
+    }
+
+    /**
+     * Adds a command duration to the moving average.
+     * @param latency double milliseconds the node took to answer
+     */
+    synchronized void recordCommand(final double latency)
+    {
+        commandLatency = commandCount == 0 ? latency : SMOOTHING * latency + (1 - SMOOTHING) * commandLatency;
+        commandCount++;
+    }
+
+    /**
+     * @return double moving average in milliseconds of the node command latency, 0 until a command was sent
+     */
+    public synchronized double getCommandLatency()
+    {
+        return commandLatency;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+/**
+ * Node of the local {@link Grid}, run either in the jvm of the grid or in a jvm of its own.
+ *
+ * @since 1.9
+ */
+interface LocalNode
+{
+    /**
+     * Starts the node server without registering it with the hub.
+     */
+    void startServer();
+
+    /**
+     * Waits for the hub to answer and registers the started node against it.
+     * @param timeout long maximum time in milliseconds to wait for the hub
+     */
+    void register(long timeout);
+
+    /**
+     * @return int number of browser slots the node offers to the hub once registered
+     */
+    int getSlotCount();
+
+    /**
+     * Stops the node server.
+     */
+    void stop();
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.reflect.Field;
+import java.util.Comparator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.grid.internal.ProxySet;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+
+/**
+ * Order in which the hub offers a new session to its nodes, the first node
+ * with a free matching slot gets the session.
+ * <p>Selenium orders nodes by the share of their slots in use, which stacks
+ * sessions on the first registered node whenever nodes are equally used in
+ * proportion and ignores how fast a node answers.</p>
+ *
+ * @since 1.9
+ */
+public enum NodeSelectionStrategy implements Comparator<RemoteProxy>
+{
+    /** Selenium's own ordering by the share of slots in use. */
+    DEFAULT("default")
+    {
+        public int compare(RemoteProxy first, RemoteProxy second)
+        {
+            return Double.compare(getUsage(first), getUsage(second));
+        }
+    },
+    /** Fewest active sessions first, then the most free slots. */
+    LEAST_SESSIONS("leastSessions")
+    {
+        public int compare(RemoteProxy first, RemoteProxy second)
+        {
+            int compare = Integer.compare(first.getTotalUsed(), second.getTotalUsed());
+            if(compare == 0)
+            {
+                compare = Integer.compare(getFreeSlots(second), getFreeSlots(first));
+            }
+            return compare;
+        }
+    },
+    /**
+     * Lowest expected wait first, the recent command latency of the node multiplied by
+     * the sessions it would be running. Nodes that do not report latency count as fastest.
+     */
+    COMMAND_LATENCY("commandLatency")
+    {
+        public int compare(RemoteProxy first, RemoteProxy second)
+        {
+            int compare = Double.compare(getLatency(first) * (first.getTotalUsed() + 1),
+                                         getLatency(second) * (second.getTotalUsed() + 1));
+            if(compare == 0)
+            {
+                compare = LEAST_SESSIONS.compare(first, second);
+            }
+            return compare;
+        }
+    };
+
+    private static final String COMPARATOR_FIELD = "proxyComparator";
+    private static Log logger = LogFactory.getLog(NodeSelectionStrategy.class);
+    private final String value;
+
+    private NodeSelectionStrategy(final String value)
+    {
+        this.value = value;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Get the strategy from its configuration value.
+     * @param value String such as leastSessions, blank for the default
+     * @return {@link NodeSelectionStrategy} strategy
+     */
+    public static NodeSelectionStrategy fromString(final String value)
+    {
+        if(value == null || value.trim().isEmpty())
+        {
+            return DEFAULT;
+        }
+        for(NodeSelectionStrategy strategy : NodeSelectionStrategy.values())
+        {
+            if(value.trim().equalsIgnoreCase(strategy.value) || value.trim().equalsIgnoreCase(strategy.name()))
+            {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown node selection strategy: %s", value));
+    }
+
+    /**
+     * Makes the registry order its nodes with this strategy.
+     * Selenium has no public setter for the ordering so the comparator of the proxy set is replaced.
+     * @param registry {@link Registry} of the hub
+     */
+    public void apply(final Registry registry)
+    {
+        if(this == DEFAULT)
+        {
+            return;
+        }
+        try
+        {
+            Field comparator = ProxySet.class.getDeclaredField(COMPARATOR_FIELD);
+            comparator.setAccessible(true);
+            comparator.set(registry.getAllProxies(), this);
+            logger.info(String.format("Hub selects nodes by %s", value));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            logger.warn(String.format("Unable to select nodes by %s, using the default", value), e);
+        }
+    }
+
+    private static double getUsage(final RemoteProxy proxy)
+    {
+        return proxy.getTestSlots().isEmpty() ? 1 : (double) proxy.getTotalUsed() / proxy.getTestSlots().size();
+    }
+
+    private static int getFreeSlots(final RemoteProxy proxy)
+    {
+        return proxy.getTestSlots().size() - proxy.getTotalUsed();
+    }
+
+    private static double getLatency(final RemoteProxy proxy)
+    {
+        return proxy instanceof LoadAwareRemoteProxy ? ((LoadAwareRemoteProxy) proxy).getCommandLatency() : 0;
+    }
+}
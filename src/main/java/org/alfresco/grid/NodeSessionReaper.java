@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.jetty.http.HttpContext;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.server.DriverServlet;
+import org.openqa.selenium.remote.server.DriverSessions;
+import org.openqa.selenium.remote.server.Session;
+import org.openqa.selenium.server.SeleniumServer;
+
+/**
+ * Removes abandoned and long lived sessions from a node so that their browsers are quit.
+ * <p>A client that dies without quitting its driver leaves the browser running on the
+ * node until the hub times the slot out, and a browser that is kept busy for hours grows
+ * its memory without bound. The reaper checks the sessions of the node at a fixed interval
+ * and quits those idle for longer than <code>idleTimeout</code>. The hub also quits idle
+ * sessions after its own <code>timeout</code>, so the idle timeout only matters when it is
+ * shorter than that or the hub is gone.</p>
+ * <p>Sessions older than <code>maxAge</code> are ended between two commands even though
+ * their client is still using them: the session is deleted, not handed a fresh browser,
+ * and the next command of the client fails. Both limits are off by default. The counts are
+ * published as the MBean <code>org.alfresco.grid:type=NodeSessionReaper,port=&lt;node port&gt;</code>.</p>
+ *
+ * @since 1.9
+ */
+public class NodeSessionReaper implements NodeSessionReaperMBean
+{
+    private static final String OBJECT_NAME = "org.alfresco.grid:type=NodeSessionReaper,port=%d";
+    private static final long MIN_INTERVAL = 1000;
+    private static final long MAX_INTERVAL = 60000;
+    private final Log logger = LogFactory.getLog(NodeSessionReaper.class);
+    private final long idleTimeout;
+    private final long maxAge;
+    private final Map<SessionId, Long> created = new ConcurrentHashMap<SessionId, Long>();
+    private final AtomicLong idleReaped = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    private DriverSessions sessions;
+    private ScheduledExecutorService scheduler;
+    private ObjectName name;
+
+    /**
+     * Constructor.
+     * @param idleTimeout long milliseconds a session may go without a command, 0 to keep idle sessions
+     * @param maxAge long milliseconds a session may live before it is ended, 0 to never end a live session
+     */
+    public NodeSessionReaper(final long idleTimeout, final long maxAge)
+    {
+        if(idleTimeout < 0 || maxAge < 0)
+        {
+            throw new IllegalArgumentException(String.format("Invalid reaper settings, idle timeout: %d max age: %d", idleTimeout, maxAge));
+        }
+        this.idleTimeout = idleTimeout;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return boolean true if either limit is set
+     */
+    public boolean isEnabled()
+    {
+        return idleTimeout > 0 || maxAge > 0;
+    }
+
+    /**
+     * Starts checking the sessions in the background and publishes the counts.
+     * @param sessions {@link DriverSessions} sessions of the node
+     * @param port int port of the node used to name the MBean
+     */
+    public synchronized void start(final DriverSessions sessions, final int port)
+    {
+        if(sessions == null)
+        {
+            throw new IllegalArgumentException("Driver sessions are required");
+        }
+        if(scheduler != null)
+        {
+            throw new IllegalStateException("Session reaper is already started");
+        }
+        this.sessions = sessions;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "node-session-reaper-" + port);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = getInterval();
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    reap();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("Unable to reap node sessions", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        register(port);
+    }
+
+    /**
+     * Stops the background checks and removes the MBean, the sessions are left to the node to close.
+     */
+    public synchronized void stop()
+    {
+        if(scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if(name != null)
+        {
+            try
+            {
+                if(mbeanServer.isRegistered(name))
+                {
+                    mbeanServer.unregisterMBean(name);
+                }
+            }
+            catch (JMException e)
+            {
+                logger.debug("Unable to unregister node session reaper " + name, e);
+            }
+            name = null;
+        }
+        created.clear();
+    }
+
+    /**
+     * Quits the sessions that are idle past the idle timeout or older than the max age.
+     * A session running a command is left alone until the command returns.
+     * @return int number of sessions removed
+     */
+    int reap()
+    {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        created.keySet().retainAll(sessions.getSessions());
+        for (SessionId id : sessions.getSessions())
+        {
+            Session session = sessions.get(id);
+            if(session == null)
+            {
+                continue;
+            }
+            Long start = created.get(id);
+            if(start == null)
+            {
+                created.put(id, now);
+                start = now;
+            }
+            if(session.isInUse())
+            {
+                continue;
+            }
+            if(idleTimeout > 0 && session.isTimedOut(idleTimeout))
+            {
+                logger.info(String.format("Quitting session %s idle for more than %d ms", id, idleTimeout));
+                remove(id);
+                idleReaped.incrementAndGet();
+                removed++;
+            }
+            else if(maxAge > 0 && now - start >= maxAge)
+            {
+                logger.info(String.format("Ending session %s older than %d ms", id, maxAge));
+                remove(id);
+                expired.incrementAndGet();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks often enough that a session does not outlive its limit by more than a quarter.
+     */
+    long getInterval()
+    {
+        long limit = Long.MAX_VALUE;
+        if(idleTimeout > 0)
+        {
+            limit = idleTimeout;
+        }
+        if(maxAge > 0)
+        {
+            limit = Math.min(limit, maxAge);
+        }
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, limit / 4));
+    }
+
+    /**
+     * Finds the sessions of a started node, they are kept as an attribute of the webdriver context.
+     * @param server {@link SeleniumServer} started node server
+     * @return {@link DriverSessions} sessions of the node or null if the server has no webdriver context
+     */
+    public static DriverSessions getDriverSessions(final SeleniumServer server)
+    {
+        org.openqa.jetty.jetty.Server jetty = GridNode.getJettyServer(server);
+        if(jetty == null)
+        {
+            return null;
+        }
+        for (HttpContext context : jetty.getContexts())
+        {
+            Object sessions = context.getAttribute(DriverServlet.SESSIONS_KEY);
+            if(sessions instanceof DriverSessions)
+            {
+                return (DriverSessions) sessions;
+            }
+        }
+        return null;
+    }
+
+    private void remove(final SessionId id)
+    {
+        created.remove(id);
+        try
+        {
+            sessions.deleteSession(id);
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Problem quitting session " + id, e);
+        }
+    }
+
+    private void register(final int port)
+    {
+        try
+        {
+            ObjectName objectName = new ObjectName(String.format(OBJECT_NAME, port));
+            if(!mbeanServer.isRegistered(objectName))
+            {
+                mbeanServer.registerMBean(this, objectName);
+                name = objectName;
+            }
+        }
+        catch (JMException e)
+        {
+            logger.debug("Unable to register node session reaper for port " + port, e);
+        }
+    }
+
+    public long getIdleReapedCount()
+    {
+        return idleReaped.get();
+    }
+
+    public long getExpiredCount()
+    {
+        return expired.get();
+    }
+
+    public int getActiveSessionCount()
+    {
+        return sessions == null ? 0 : sessions.getSessions().size();
+    }
+
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public long getMaxAge()
+    {
+        return maxAge;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Captures screenshots on the calling thread and decodes and writes them in the background.
+ * <p>Only the transfer of the base64 payload from the browser happens on the test thread,
+ * the payload is queued to a single writer thread which decodes it and writes it to disk.
+ * Identical frames, such as the same error page captured by several failing tests, are
+ * encoded and written once, later copies are hard links to the first file, or plain copies
+ * where the file system has no hard links, so every requested name exists. When the queue
+ * is full the caller waits up to <code>offerTimeout</code> for space and the screenshot is
+ * dropped after that, so a slow disk holds tests back instead of filling the heap with
+ * pending payloads.</p>
+ *
+ * @since 1.9
+ */
+public class ScreenshotService
+{
+    private static final String EXTENSION = ".png";
+    private static final int RECENT_FRAMES = 256;
+    private final Log logger = LogFactory.getLog(ScreenshotService.class);
+    private final File directory;
+    private final long offerTimeout;
+    private final BlockingQueue<Frame> queue;
+    private final Map<String, File> recentFrames = Collections.synchronizedMap(new LinkedHashMap<String, File>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest)
+        {
+            return size() > RECENT_FRAMES;
+        }
+    });
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param directory File directory screenshots are written to
+     * @param queueSize int number of screenshots waiting to be written before callers are held back
+     * @param offerTimeout long milliseconds a caller waits for space in a full queue
+     */
+    public ScreenshotService(final File directory, final int queueSize, final long offerTimeout)
+    {
+        if(directory == null)
+        {
+            throw new IllegalArgumentException("Screenshot directory is required");
+        }
+        this.directory = directory;
+        this.offerTimeout = offerTimeout;
+        this.queue = new ArrayBlockingQueue<Frame>(queueSize);
+        this.writer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                write();
+            }
+        }, "screenshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Takes a screenshot and queues it to be written as <code>&lt;name&gt;.png</code>.
+     * @param driver {@link WebDriver} that can take screenshots
+     * @param name String file name without extension
+     * @return {@link CompletableFuture} completed with the written file, which is a link to the earlier file of an identical frame;
+     * completed exceptionally if the screenshot was dropped or could not be written
+     */
+    public CompletableFuture<File> capture(final WebDriver driver, final String name)
+    {
+        if(!(driver instanceof TakesScreenshot))
+        {
+            throw new IllegalArgumentException("WebDriver is not able to take screenshots");
+        }
+        return submit(((TakesScreenshot) driver).getScreenshotAs(OutputType.BASE64), name);
+    }
+
+    /**
+     * Queues a base64 encoded png to be written as <code>&lt;name&gt;.png</code>.
+     * @param base64 String encoded screenshot
+     * @param name String file name without extension
+     * @return {@link CompletableFuture} completed with the written file
+     */
+    public CompletableFuture<File> submit(final String base64, final String name)
+    {
+        CompletableFuture<File> result = new CompletableFuture<File>();
+        if(closed)
+        {
+            result.completeExceptionally(new IllegalStateException("Screenshot service is closed"));
+            return result;
+        }
+        Frame frame = new Frame(base64, name, result);
+        try
+        {
+            if(!queue.offer(frame, offerTimeout, TimeUnit.MILLISECONDS))
+            {
+                droppedCount.incrementAndGet();
+                logger.warn(String.format("Screenshot queue is full, dropped %s", name));
+                result.completeExceptionally(new IllegalStateException("Screenshot queue is full"));
+            }
+            else if(closed)
+            {
+                //Closed while offering, the writer may have stopped before it could take the frame
+                if(queue.remove(frame))
+                {
+                    result.completeExceptionally(new IllegalStateException("Screenshot service is closed"));
+                }
+                if(!writer.isAlive())
+                {
+                    abandonQueued();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Fails the frames left in the queue once the writer no longer takes them.
+     */
+    private void abandonQueued()
+    {
+        Frame frame;
+        while((frame = queue.poll()) != null)
+        {
+            droppedCount.incrementAndGet();
+            frame.result.completeExceptionally(new IllegalStateException("Screenshot service is closed"));
+        }
+    }
+
+    private void write()
+    {
+        while(!closed || !queue.isEmpty())
+        {
+            Frame frame;
+            try
+            {
+                frame = queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            if(frame != null)
+            {
+                write(frame);
+            }
+        }
+    }
+
+    private void write(final Frame frame)
+    {
+        try
+        {
+            byte[] png = Base64.decodeBase64(frame.base64);
+            String hash = DigestUtils.sha256Hex(png);
+            File existing = recentFrames.get(hash);
+            File file = new File(directory, frame.name + EXTENSION);
+            if(existing != null && existing.isFile())
+            {
+                duplicateCount.incrementAndGet();
+                if(!file.equals(existing))
+                {
+                    link(existing, file);
+                }
+                frame.result.complete(file);
+                return;
+            }
+            //The name may be a link to an earlier frame which must keep its content
+            Files.deleteIfExists(file.toPath());
+            synchronized (recentFrames)
+            {
+                recentFrames.values().remove(file);
+            }
+            FileUtils.writeByteArrayToFile(file, png);
+            recentFrames.put(hash, file);
+            writtenCount.incrementAndGet();
+            frame.result.complete(file);
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Unable to write screenshot %s", frame.name), e);
+            frame.result.completeExceptionally(e);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error(String.format("Unable to write screenshot %s", frame.name), e);
+            frame.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Gives an identical frame its requested name without writing its content again.
+     */
+    private void link(final File existing, final File file) throws IOException
+    {
+        Files.deleteIfExists(file.toPath());
+        try
+        {
+            Files.createLink(file.toPath(), existing.toPath());
+        }
+        catch (IOException e)
+        {
+            FileUtils.copyFile(existing, file);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            FileUtils.copyFile(existing, file);
+        }
+        logger.debug(String.format("Screenshot %s is identical to %s", file.getName(), existing.getName()));
+    }
+
+    /**
+     * Writes the queued screenshots and stops the writer, screenshots that are not
+     * written within the timeout are failed.
+     * @param timeout long milliseconds to wait for the queue to drain
+     */
+    public void close(final long timeout)
+    {
+        closed = true;
+        try
+        {
+            writer.join(timeout);
+            writer.interrupt();
+            writer.join(timeout);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        }
+        abandonQueued();
+    }
+
+    /**
+     * @return int number of screenshots waiting to be written
+     */
+    public int getQueuedCount()
+    {
+        return queue.size();
+    }
+
+    public long getWrittenCount()
+    {
+        return writtenCount.get();
+    }
+
+    public long getDuplicateCount()
+    {
+        return duplicateCount.get();
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * Screenshot waiting to be written.
+     */
+    private static class Frame
+    {
+        private final String base64;
+        private final String name;
+        private final CompletableFuture<File> result;
+
+        Frame(final String base64, final String name, final CompletableFuture<File> result)
+        {
+            this.base64 = base64;
+            this.name = name;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Admits new remote sessions only when the grid has a free slot for them.
+ * <p>Without it every new session request goes straight to the hub, which queues
+ * the ones it can not serve until they hit the browser timeout. The controller
+ * reads the free slots and the hub queue from the hub, subtracts the sessions it
+ * has already admitted but which have not started yet and lets waiting requests
+ * through in the order they arrived. If the hub status can not be read requests
+ * are admitted, as they were before.</p>
+ * <p>The hub is read by the first waiting request without holding the lock, so that
+ * {@link #release()} and {@link #getWaitingCount()} do not wait for a slow hub.
+ * Free slots are counted across all browsers of the grid: a request for a browser
+ * whose slots are all taken is admitted while slots of another browser are free,
+ * and then waits in the hub queue as it would without the controller.</p>
+ *
+ * @since 1.9
+ */
+public class SessionAdmissionController
+{
+    private final Log logger = LogFactory.getLog(SessionAdmissionController.class);
+    private final String gridUrl;
+    private final long pollInterval;
+    private final long maxWait;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition changed = lock.newCondition();
+    private final Deque<Object> waiting = new ArrayDeque<Object>();
+    private int admitted;
+    private HubStatus status;
+    private long statusTime;
+    private boolean refreshing;
+    private long releases;
+
+    /**
+     * Constructor.
+     * @param gridUrl String url of the grid the sessions are requested from
+     * @param pollInterval long milliseconds between hub status reads while requests wait
+     * @param maxWait long milliseconds a request waits for a slot
+     */
+    public SessionAdmissionController(final String gridUrl, final long pollInterval, final long maxWait)
+    {
+        if(gridUrl == null || gridUrl.isEmpty())
+        {
+            throw new IllegalArgumentException("Grid url is required");
+        }
+        this.gridUrl = gridUrl;
+        this.pollInterval = pollInterval;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Waits until the grid has a free slot for this request and all requests
+     * that arrived before it have been admitted.
+     * Every admission must be followed by {@link #release()} once the session request completed.
+     * @throws RuntimeException if no slot became free within the max wait time
+     */
+    public void acquire()
+    {
+        Object ticket = new Object();
+        long deadline = System.currentTimeMillis() + maxWait;
+        lock.lock();
+        try
+        {
+            waiting.addLast(ticket);
+            while(true)
+            {
+                if(waiting.peekFirst() == ticket)
+                {
+                    if(isStatusOutdated() && !refreshStatus())
+                    {
+                        //A session was released during the read, read again
+                        continue;
+                    }
+                    if(getAvailableSlots() > 0)
+                    {
+                        break;
+                    }
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0)
+                {
+                    throw new RuntimeException(String.format("Timed out waiting %d ms for a free slot on %s", maxWait, gridUrl));
+                }
+                changed.await(Math.min(remaining, pollInterval), TimeUnit.MILLISECONDS);
+            }
+            admitted++;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a free slot", e);
+        }
+        finally
+        {
+            waiting.remove(ticket);
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks an admitted session request as completed, its slot is now
+     * either taken on the hub or was never used.
+     */
+    public void release()
+    {
+        lock.lock();
+        try
+        {
+            if(admitted > 0)
+            {
+                admitted--;
+            }
+            //The hub has changed so the next waiter must not rely on the last read
+            statusTime = 0;
+            releases++;
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return int number of requests waiting for a slot
+     */
+    public int getWaitingCount()
+    {
+        lock.lock();
+        try
+        {
+            return waiting.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return boolean true if the hub was last read more than a poll interval ago
+     * and no other request is reading it. Must be called holding the lock.
+     */
+    private boolean isStatusOutdated()
+    {
+        return !refreshing && System.currentTimeMillis() - statusTime >= pollInterval;
+    }
+
+    /**
+     * Reads the hub with the lock released and publishes the result under the lock.
+     * Must be called holding the lock.
+     * @return boolean false if a {@link #release()} overlapped the read, which is then outdated
+     */
+    private boolean refreshStatus()
+    {
+        refreshing = true;
+        long started = System.currentTimeMillis();
+        long releaseCount = releases;
+        HubStatus fetched = null;
+        boolean current = false;
+        lock.unlock();
+        try
+        {
+            fetched = HubStatus.fetch(gridUrl);
+        }
+        catch (IOException e)
+        {
+            logger.debug("Unable to read grid capacity, admitting the session", e);
+        }
+        finally
+        {
+            lock.lock();
+            status = fetched;
+            current = releaseCount == releases;
+            statusTime = current ? started : 0;
+            refreshing = false;
+            changed.signalAll();
+        }
+        return current;
+    }
+
+    /**
+     * Free slots less the hub queue and the sessions admitted but not yet started,
+     * as of the last hub read. Must be called holding the lock.
+     */
+    private int getAvailableSlots()
+    {
+        if(status == null)
+        {
+            return 1;
+        }
+        return status.getFreeSlots() - status.getNewSessionRequestCount() - admitted;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.alfresco.po.Browser;
+
+/**
+ * Session creation latency and outcome of one {@link Browser}.
+ * <p>Latencies are counted in fixed buckets so recording a session is lock free
+ * and percentiles are read as the upper bound of the bucket they fall in.</p>
+ *
+ * @since 1.9
+ */
+public class SessionMetrics implements SessionMetricsMBean
+{
+    /** Upper bounds in milliseconds of the latency buckets, the last bucket holds anything slower. */
+    private static final long[] BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, Long.MAX_VALUE};
+    private final Browser browser;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length);
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public SessionMetrics(final Browser browser)
+    {
+        this.browser = browser;
+    }
+
+    /**
+     * Marks the start of a session creation.
+     * @return long start time to pass to {@link #success(long)} or {@link #failure(long)}
+     */
+    public long start()
+    {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a session that was created.
+     * @param start long value returned by {@link #start()}
+     */
+    public void success(final long start)
+    {
+        successCount.incrementAndGet();
+        record(start);
+    }
+
+    /**
+     * Records a session that could not be created.
+     * @param start long value returned by {@link #start()}
+     */
+    public void failure(final long start)
+    {
+        failureCount.incrementAndGet();
+        record(start);
+    }
+
+    private void record(final long start)
+    {
+        inFlight.decrementAndGet();
+        long latency = (System.nanoTime() - start) / 1000000;
+        totalLatency.addAndGet(latency);
+        int bucket = 0;
+        while(latency > BUCKETS[bucket])
+        {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * @param percentile double between 0 and 100
+     * @return long upper bound in milliseconds of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getLatencyPercentile(final double percentile)
+    {
+        long[] snapshot = new long[BUCKETS.length];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            seen += snapshot[i];
+            if(seen >= rank && snapshot[i] > 0)
+            {
+                return BUCKETS[i];
+            }
+        }
+        return BUCKETS[BUCKETS.length - 1];
+    }
+
+    public Browser getBrowser()
+    {
+        return browser;
+    }
+
+    public long getSuccessCount()
+    {
+        return successCount.get();
+    }
+
+    public long getFailureCount()
+    {
+        return failureCount.get();
+    }
+
+    public int getInFlightCount()
+    {
+        return inFlight.get();
+    }
+
+    public long getMeanLatency()
+    {
+        long count = successCount.get() + failureCount.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    public long getLatencyP50()
+    {
+        return getLatencyPercentile(50);
+    }
+
+    public long getLatencyP95()
+    {
+        return getLatencyPercentile(95);
+    }
+
+    public long getLatencyP99()
+    {
+        return getLatencyPercentile(99);
+    }
+
+    /**
+     * Clears the recorded latencies and counters, sessions in flight are still counted.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS.length; i++)
+        {
+            counts.set(i, 0);
+        }
+        successCount.set(0);
+        failureCount.set(0);
+        totalLatency.set(0);
+    }
+
+    /**
+     * @return {@link Snapshot} of the current values
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(browser, getSuccessCount(), getFailureCount(), getInFlightCount(),
+                getMeanLatency(), getLatencyP50(), getLatencyP95(), getLatencyP99());
+    }
+
+    /**
+     * Immutable copy of the session metrics of a browser.
+     */
+    public static final class Snapshot
+    {
+        private final Browser browser;
+        private final long successCount;
+        private final long failureCount;
+        private final int inFlightCount;
+        private final long meanLatency;
+        private final long latencyP50;
+        private final long latencyP95;
+        private final long latencyP99;
+
+        Snapshot(final Browser browser, final long successCount, final long failureCount, final int inFlightCount,
+                 final long meanLatency, final long latencyP50, final long latencyP95, final long latencyP99)
+        {
+            this.browser = browser;
+            this.successCount = successCount;
+            this.failureCount = failureCount;
+            this.inFlightCount = inFlightCount;
+            this.meanLatency = meanLatency;
+            this.latencyP50 = latencyP50;
+            this.latencyP95 = latencyP95;
+            this.latencyP99 = latencyP99;
+        }
+
+        public Browser getBrowser()
+        {
+            return browser;
+        }
+
+        public long getSuccessCount()
+        {
+            return successCount;
+        }
+
+        public long getFailureCount()
+        {
+            return failureCount;
+        }
+
+        public int getInFlightCount()
+        {
+            return inFlightCount;
+        }
+
+        public long getMeanLatency()
+        {
+            return meanLatency;
+        }
+
+        public long getLatencyP50()
+        {
+            return latencyP50;
+        }
+
+        public long getLatencyP95()
+        {
+            return latencyP95;
+        }
+
+        public long getLatencyP99()
+        {
+            return latencyP99;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s sessions [success=%d, failure=%d, inFlight=%d, mean=%dms, p50=%dms, p95=%dms, p99=%dms]",
+                    browser, successCount, failureCount, inFlightCount, meanLatency, latencyP50, latencyP95, latencyP99);
+        }
+    }
+}
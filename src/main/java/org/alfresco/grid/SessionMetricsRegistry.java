@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.alfresco.po.Browser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Holds the {@link SessionMetrics} of each {@link Browser} and publishes them as
+ * MBeans named <code>org.alfresco.grid:type=SessionMetrics,browser=&lt;browser&gt;</code>.
+ * The {@link WebDriverPool} of the factory is published next to them as
+ * <code>org.alfresco.grid:type=WebDriverPool</code>.
+ *
+ * @since 1.9
+ */
+public class SessionMetricsRegistry
+{
+    private static final String OBJECT_NAME = "org.alfresco.grid:type=SessionMetrics,browser=%s";
+    private static final String POOL_OBJECT_NAME = "org.alfresco.grid:type=WebDriverPool";
+    private final Log logger = LogFactory.getLog(SessionMetricsRegistry.class);
+    private final ConcurrentMap<Browser, SessionMetrics> metrics = new ConcurrentHashMap<Browser, SessionMetrics>();
+    private final Set<ObjectName> registered = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    /**
+     * Gets the metrics of the browser, creating and publishing them on first use.
+     * @param browser {@link Browser} type of session
+     * @return {@link SessionMetrics} metrics of the browser
+     */
+    public SessionMetrics get(final Browser browser)
+    {
+        SessionMetrics browserMetrics = metrics.get(browser);
+        if(browserMetrics == null)
+        {
+            browserMetrics = new SessionMetrics(browser);
+            SessionMetrics existing = metrics.putIfAbsent(browser, browserMetrics);
+            if(existing != null)
+            {
+                return existing;
+            }
+            register(browserMetrics);
+        }
+        return browserMetrics;
+    }
+
+    /**
+     * Publishes the recycle count of the session pool until the registry is closed.
+     * @param pool {@link WebDriverPool} session pool of the factory
+     */
+    public void register(final WebDriverPool pool)
+    {
+        try
+        {
+            register(pool, getPoolObjectName(), "session pool");
+        }
+        catch (JMException e)
+        {
+            logger.debug("Unable to register the session pool", e);
+        }
+    }
+
+    /**
+     * @return Map of {@link SessionMetrics.Snapshot} of every browser used so far
+     */
+    public Map<Browser, SessionMetrics.Snapshot> snapshot()
+    {
+        Map<Browser, SessionMetrics.Snapshot> snapshots = new EnumMap<Browser, SessionMetrics.Snapshot>(Browser.class);
+        for (SessionMetrics browserMetrics : metrics.values())
+        {
+            snapshots.put(browserMetrics.getBrowser(), browserMetrics.snapshot());
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Removes the MBeans published by this registry, those of another factory are left alone.
+     */
+    public void close()
+    {
+        for (ObjectName name : registered)
+        {
+            try
+            {
+                if(server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (JMException e)
+            {
+                logger.debug("Unable to unregister session metrics " + name, e);
+            }
+        }
+        registered.clear();
+        metrics.clear();
+    }
+
+    static ObjectName getObjectName(final Browser browser) throws JMException
+    {
+        return new ObjectName(String.format(OBJECT_NAME, browser.name()));
+    }
+
+    static ObjectName getPoolObjectName() throws JMException
+    {
+        return new ObjectName(POOL_OBJECT_NAME);
+    }
+
+    private void register(final SessionMetrics browserMetrics)
+    {
+        try
+        {
+            register(browserMetrics, getObjectName(browserMetrics.getBrowser()), "session metrics of " + browserMetrics.getBrowser());
+        }
+        catch (JMException e)
+        {
+            logger.debug("Unable to register session metrics of " + browserMetrics.getBrowser(), e);
+        }
+    }
+
+    /**
+     * Publishes an MBean, another factory in the same jvm may already have published
+     * one under the name in which case only the first one is visible over jmx.
+     */
+    private void register(final Object mbean, final ObjectName name, final String description) throws JMException
+    {
+        try
+        {
+            server.registerMBean(mbean, name);
+            registered.add(name);
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+            logger.debug("The " + description + " is published by another factory");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.pool.PoolStats;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.internal.ApacheHttpClient;
+
+/**
+ * One keep-alive connection pool for the command executors of all remote drivers of a factory.
+ * <p>Selenium shares a default pool between remote drivers but its size and timeouts are fixed,
+ * and every driver that quits closes all idle connections of the pool, so that the other sessions
+ * open new connections to the hub and the closed ones pile up in TIME_WAIT. The clients created
+ * here leave the pool alone when their driver quits, idle connections are only evicted once they
+ * have been idle for <code>idleTimeout</code>.</p>
+ * <p>Responses compressed by the hub are always accepted, commands are only compressed
+ * when <code>gzipMinSize</code> is set, see {@link WireCompression}.</p>
+ *
+ * @since 1.9
+ */
+public class SharedHttpClientFactory implements HttpClient.Factory, Closeable
+{
+    /** Milliseconds a pooled connection may sit unused before it is checked on lease */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+    private static Log logger = LogFactory.getLog(SharedHttpClientFactory.class);
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    /**
+     * Constructor.
+     * @param maxConnections int connections kept open to all hubs
+     * @param maxConnectionsPerRoute int connections kept open to one hub
+     * @param connectTimeout int milliseconds to open a connection or lease one from the pool
+     * @param socketTimeout int milliseconds to wait for a command response
+     * @param idleTimeout long milliseconds an idle connection is kept open, 0 to keep it until the hub closes it
+     */
+    public SharedHttpClientFactory(final int maxConnections, final int maxConnectionsPerRoute, final int connectTimeout,
+            final int socketTimeout, final long idleTimeout)
+    {
+        this(maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout, idleTimeout, 0);
+    }
+
+    /**
+     * Constructor with compressed requests.
+     * @param maxConnections int connections kept open to all hubs
+     * @param maxConnectionsPerRoute int connections kept open to one hub
+     * @param connectTimeout int milliseconds to open a connection or lease one from the pool
+     * @param socketTimeout int milliseconds to wait for a command response
+     * @param idleTimeout long milliseconds an idle connection is kept open, 0 to keep it until the hub closes it
+     * @param gzipMinSize int smallest command in bytes sent gzip compressed, 0 to not compress, the hub must read compressed requests
+     */
+    public SharedHttpClientFactory(final int maxConnections, final int maxConnectionsPerRoute, final int connectTimeout,
+            final int socketTimeout, final long idleTimeout, final int gzipMinSize)
+    {
+        if(maxConnections < 1 || maxConnectionsPerRoute < 1 || maxConnectionsPerRoute > maxConnections)
+        {
+            throw new IllegalArgumentException(String.format("Invalid http connections, max: %d per route: %d", maxConnections, maxConnectionsPerRoute));
+        }
+        if(connectTimeout < 0 || socketTimeout < 0 || idleTimeout < 0)
+        {
+            throw new IllegalArgumentException("Http timeouts can not be negative");
+        }
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoReuseAddress(true)
+                .setTcpNoDelay(true)
+                .setSoTimeout(socketTimeout)
+                .build());
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .build();
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()));
+        if(idleTimeout > 0)
+        {
+            builder.evictExpiredConnections().evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        if(gzipMinSize > 0)
+        {
+            builder.addInterceptorFirst(WireCompression.createRequestInterceptor(gzipMinSize));
+        }
+        client = builder.build();
+    }
+
+    public HttpClient createClient(URL url)
+    {
+        final ApacheHttpClient delegate = new ApacheHttpClient(client, url);
+        return new HttpClient()
+        {
+            public HttpResponse execute(HttpRequest request, boolean followRedirects) throws IOException
+            {
+                return delegate.execute(request, followRedirects);
+            }
+
+            public void close()
+            {
+                // the pool outlives the driver, it is closed with the factory
+            }
+        };
+    }
+
+    /**
+     * @return {@link CloseableHttpClient} client of the pool for executors that read responses themselves
+     */
+    CloseableHttpClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * @return {@link PoolStats} connections leased, idle and waited for across all hubs
+     */
+    public PoolStats getStats()
+    {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes every pooled connection, drivers created from this factory can no longer reach the hub.
+     */
+    public void close()
+    {
+        try
+        {
+            client.close();
+        }
+        catch (IOException e)
+        {
+            logger.debug("Problem closing the remote driver http client", e);
+        }
+    }
+}
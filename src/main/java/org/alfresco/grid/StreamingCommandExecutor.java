@@ -0,0 +1,615 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.ErrorHandler;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionNotFoundException;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.http.JsonHttpCommandCodec;
+import org.openqa.selenium.remote.http.JsonHttpResponseCodec;
+import org.openqa.selenium.remote.internal.WebElementToJsonConverter;
+
+/**
+ * Command executor that reads the responses of the hub as they arrive instead of buffering them.
+ * <p>The selenium executor reads a response into a byte array, decodes it into a string and
+ * parses that into maps, so a page source or screenshot of a few megabytes is held several
+ * times over before the caller sees it. This executor parses the response envelope from the
+ * connection and decodes the top level <code>value</code> string straight into its final form,
+ * either the one string the {@link WebDriver} API returns or, through
+ * {@link #execute(Command, File, boolean)}, a file on disk. Base64 values such as screenshots
+ * are decoded on the way to the file. Values that are objects or arrays are parsed into maps
+ * and lists as selenium does.</p>
+ * <p>The static helpers read the page source, a screenshot or a script result of any driver
+ * into a file, streamed when the driver runs on this executor and with the plain driver
+ * calls otherwise.</p>
+ *
+ * @since 1.9
+ */
+public class StreamingCommandExecutor implements CommandExecutor
+{
+    private static final String VALUE = "value";
+    private static final String STATUS = "status";
+    private static final String SESSION_ID = "sessionId";
+    private static final String STATE = "state";
+    private static final String NULL = "null";
+    private static final int BUFFER_SIZE = 8192;
+    /** Largest buffer allocated up front for a string value, bigger ones grow as they are read */
+    private static final int MAX_PRESIZE = 1 << 24;
+    private final URL remoteServer;
+    private final CloseableHttpClient client;
+    private final JsonHttpCommandCodec commandCodec = new JsonHttpCommandCodec();
+    private final JsonHttpResponseCodec responseCodec = new JsonHttpResponseCodec();
+
+    /**
+     * Constructor.
+     * @param remoteServer {@link URL} of the hub such as <code>http://localhost:4444/wd/hub</code>
+     * @param httpClientFactory {@link SharedHttpClientFactory} connection pool to send the commands through
+     */
+    public StreamingCommandExecutor(final URL remoteServer, final SharedHttpClientFactory httpClientFactory)
+    {
+        if(remoteServer == null)
+        {
+            throw new IllegalArgumentException("Remote server url is required");
+        }
+        if(httpClientFactory == null)
+        {
+            throw new IllegalArgumentException("Http client factory is required");
+        }
+        this.remoteServer = remoteServer;
+        this.client = httpClientFactory.getClient();
+    }
+
+    public Response execute(Command command) throws IOException
+    {
+        return execute(command, null, false);
+    }
+
+    /**
+     * Runs a command and writes a top level string value to a file, the value of the
+     * response is then the file. Other values, and the value of a failed command, are
+     * returned as {@link #execute(Command)} does.
+     * @param command {@link Command} to run
+     * @param file {@link File} to write the value to, null to return it as a string
+     * @param base64 boolean true to decode the value from base64 before writing it
+     * @return {@link Response} of the command
+     * @throws IOException if the hub can not be reached or the file can not be written
+     */
+    public Response execute(final Command command, final File file, final boolean base64) throws IOException
+    {
+        if(command.getSessionId() == null)
+        {
+            if(DriverCommand.QUIT.equals(command.getName()))
+            {
+                return new Response();
+            }
+            if(!DriverCommand.GET_ALL_SESSIONS.equals(command.getName()) && !DriverCommand.NEW_SESSION.equals(command.getName()))
+            {
+                throw new SessionNotFoundException("Session ID is null. Using WebDriver after calling quit()?");
+            }
+        }
+        HttpRequest request;
+        try
+        {
+            request = commandCodec.encode(command);
+        }
+        catch (UnsupportedCommandException e)
+        {
+            throw new UnsupportedOperationException("No information from server. Command name was: " + command.getName(), e);
+        }
+        CloseableHttpResponse httpResponse = client.execute(createRequest(request));
+        try
+        {
+            Response response = read(httpResponse, file, base64);
+            if(file != null && file.equals(response.getValue()) && !isSuccess(response))
+            {
+                response.setValue(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+                FileUtils.deleteQuietly(file);
+            }
+            return response;
+        }
+        finally
+        {
+            httpResponse.close();
+        }
+    }
+
+    private HttpUriRequest createRequest(final HttpRequest request)
+    {
+        String url = remoteServer.toExternalForm().replaceAll("/$", "") + request.getUri();
+        HttpUriRequest httpRequest;
+        switch (request.getMethod())
+        {
+            case DELETE:
+                httpRequest = new HttpDelete(url);
+                break;
+            case GET:
+                httpRequest = new HttpGet(url);
+                break;
+            default:
+                HttpPost post = new HttpPost(url);
+                post.setEntity(new ByteArrayEntity(request.getContent()));
+                httpRequest = post;
+        }
+        for (String name : request.getHeaderNames())
+        {
+            if(!"Content-Length".equalsIgnoreCase(name))
+            {
+                for (String value : request.getHeaders(name))
+                {
+                    httpRequest.addHeader(name, value);
+                }
+            }
+        }
+        return httpRequest;
+    }
+
+    /**
+     * Parses a json response from the connection, anything else is buffered and decoded by selenium.
+     */
+    private Response read(final CloseableHttpResponse httpResponse, final File file, final boolean base64) throws IOException
+    {
+        HttpEntity entity = httpResponse.getEntity();
+        ContentType contentType = entity == null ? null : ContentType.get(entity);
+        if(contentType == null || !ContentType.APPLICATION_JSON.getMimeType().equalsIgnoreCase(contentType.getMimeType()))
+        {
+            HttpResponse response = new HttpResponse();
+            response.setStatus(httpResponse.getStatusLine().getStatusCode());
+            for (Header header : httpResponse.getAllHeaders())
+            {
+                response.addHeader(header.getName(), header.getValue());
+            }
+            response.setContent(entity == null ? new byte[0] : EntityUtils.toByteArray(entity));
+            return responseCodec.decode(response);
+        }
+        Charset charset = contentType.getCharset() == null ? StandardCharsets.UTF_8 : contentType.getCharset();
+        InputStream in = entity.getContent();
+        try
+        {
+            ResponseReader reader = new ResponseReader(new InputStreamReader(in, charset), entity.getContentLength());
+            return reader.read(file, base64);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static boolean isSuccess(final Response response)
+    {
+        return response.getStatus() == null || response.getStatus() == ErrorCodes.SUCCESS;
+    }
+
+    /**
+     * Writes the source of the current page to a file.
+     * @param driver {@link WebDriver} possibly decorated
+     * @param file {@link File} to write the page source to, in utf-8
+     * @return {@link File} the file
+     * @throws IOException if the file can not be written
+     */
+    public static File getPageSource(final WebDriver driver, final File file) throws IOException
+    {
+        if(!execute(driver, DriverCommand.GET_PAGE_SOURCE, new HashMap<String, Object>(), file, false))
+        {
+            FileUtils.writeStringToFile(file, driver.getPageSource(), StandardCharsets.UTF_8);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a png screenshot of the current page to a file.
+     * @param driver {@link WebDriver} possibly decorated, which takes screenshots
+     * @param file {@link File} to write the screenshot to
+     * @return {@link File} the file
+     * @throws IOException if the file can not be written
+     */
+    public static File getScreenshot(final WebDriver driver, final File file) throws IOException
+    {
+        if(!execute(driver, DriverCommand.SCREENSHOT, new HashMap<String, Object>(), file, true))
+        {
+            FileUtils.writeByteArrayToFile(file, ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES));
+        }
+        return file;
+    }
+
+    /**
+     * Runs a script that returns a string and writes the string to a file.
+     * @param driver {@link WebDriver} possibly decorated, which runs scripts
+     * @param file {@link File} to write the result to, in utf-8
+     * @param script String script to run
+     * @param args Object arguments of the script
+     * @return {@link File} the file
+     * @throws IOException if the file can not be written
+     * @throws IllegalStateException if the script does not return a string
+     */
+    public static File executeScript(final WebDriver driver, final File file, final String script, final Object... args) throws IOException
+    {
+        List<Object> arguments = new ArrayList<Object>();
+        WebElementToJsonConverter converter = new WebElementToJsonConverter();
+        for (Object arg : args)
+        {
+            arguments.add(converter.apply(arg));
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("script", script);
+        parameters.put("args", arguments);
+        if(!execute(driver, DriverCommand.EXECUTE_SCRIPT, parameters, file, false))
+        {
+            Object result = ((JavascriptExecutor) driver).executeScript(script, args);
+            if(!(result instanceof String))
+            {
+                throw new IllegalStateException("Script did not return a string: " + result);
+            }
+            FileUtils.writeStringToFile(file, (String) result, StandardCharsets.UTF_8);
+        }
+        return file;
+    }
+
+    /**
+     * Streams a command of a driver running on this executor to a file.
+     * @return boolean false if the driver runs on another executor and the caller has to fall back
+     */
+    private static boolean execute(final WebDriver driver, final String name, final Map<String, Object> parameters,
+            final File file, final boolean base64) throws IOException
+    {
+        if(file == null)
+        {
+            throw new IllegalArgumentException("File is required");
+        }
+        WebDriver unwrapped = DelegatingWebDriver.unwrap(driver);
+        if(!(unwrapped instanceof RemoteWebDriver)
+                || !(((RemoteWebDriver) unwrapped).getCommandExecutor() instanceof StreamingCommandExecutor))
+        {
+            return false;
+        }
+        RemoteWebDriver remote = (RemoteWebDriver) unwrapped;
+        StreamingCommandExecutor executor = (StreamingCommandExecutor) remote.getCommandExecutor();
+        long start = System.currentTimeMillis();
+        Response response = executor.execute(new Command(remote.getSessionId(), name, parameters), file, base64);
+        new ErrorHandler(true).throwIfResponseFailed(response, System.currentTimeMillis() - start);
+        if(!file.equals(response.getValue()))
+        {
+            FileUtils.deleteQuietly(file);
+            throw new IllegalStateException(String.format("Command %s did not return a string: %s", name, response.getValue()));
+        }
+        return true;
+    }
+
+    /**
+     * Pull parser of the response envelope, strings are decoded straight into their target
+     * and other values of the envelope are captured as text and parsed by selenium.
+     */
+    private static final class ResponseReader
+    {
+        private final Reader reader;
+        private final long contentLength;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        ResponseReader(final Reader reader, final long contentLength)
+        {
+            this.reader = reader;
+            this.contentLength = contentLength;
+        }
+
+        Response read(final File file, final boolean base64) throws IOException
+        {
+            Response response = new Response();
+            expect('{');
+            if(next() == '}')
+            {
+                return response;
+            }
+            while(true)
+            {
+                if(next() != '"')
+                {
+                    throw malformed("field name");
+                }
+                String key = readString();
+                expect(':');
+                boolean string = next() == '"';
+                if(VALUE.equals(key))
+                {
+                    response.setValue(string ? readValue(file, base64) : parse(readRaw()));
+                }
+                else
+                {
+                    String value = string ? readString() : readRaw().trim();
+                    if(SESSION_ID.equals(key))
+                    {
+                        response.setSessionId(NULL.equals(value) ? null : value);
+                    }
+                    else if(STATUS.equals(key))
+                    {
+                        response.setStatus(NULL.equals(value) ? null : Integer.valueOf(value));
+                    }
+                    else if(STATE.equals(key))
+                    {
+                        response.setState(NULL.equals(value) ? null : value);
+                    }
+                }
+                int c = next();
+                position++;
+                if(c == '}')
+                {
+                    return response;
+                }
+                if(c != ',')
+                {
+                    throw malformed("',' or '}'");
+                }
+            }
+        }
+
+        private Object readValue(final File file, final boolean base64) throws IOException
+        {
+            if(file == null)
+            {
+                int capacity = contentLength > 0 ? (int) Math.min(contentLength, MAX_PRESIZE) : BUFFER_SIZE;
+                StringBuilder value = new StringBuilder(capacity);
+                readString(new StringBuilderWriter(value));
+                return value.toString();
+            }
+            BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+            Writer writer = base64 ? new OutputStreamWriter(new Base64OutputStream(out, false), StandardCharsets.US_ASCII)
+                                   : new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            try
+            {
+                readString(writer);
+            }
+            finally
+            {
+                writer.close();
+            }
+            return file;
+        }
+
+        private static Object parse(final String json)
+        {
+            String value = json.trim();
+            return NULL.equals(value) ? null : new JsonToBeanConverter().convert(Object.class, value);
+        }
+
+        /**
+         * @return int next character that is not white space, without consuming it, or -1 at the end
+         */
+        private int next() throws IOException
+        {
+            while(fill())
+            {
+                char c = buffer[position];
+                if(c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                {
+                    return c;
+                }
+                position++;
+            }
+            return -1;
+        }
+
+        private boolean fill() throws IOException
+        {
+            while(position == limit)
+            {
+                int read = reader.read(buffer);
+                if(read < 0)
+                {
+                    return false;
+                }
+                position = 0;
+                limit = read;
+            }
+            return true;
+        }
+
+        private void expect(final char expected) throws IOException
+        {
+            if(next() != expected)
+            {
+                throw malformed("'" + expected + "'");
+            }
+            position++;
+        }
+
+        private String readString() throws IOException
+        {
+            StringBuilder value = new StringBuilder();
+            readString(new StringBuilderWriter(value));
+            return value.toString();
+        }
+
+        /**
+         * Decodes the string starting at the current quote into the writer, unescaped runs are written as a whole.
+         */
+        private void readString(final Writer out) throws IOException
+        {
+            position++;
+            while(true)
+            {
+                if(!fill())
+                {
+                    throw malformed("end of string");
+                }
+                int start = position;
+                while(position < limit && buffer[position] != '"' && buffer[position] != '\\')
+                {
+                    position++;
+                }
+                out.write(buffer, start, position - start);
+                if(position == limit)
+                {
+                    continue;
+                }
+                if(buffer[position++] == '"')
+                {
+                    return;
+                }
+                out.write(readEscape());
+            }
+        }
+
+        private char readEscape() throws IOException
+        {
+            char c = readChar();
+            switch (c)
+            {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        int digit = Character.digit(readChar(), 16);
+                        if(digit < 0)
+                        {
+                            throw malformed("unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    return (char) code;
+                default:
+                    throw malformed("escape sequence");
+            }
+        }
+
+        private char readChar() throws IOException
+        {
+            if(!fill())
+            {
+                throw malformed("character");
+            }
+            return buffer[position++];
+        }
+
+        /**
+         * Captures the json text of a value that is not a string, up to the end of the value.
+         */
+        private String readRaw() throws IOException
+        {
+            StringBuilder raw = new StringBuilder();
+            int depth = 0;
+            while(true)
+            {
+                if(!fill())
+                {
+                    throw malformed("value");
+                }
+                char c = buffer[position];
+                if(depth == 0 && (c == ',' || c == '}'))
+                {
+                    return raw.toString();
+                }
+                position++;
+                raw.append(c);
+                if(c == '"')
+                {
+                    copyString(raw);
+                }
+                else if(c == '{' || c == '[')
+                {
+                    depth++;
+                }
+                else if((c == '}' || c == ']') && --depth == 0)
+                {
+                    return raw.toString();
+                }
+            }
+        }
+
+        private void copyString(final StringBuilder raw) throws IOException
+        {
+            while(true)
+            {
+                char c = readChar();
+                raw.append(c);
+                if(c == '\\')
+                {
+                    raw.append(readChar());
+                }
+                else if(c == '"')
+                {
+                    return;
+                }
+            }
+        }
+
+        private IOException malformed(final String expected)
+        {
+            return new IOException("Malformed json response, expected " + expected);
+        }
+    }
+}
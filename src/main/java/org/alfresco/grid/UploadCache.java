@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Node side store of uploaded files keyed by the sha-256 of their content.
+ * <p>Each file is kept as <code>&lt;directory&gt;/&lt;hash&gt;/&lt;name&gt;</code> so that the browser
+ * sees the original file name. Content asked for under another name is hard linked, or copied
+ * where the file system has no hard links, as <code>&lt;hash&gt;/&lt;other name&gt;</code>; only the
+ * first copy counts towards the size. The store holds at most <code>maxSize</code> bytes and
+ * evicts the least recently used files first.</p>
+ * <p>Files handed to a session are pinned until the session is {@link #release(String) released},
+ * pinned files are never evicted so that a path returned to a client stays valid while its
+ * browser may still read it. Pins of a session that is not used for <code>pinTimeout</code>
+ * milliseconds are dropped, so that a client that never releases its session can not fill
+ * the disk.</p>
+ * <p>Files are held in a private directory created under the configured parent, so that
+ * several jvms can share the same parent; only that private directory is deleted, by
+ * {@link #destroy()} or when the jvm of the shared instance shuts down.</p>
+ *
+ * @since 1.9
+ */
+public class UploadCache
+{
+    public static final String CACHE_DIR = "grid.upload.cache.dir";
+    public static final String CACHE_SIZE = "grid.upload.cache.size";
+    public static final String PIN_TIMEOUT = "grid.upload.cache.pin.timeout";
+    private static final long DEFAULT_CACHE_SIZE = 512L * 1024 * 1024;
+    private static final long DEFAULT_PIN_TIMEOUT = 60L * 60 * 1000;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static UploadCache instance;
+    private final Log logger = LogFactory.getLog(UploadCache.class);
+    private final File directory;
+    private final long maxSize;
+    private final long pinTimeout;
+    private final LinkedHashMap<String, File> files = new LinkedHashMap<String, File>(16, 0.75f, true);
+    private final Map<String, Pins> pins = new HashMap<String, Pins>();
+    private long size;
+
+    /**
+     * Constructor with pins dropped after an hour without use.
+     * @param parent File directory under which the private cache directory is created
+     * @param maxSize long maximum number of bytes held
+     */
+    public UploadCache(final File parent, final long maxSize)
+    {
+        this(parent, maxSize, DEFAULT_PIN_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     * @param parent File directory under which the private cache directory is created
+     * @param maxSize long maximum number of bytes held
+     * @param pinTimeout long milliseconds after which the pins of an unused session are dropped
+     */
+    public UploadCache(final File parent, final long maxSize, final long pinTimeout)
+    {
+        if(maxSize < 1)
+        {
+            throw new IllegalArgumentException("Upload cache size must be positive");
+        }
+        if(pinTimeout < 1)
+        {
+            throw new IllegalArgumentException("Upload cache pin timeout must be positive");
+        }
+        this.maxSize = maxSize;
+        this.pinTimeout = pinTimeout;
+        try
+        {
+            FileUtils.forceMkdir(parent);
+            this.directory = Files.createTempDirectory(parent.toPath(), "upload-cache").toFile();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(String.format("Unable to create upload cache in %s", parent), e);
+        }
+    }
+
+    /**
+     * @return {@link UploadCache} shared by the nodes of this jvm, configured with the
+     * <code>grid.upload.cache.dir</code>, <code>grid.upload.cache.size</code> and
+     * <code>grid.upload.cache.pin.timeout</code> system properties
+     */
+    public static synchronized UploadCache getInstance()
+    {
+        if(instance == null)
+        {
+            final UploadCache cache = new UploadCache(getParentDirectory(),
+                    Long.getLong(CACHE_SIZE, DEFAULT_CACHE_SIZE), Long.getLong(PIN_TIMEOUT, DEFAULT_PIN_TIMEOUT));
+            Runtime.getRuntime().addShutdownHook(new Thread("upload-cache-cleanup")
+            {
+                @Override
+                public void run()
+                {
+                    cache.destroy();
+                }
+            });
+            instance = cache;
+        }
+        return instance;
+    }
+
+    /**
+     * @return File parent of the cache directory of this jvm, <code>grid.upload.cache.dir</code>
+     * or <code>grid-upload-cache</code> in the temporary directory
+     */
+    static File getParentDirectory()
+    {
+        return new File(System.getProperty(CACHE_DIR, new File(System.getProperty("java.io.tmpdir"), "grid-upload-cache").getPath()));
+    }
+
+    /**
+     * @param hash String sha-256 of the content
+     * @return File cached file or null if the content is not held
+     */
+    public synchronized File get(final String hash)
+    {
+        File file = files.get(hash);
+        if(file != null && !file.isFile())
+        {
+            remove(hash);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * @param hash String sha-256 of the content
+     * @param name String file name the content is asked for under, null for the name it was stored under
+     * @return File cached file with the given name or null if the content is not held
+     * @throws IOException if the content can not be given the name
+     */
+    public synchronized File get(final String hash, final String name) throws IOException
+    {
+        return get(hash, name, null);
+    }
+
+    /**
+     * @param hash String sha-256 of the content
+     * @param name String file name the content is asked for under, null for the name it was stored under
+     * @param session String session the file is pinned for until released, null to not pin it
+     * @return File cached file with the given name or null if the content is not held
+     * @throws IOException if the content can not be given the name
+     */
+    public synchronized File get(final String hash, final String name, final String session) throws IOException
+    {
+        File file = get(hash);
+        if(file == null)
+        {
+            return null;
+        }
+        pin(hash, session);
+        return named(file, hash, name);
+    }
+
+    /**
+     * Stores content, verifying that it matches its hash.
+     * @param hash String expected sha-256 of the content
+     * @param name String file name to store the content under
+     * @param content InputStream content, not closed
+     * @return File stored file with the given name
+     * @throws IOException if the content can not be stored or does not match the hash
+     */
+    public File put(final String hash, final String name, final InputStream content) throws IOException
+    {
+        return put(hash, name, null, content);
+    }
+
+    /**
+     * Stores content, verifying that it matches its hash.
+     * @param hash String expected sha-256 of the content
+     * @param name String file name to store the content under
+     * @param session String session the file is pinned for until released, null to not pin it
+     * @param content InputStream content, not closed
+     * @return File stored file with the given name
+     * @throws IOException if the content can not be stored or does not match the hash
+     */
+    public File put(final String hash, final String name, final String session, final InputStream content) throws IOException
+    {
+        File cached = get(hash, name, session);
+        if(cached != null)
+        {
+            return cached;
+        }
+        File temp = File.createTempFile("upload", ".tmp", directory);
+        try
+        {
+            MessageDigest digest = newDigest();
+            OutputStream out = new DigestOutputStream(new FileOutputStream(temp), digest);
+            try
+            {
+                IOUtils.copyLarge(content, out);
+            }
+            finally
+            {
+                out.close();
+            }
+            String actual = Hex.encodeHexString(digest.digest());
+            if(!actual.equalsIgnoreCase(hash))
+            {
+                throw new IOException(String.format("Uploaded content hash %s does not match %s", actual, hash));
+            }
+            return add(hash, name, session, temp);
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    private synchronized File add(final String hash, final String name, final String session, final File temp) throws IOException
+    {
+        File cached = get(hash, name, session);
+        if(cached != null)
+        {
+            return cached;
+        }
+        File folder = new File(directory, hash.toLowerCase());
+        FileUtils.forceMkdir(folder);
+        File file = new File(folder, getFileName(hash, name));
+        FileUtils.moveFile(temp, file);
+        files.put(hash, file);
+        size += file.length();
+        pin(hash, session);
+        evict(hash);
+        return file;
+    }
+
+    /**
+     * Unpins the files handed to a session and evicts those no longer needed.
+     * @param session String session that no longer uses its files
+     */
+    public synchronized void release(final String session)
+    {
+        if(pins.remove(session) != null)
+        {
+            evict(null);
+        }
+    }
+
+    /**
+     * @param hash String sha-256 of the content
+     * @return boolean true if a session holds a pin on the content
+     */
+    public synchronized boolean isPinned(final String hash)
+    {
+        for(Pins pin : pins.values())
+        {
+            if(pin.hashes.contains(hash))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void pin(final String hash, final String session)
+    {
+        if(session == null)
+        {
+            return;
+        }
+        Pins pin = pins.get(session);
+        if(pin == null)
+        {
+            pin = new Pins();
+            pins.put(session, pin);
+        }
+        pin.hashes.add(hash);
+        pin.used = System.currentTimeMillis();
+    }
+
+    /**
+     * Gives the content the requested name next to the file it was stored as.
+     */
+    private File named(final File file, final String hash, final String name) throws IOException
+    {
+        if(name == null)
+        {
+            return file;
+        }
+        File named = new File(file.getParentFile(), getFileName(hash, name));
+        if(!named.isFile())
+        {
+            try
+            {
+                Files.createLink(named.toPath(), file.toPath());
+            }
+            catch (IOException e)
+            {
+                FileUtils.copyFile(file, named);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                FileUtils.copyFile(file, named);
+            }
+        }
+        return named;
+    }
+
+    private static String getFileName(final String hash, final String name)
+    {
+        String fileName = name == null ? "" : new File(name).getName();
+        return fileName.isEmpty() ? hash : fileName;
+    }
+
+    /**
+     * Removes least recently used files that are not pinned until the cache fits its maximum
+     * size, the file just added is kept even if it is larger than the cache.
+     * @param kept String hash of the file just added, null if none
+     */
+    private void evict(final String kept)
+    {
+        if(size <= maxSize)
+        {
+            return;
+        }
+        Set<String> pinned = getPinnedHashes();
+        Iterator<Map.Entry<String, File>> entries = files.entrySet().iterator();
+        while(size > maxSize && entries.hasNext())
+        {
+            Map.Entry<String, File> eldest = entries.next();
+            if(eldest.getKey().equals(kept) || pinned.contains(eldest.getKey()))
+            {
+                continue;
+            }
+            entries.remove();
+            delete(eldest.getValue());
+            logger.debug(String.format("Evicted upload %s", eldest.getKey()));
+        }
+    }
+
+    /**
+     * @return Set of the hashes pinned by sessions used within the pin timeout,
+     * the pins of other sessions are dropped
+     */
+    private Set<String> getPinnedHashes()
+    {
+        long expired = System.currentTimeMillis() - pinTimeout;
+        Set<String> pinned = new HashSet<String>();
+        Iterator<Map.Entry<String, Pins>> sessions = pins.entrySet().iterator();
+        while(sessions.hasNext())
+        {
+            Map.Entry<String, Pins> session = sessions.next();
+            if(session.getValue().used < expired)
+            {
+                sessions.remove();
+                logger.debug(String.format("Dropped upload pins of unused session %s", session.getKey()));
+            }
+            else
+            {
+                pinned.addAll(session.getValue().hashes);
+            }
+        }
+        return pinned;
+    }
+
+    private void remove(final String hash)
+    {
+        File file = files.remove(hash);
+        if(file != null)
+        {
+            delete(file);
+        }
+    }
+
+    private void delete(final File file)
+    {
+        size -= file.length();
+        FileUtils.deleteQuietly(file.getParentFile());
+    }
+
+    /**
+     * @return long number of bytes held
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return int number of files held
+     */
+    public synchronized int getCount()
+    {
+        return files.size();
+    }
+
+    /**
+     * @return File private directory holding the cached files
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Deletes the files held and the private directory created by this cache.
+     */
+    public synchronized void destroy()
+    {
+        files.clear();
+        pins.clear();
+        size = 0;
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * @param file File to hash
+     * @return String hex encoded sha-256 of the file content
+     * @throws IOException if the file can not be read
+     */
+    public static String hash(final File file) throws IOException
+    {
+        InputStream in = FileUtils.openInputStream(file);
+        try
+        {
+            return DigestUtils.sha256Hex(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Files handed to a session and when the session last asked for one.
+     */
+    private static class Pins
+    {
+        private final Set<String> hashes = new HashSet<String>();
+        private long used;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.util.EntityUtils;
+import org.openqa.selenium.remote.SessionId;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Client side of the {@link UploadCacheServlet}, uploads a file to the node
+ * running a session only if the node does not already hold its content.
+ * <p>The node of a session is found through the hub test session api. Files are
+ * hashed once per size and modification time. When the hub or the node does not
+ * support the cache the caller falls back to the standard upload. The node keeps the
+ * files of a session until the session is {@link #release(SessionId) released}.</p>
+ *
+ * @since 1.9
+ */
+public class UploadCacheClient
+{
+    private static final String SERVLET_PATH = "/extra/UploadCacheServlet/";
+    private static final String TEST_SESSION_API = "/grid/api/testsession?session=";
+    private static final String UNSUPPORTED = "";
+    private final Log logger = LogFactory.getLog(UploadCacheClient.class);
+    private final String hubUrl;
+    private final ConcurrentMap<String, String> nodes = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, FileHash> hashes = new ConcurrentHashMap<String, FileHash>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param gridUrl String url of the hub the sessions are started on
+     */
+    public UploadCacheClient(final String gridUrl)
+    {
+        try
+        {
+            URL url = new URL(gridUrl);
+            this.hubUrl = new URL(url.getProtocol(), url.getHost(), url.getPort(), "").toExternalForm();
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException(String.format("A valid grid url is required instead of given url: %s", gridUrl), e);
+        }
+    }
+
+    /**
+     * Makes the file available on the node running the session.
+     * @param session {@link SessionId} of the remote session
+     * @param file File local file
+     * @return String path of the file on the node, or null if the node has no upload cache
+     */
+    public String upload(final SessionId session, final File file)
+    {
+        String node = getNodeUrl(session.toString());
+        if(node == UNSUPPORTED)
+        {
+            return null;
+        }
+        try
+        {
+            //The name is part of the request as the node may hold the same content under another name
+            String url = node + SERVLET_PATH + getHash(file) + "?" + UploadCacheServlet.NAME_PARAMETER + "=" + URLEncoder.encode(file.getName(), "UTF-8")
+                    + "&" + getSessionParameter(session);
+            String path = execute(new HttpGet(url));
+            if(path != null)
+            {
+                hitCount.incrementAndGet();
+                return path;
+            }
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new FileEntity(file, ContentType.APPLICATION_OCTET_STREAM));
+            path = execute(post);
+            if(path != null)
+            {
+                missCount.incrementAndGet();
+            }
+            return path;
+        }
+        catch (IOException e)
+        {
+            logger.warn(String.format("Unable to use the upload cache of %s for %s", node, file), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return String path on the node for a 200 response, null for a 204
+     * @throws IOException if the node does not answer with either
+     */
+    private String execute(final HttpRequestBase request) throws IOException
+    {
+        try
+        {
+            CloseableHttpResponse response = GridHttpClient.getClient().execute(request);
+            try
+            {
+                int code = response.getStatusLine().getStatusCode();
+                String body = response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), "UTF-8");
+                if(code == Grid.RESPONSE_STATUS_200)
+                {
+                    return body;
+                }
+                if(code == 204)
+                {
+                    return null;
+                }
+                throw new IOException(String.format("Upload cache request %s failed with %d", request.getURI(), code));
+            }
+            finally
+            {
+                response.close();
+            }
+        }
+        finally
+        {
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Finds the node of the session through the hub, a session that is not on a hub
+     * or whose node has no upload cache is remembered as unsupported.
+     */
+    private String getNodeUrl(final String session)
+    {
+        String node = nodes.get(session);
+        if(node == null)
+        {
+            node = UNSUPPORTED;
+            HttpGet request = new HttpGet(hubUrl + TEST_SESSION_API + session);
+            try
+            {
+                CloseableHttpResponse response = GridHttpClient.getClient().execute(request);
+                try
+                {
+                    String body = EntityUtils.toString(response.getEntity(), "UTF-8");
+                    if(response.getStatusLine().getStatusCode() == Grid.RESPONSE_STATUS_200)
+                    {
+                        JsonElement proxyId = new JsonParser().parse(body).getAsJsonObject().get("proxyId");
+                        if(proxyId != null)
+                        {
+                            node = proxyId.getAsString();
+                        }
+                    }
+                }
+                finally
+                {
+                    response.close();
+                }
+            }
+            catch (IOException e)
+            {
+                logger.debug("Unable to find the node of session " + session, e);
+            }
+            catch (RuntimeException e)
+            {
+                logger.debug("Unable to find the node of session " + session, e);
+            }
+            finally
+            {
+                request.releaseConnection();
+            }
+            String existing = nodes.putIfAbsent(session, node);
+            if(existing != null)
+            {
+                node = existing;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Forgets the node of a finished session and lets the node evict the files uploaded for it.
+     * @param session {@link SessionId} of the remote session
+     */
+    public void release(final SessionId session)
+    {
+        String node = nodes.remove(session.toString());
+        if(node == null || node == UNSUPPORTED)
+        {
+            return;
+        }
+        try
+        {
+            execute(new HttpDelete(node + SERVLET_PATH + "?" + getSessionParameter(session)));
+        }
+        catch (IOException e)
+        {
+            logger.debug(String.format("Unable to release the uploads of session %s on %s", session, node), e);
+        }
+    }
+
+    private static String getSessionParameter(final SessionId session) throws IOException
+    {
+        return UploadCacheServlet.SESSION_PARAMETER + "=" + URLEncoder.encode(session.toString(), "UTF-8");
+    }
+
+    private String getHash(final File file) throws IOException
+    {
+        String key = file.getAbsolutePath();
+        FileHash hash = hashes.get(key);
+        if(hash == null || hash.length != file.length() || hash.lastModified != file.lastModified())
+        {
+            hash = new FileHash(file.length(), file.lastModified(), UploadCache.hash(file));
+            hashes.put(key, hash);
+        }
+        return hash.hash;
+    }
+
+    /**
+     * @return long number of uploads the node already held
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * @return long number of uploads sent to the node
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    private static class FileHash
+    {
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+
+        FileHash(final long length, final long lastModified, final String hash)
+        {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Node servlet giving access to the {@link UploadCache}, registered on the node with
+ * <code>grid.servlets=org.alfresco.grid.UploadCacheServlet</code> and served under
+ * <code>/extra/UploadCacheServlet/&lt;sha-256&gt;</code>.
+ * <ul>
+ * <li>GET answers 200 with the local path of the cached content under the <code>name</code> parameter,
+ * or 204 if it is not held.</li>
+ * <li>POST stores the request body under the <code>name</code> parameter and answers 200 with its local path.</li>
+ * <li>DELETE, without a hash, releases the files pinned for the <code>session</code> parameter and answers 204.</li>
+ * </ul>
+ * <p>Files returned by GET or POST with a <code>session</code> parameter stay pinned, and are not
+ * evicted, until the session is released.</p>
+ *
+ * @since 1.9
+ */
+public class UploadCacheServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+    public static final String NAME_PARAMETER = "name";
+    public static final String SESSION_PARAMETER = "session";
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        String hash = getHash(request, response);
+        if(hash == null)
+        {
+            return;
+        }
+        File file = UploadCache.getInstance().get(hash, request.getParameter(NAME_PARAMETER),
+                request.getParameter(SESSION_PARAMETER));
+        if(file == null)
+        {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+        write(response, file);
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        String hash = getHash(request, response);
+        if(hash == null)
+        {
+            return;
+        }
+        String name = request.getParameter(NAME_PARAMETER);
+        try
+        {
+            write(response, UploadCache.getInstance().put(hash, name == null ? hash : name,
+                    request.getParameter(SESSION_PARAMETER), request.getInputStream()));
+        }
+        catch (IOException e)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @Override
+    protected void doDelete(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        String session = request.getParameter(SESSION_PARAMETER);
+        if(session == null || session.isEmpty())
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A session is required");
+            return;
+        }
+        UploadCache.getInstance().release(session);
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    private String getHash(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        String path = request.getPathInfo();
+        String hash = path == null ? "" : path.replace("/", "");
+        if(!hash.matches("[0-9a-fA-F]{64}"))
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A sha-256 content hash is required");
+            return null;
+        }
+        return hash;
+    }
+
+    private void write(final HttpServletResponse response, final File file) throws IOException
+    {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.net.URL;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.FileDetector;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.RemoteWebElement;
+import org.openqa.selenium.remote.UselessFileDetector;
+import org.openqa.selenium.remote.internal.JsonToWebElementConverter;
+
+/**
+ * {@link RemoteWebDriver} whose elements send local files through the {@link UploadCacheClient}
+ * instead of uploading them with every <code>sendKeys</code>.
+ *
+ * @since 1.9
+ */
+public class UploadCachingRemoteWebDriver extends RemoteWebDriver
+{
+    private final UploadCacheClient uploadCache;
+
+    public UploadCachingRemoteWebDriver(final URL remoteAddress, final Capabilities desiredCapabilities, final UploadCacheClient uploadCache)
+    {
+        this(new HttpCommandExecutor(remoteAddress), desiredCapabilities, uploadCache);
+    }
+
+    public UploadCachingRemoteWebDriver(final CommandExecutor executor, final Capabilities desiredCapabilities, final UploadCacheClient uploadCache)
+    {
+        super(executor, desiredCapabilities);
+        this.uploadCache = uploadCache;
+        setElementConverter(new JsonToWebElementConverter(this)
+        {
+            @Override
+            protected RemoteWebElement newRemoteWebElement()
+            {
+                RemoteWebElement element = new UploadCachingWebElement();
+                element.setParent(UploadCachingRemoteWebDriver.this);
+                return element;
+            }
+        });
+    }
+
+    @Override
+    public void quit()
+    {
+        if(getSessionId() != null)
+        {
+            uploadCache.release(getSessionId());
+        }
+        super.quit();
+    }
+
+    /**
+     * Element that replaces a local file path by the path of the cached copy on the node.
+     */
+    private class UploadCachingWebElement extends RemoteWebElement
+    {
+        @Override
+        public void sendKeys(CharSequence... keysToSend)
+        {
+            File localFile = fileDetector.getLocalFile(keysToSend);
+            String remotePath = localFile == null ? null : uploadCache.upload(getSessionId(), localFile);
+            if(remotePath == null)
+            {
+                super.sendKeys(keysToSend);
+                return;
+            }
+            //The node path may exist locally when the node runs on this machine, it must not be uploaded again
+            FileDetector detector = fileDetector;
+            fileDetector = new UselessFileDetector();
+            try
+            {
+                super.sendKeys(remotePath);
+            }
+            finally
+            {
+                fileDetector = detector;
+            }
+        }
+    }
+}
@@ -18,15 +18,35 @@
  */
 package org.alfresco.grid;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.alfresco.po.Browser;
 import org.alfresco.po.BrowserPreference;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
@@ -37,10 +57,14 @@ import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.CommandInfo;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.LocalFileDetector;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.safari.SafariDriver;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.annotation.Value;
 /**
@@ -51,16 +75,41 @@ import org.springframework.beans.factory.annotation.Value;
  * <p>This factory is able to create instances of the {@link WebDriver}
  * however it is unable to destroy the beans and is up to deveopler to ensure that instance of
  * WebDrone are destroyed once finished.</p>
+ * <p>Sessions that are expensive to start can instead be borrowed from a pool with
+ * {@link #borrowObject(Browser)} and handed back with {@link #returnObject(WebDriver)},
+ * the pool is closed when the factory is destroyed.</p>
+ * <p>Sessions can also be started without blocking the caller with {@link #getObjectAsync(Browser)}
+ * or in bulk with {@link #getObjects(Browser, int)}. At most <code>maxConcurrentSessions</code> sessions
+ * are started at the same time, by default as many as the grid has slots.</p>
+ * <p>Session creation latency and failures are recorded per browser, see {@link #getMetrics()}.</p>
+ * <p>With <code>admissionControl</code> remote sessions are only requested once the grid has a free
+ * slot for them, see {@link SessionAdmissionController}. It is off by default, turn it on with
+ * <code>webdriver.admission.control=true</code> when more sessions are asked for than the grid has slots.</p>
+ * <p>With <code>uploadCache</code> files typed into remote file inputs are uploaded once per node
+ * and content, see {@link UploadCacheClient}.</p>
+ * <p>Screenshots taken with {@link #takeScreenshot(WebDriver, String)} are written in the background.</p>
+ * <p>With <code>coalesceCommands</code> remote drivers are wrapped in a {@link CoalescingWebDriver}
+ * so that page objects can read several elements in one round trip.</p>
+ * <p>With <code>cacheElements</code> remote drivers are wrapped in a {@link CachingWebDriver}
+ * that answers repeated lookups on an unchanged page without a round trip. When both are set
+ * the caching driver wraps the coalescing one, use {@link CoalescingWebDriver#batch(WebDriver)}.</p>
+ * <p>All remote sessions of a factory talk to the grid through one keep-alive connection pool,
+ * see {@link SharedHttpClientFactory}.</p>
+ * <p>With <code>streamResponses</code> remote drivers read the responses of the grid as they arrive,
+ * see {@link StreamingCommandExecutor}.</p>
  * 
  * @author Michaek Suzuki
  * @author Shan Nagarajan
  * @since 1.0
  */
-public class WebDriverFactory implements FactoryBean<WebDriver>
+public class WebDriverFactory implements FactoryBean<WebDriver>, DisposableBean
 {
     private static final String CHROME_SERVER_DRIVER_PATH = "webdriver.chrome.driver";
     private static final String SAFARI_SERVER_DRIVER_PATH = "webdriver.safari.driver";
     private static final String IE_SERVER_DRIVER_PATH = "webdriver.ie.driver";
+    private static final int SESSION_THREAD_TIMEOUT = 30;
+    private static final long SCREENSHOT_CLOSE_TIMEOUT = 10000;
+    private final Log logger = LogFactory.getLog(WebDriverFactory.class);
     private String gridUrl;
     private String chromeServerPath;
     private String safariServerPath;
@@ -70,7 +119,68 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
     @Value("${webdriver.language}") String language;
     @Value("${webdriver.locale}") String locale;
     private Map<BrowserPreference, Object> preferences;
+    private int poolMinIdle = 0;
+    private int poolMaxSize = 8;
+    private long poolMaxWait = 60000;
+    private int poolMaxUses = 0;
+    private WebDriverPool pool;
+    private final FirefoxProfileCache profileCache = new FirefoxProfileCache();
+    private int maxConcurrentSessions = 0;
+    private ThreadPoolExecutor sessionExecutor;
+    private boolean admissionControl = false;
+    private long admissionMaxWait = 300000;
+    private long admissionPollInterval = 500;
+    private SessionAdmissionController admissionController;
+    private boolean uploadCache = false;
+    private UploadCacheClient uploadCacheClient;
+    private String screenshotDirectory = "target/screenshots";
+    private int screenshotQueueSize = 64;
+    private long screenshotOfferTimeout = 5000;
+    private ScreenshotService screenshotService;
+    private boolean coalesceCommands = false;
+    private boolean cacheElements = false;
+    private int httpMaxConnections = 200;
+    private int httpMaxConnectionsPerRoute = 200;
+    private int httpConnectTimeout = 120000;
+    private int httpSocketTimeout = 10800000;
+    private long httpIdleTimeout = 30000;
+    private int httpGzipMinSize = 0;
+    private boolean streamResponses = false;
+    private SharedHttpClientFactory httpClientFactory;
+    private final Map<WebDriver, File> downloadDirectories = Collections.synchronizedMap(new WeakHashMap<WebDriver, File>());
+    private final SessionMetricsRegistry metrics = new SessionMetricsRegistry();
+    /**
+     * Creates a new session and records how long it took and whether it failed.
+     * @param browser {@link Browser} type of session
+     * @return {@link WebDriver} instance
+     */
     public WebDriver getObject(Browser browser)
+    {
+        if(browser == null)
+        {
+            throw new IllegalArgumentException("Browser type is required");
+        }
+        SessionMetrics browserMetrics = metrics.get(browser);
+        long start = browserMetrics.start();
+        try
+        {
+            WebDriver driver = createObject(browser);
+            browserMetrics.success(start);
+            return driver;
+        }
+        catch (RuntimeException e)
+        {
+            browserMetrics.failure(start);
+            throw e;
+        }
+        catch (Error e)
+        {
+            browserMetrics.failure(start);
+            throw e;
+        }
+    }
+
+    private WebDriver createObject(Browser browser)
     {
         switch (browser)
         {
@@ -88,12 +198,8 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
                 DesiredCapabilities capabilities = new DesiredCapabilities();
                 capabilities.setBrowserName(BrowserType.FIREFOX);
                 capabilities.setJavascriptEnabled(true);
-                FirefoxProfile profile = createProfile();
-                //The below two preferences added to disable the firefox auto update
-                profile.setPreference("app.update.auto", false);
-                profile.setPreference("app.update.enabled", false);
-                profile.setEnableNativeEvents(true);
-                capabilities.setCapability(FirefoxDriver.PROFILE, profile);
+                //The encoded profile is sent as is, so it is only built once per preference set
+                capabilities.setCapability(FirefoxDriver.PROFILE, profileCache.getEncoded(getProfilePreferences(null, false)));
                 return getRemoteDriver(capabilities);
             case RemoteChrome:
                 DesiredCapabilities chromeCapabilities = DesiredCapabilities.chrome();
@@ -113,9 +219,10 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
     }
     /**
      * Create a basic fire fox profile.
+     * @param downloadDir String directory downloads are saved to without asking, null for the browser default
      * @return {@link FirefoxProfile}
      */
-    private FirefoxProfile createProfile(String ... profile)
+    FirefoxProfile createProfile(String downloadDir, String ... profile)
     {
         FirefoxProfile firefoxProfile = null;
         if(profile.length > 0)
@@ -125,64 +232,160 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
             {
                 throw new RuntimeException("The following profile: %s can not be found");
             }
+            FirefoxProfileCache.apply(firefoxProfile, getProfilePreferences(downloadDir, true));
         }
         else
         {
-            firefoxProfile = new FirefoxProfile();
+            firefoxProfile = FirefoxProfileCache.build(getProfilePreferences(downloadDir, true));
         }
-        //Change default retry timeout of 30 minutes to 2 minutes
-        firefoxProfile.setPreference("dom.mms.retrievalRetryIntervals;", "60000,120000");
-        //Set it to not store session history, reduced memory foot print.
-        firefoxProfile.setPreference("browser.sessionhistory.max_total_viewers;","0");
-        firefoxProfile.setPreference("intl.accept_languages", language);
-        firefoxProfile.setPreference("general.useragent.locale", locale);
         return firefoxProfile;
     }
+
     /**
-     * Creates a new instance of an {@link FirefoxDriver} 
-     * @param boolean with a specific profile or false for default FireFox
-     * @return {@link DesiredCapabilities} type of browser capability 
-     * @throws UnsupportedOperationException if grid url is invalid
+     * Collects the effective fire fox preferences, the result identifies
+     * a profile in the {@link FirefoxProfileCache}.
+     * @param downloadDir String directory downloads are saved to without asking, null for the browser default
+     * @param browserPreferences boolean true to add the configured {@link BrowserPreference} values
+     * @return Map of preference keys and values
      */
-    private FirefoxDriver getFireFox(boolean customProfile)
+    private Map<String, Object> getProfilePreferences(String downloadDir, boolean browserPreferences)
     {
-        DesiredCapabilities capabilities = DesiredCapabilities.firefox();
-        FirefoxProfile firefoxProfile = createProfile();
+        Map<String, Object> profilePreferences = new TreeMap<String, Object>();
+        //Change default retry timeout of 30 minutes to 2 minutes
+        profilePreferences.put("dom.mms.retrievalRetryIntervals;", "60000,120000");
+        //Set it to not store session history, reduced memory foot print.
+        profilePreferences.put("browser.sessionhistory.max_total_viewers;","0");
+        profilePreferences.put("intl.accept_languages", language);
+        profilePreferences.put("general.useragent.locale", locale);
         //The below two preferences added to disable the firefox auto update
-        firefoxProfile.setPreference("app.update.auto", false);
-        firefoxProfile.setPreference("app.update.enabled", false);
-        firefoxProfile.setEnableNativeEvents(true);
-        if(customProfile)
+        profilePreferences.put("app.update.auto", false);
+        profilePreferences.put("app.update.enabled", false);
+        if(downloadDir != null)
         {
-            firefoxProfile.setPreference("browser.download.folderList", 2);
-            firefoxProfile.setPreference("browser.download.dir", downloadDirectory);
-            firefoxProfile.setPreference("browser.helperApps.neverAsk.saveToDisk", mimeTypes);
-            
+            profilePreferences.put("browser.download.folderList", 2);
+            profilePreferences.put("browser.download.dir", downloadDir);
+            profilePreferences.put("browser.helperApps.neverAsk.saveToDisk", mimeTypes);
         }
-        if(preferences != null && preferences.size() > 0)
+        if(browserPreferences && preferences != null && preferences.size() > 0)
         {
             Set<BrowserPreference> preferenceSet = preferences.keySet();
             for (BrowserPreference browserPreference : preferenceSet)
             {
                 if(BrowserPreference.Language.equals(browserPreference))
                 {
-                    firefoxProfile.setPreference(browserPreference.getFireFoxKey(), formatLocale((Locale)preferences.get(browserPreference)));
+                    profilePreferences.put(browserPreference.getFireFoxKey(), formatLocale((Locale)preferences.get(browserPreference)));
                 }
                 else
                 {   
                     if (BrowserPreference.DownloadFolderList.equals(browserPreference))
                     {
-                        firefoxProfile.setPreference(browserPreference.getFireFoxKey(), Integer.valueOf((String)preferences.get(browserPreference)));
+                        profilePreferences.put(browserPreference.getFireFoxKey(), Integer.valueOf((String)preferences.get(browserPreference)));
                     } 
                     else
                     {
-                        firefoxProfile.setPreference(browserPreference.getFireFoxKey(), (String)preferences.get(browserPreference));
+                        profilePreferences.put(browserPreference.getFireFoxKey(), (String)preferences.get(browserPreference));
                     }
                 }
             }
         }
+        return profilePreferences;
+    }
+
+    /**
+     * Creates a new instance of an {@link FirefoxDriver} 
+     * @param boolean true to save downloads to a directory of its own, false for default FireFox
+     * @return {@link DesiredCapabilities} type of browser capability 
+     * @throws UnsupportedOperationException if grid url is invalid
+     */
+    private FirefoxDriver getFireFox(boolean customProfile)
+    {
+        DesiredCapabilities capabilities = DesiredCapabilities.firefox();
+        //Every session downloads to its own directory so parallel sessions do not see each other's files
+        File downloadDir = customProfile ? createDownloadDirectory() : null;
+        //A local driver lays out and updates its own copy of the profile, so it is not shared
+        FirefoxProfile firefoxProfile = createProfile(downloadDir == null ? null : downloadDir.getAbsolutePath());
         capabilities.setCapability(FirefoxDriver.PROFILE, firefoxProfile);
-        return new FirefoxDriver(capabilities);
+        if(downloadDir == null)
+        {
+            return new FirefoxDriver(capabilities);
+        }
+        FirefoxDriver driver = new FirefoxDriver(capabilities)
+        {
+            @Override
+            public void quit()
+            {
+                try
+                {
+                    super.quit();
+                }
+                finally
+                {
+                    deleteDownloadDirectory(this);
+                }
+            }
+        };
+        downloadDirectories.put(driver, downloadDir);
+        return driver;
+    }
+
+    /**
+     * Creates a new uniquely named directory under the configured download directory.
+     * @return File new directory
+     */
+    private File createDownloadDirectory()
+    {
+        if(downloadDirectory == null || downloadDirectory.isEmpty())
+        {
+            throw new UnsupportedOperationException("Download directory is required");
+        }
+        File dir = new File(downloadDirectory, UUID.randomUUID().toString());
+        if(!dir.mkdirs())
+        {
+            throw new RuntimeException(String.format("Unable to create download directory %s", dir));
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes the download directory of a session that has quit.
+     * @param driver {@link WebDriver} created for {@link Browser#FireFoxDownloadToDir}
+     */
+    private void deleteDownloadDirectory(WebDriver driver)
+    {
+        File dir = downloadDirectories.remove(driver);
+        if(dir != null)
+        {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * The directory and its downloads are deleted when the session quits or the factory is destroyed.
+     * @param driver {@link WebDriver} created for {@link Browser#FireFoxDownloadToDir}
+     * @return File directory the session saves its downloads to
+     * @throws IllegalArgumentException if the session does not download to a directory of its own
+     */
+    public File getDownloadDirectory(WebDriver driver)
+    {
+        File dir = downloadDirectories.get(driver);
+        if(dir == null)
+        {
+            throw new IllegalArgumentException("WebDriver does not have a download directory");
+        }
+        return dir;
+    }
+
+    /**
+     * Waits for a download of the session to complete, without polling the directory.
+     * @param driver {@link WebDriver} created for {@link Browser#FireFoxDownloadToDir}
+     * @param fileName String name of the downloaded file
+     * @param timeout long maximum time in milliseconds to wait
+     * @return File downloaded file
+     * @throws RuntimeException if the download did not complete within the timeout
+     */
+    public File waitForDownload(WebDriver driver, String fileName, long timeout)
+    {
+        return DownloadWatcher.waitForFile(getDownloadDirectory(driver), fileName, timeout);
     }
     
     /**
@@ -218,9 +421,28 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
             throw new UnsupportedOperationException(String.format("A valid grid url is required instead of given url: %s",gridUrl),e);
         }
         capability.setCapability(CapabilityType.TAKES_SCREENSHOT, true);
-        RemoteWebDriver remoteWebDriver = new RemoteWebDriver(url, capability);
-        remoteWebDriver.setFileDetector(new LocalFileDetector());
-        return remoteWebDriver;
+        SessionAdmissionController admission = getAdmissionController();
+        if(admission != null)
+        {
+            admission.acquire();
+        }
+        try
+        {
+            CommandExecutor executor = streamResponses ? new StreamingCommandExecutor(url, getHttpClientFactory())
+                                                       : new HttpCommandExecutor(Collections.<String, CommandInfo>emptyMap(), url, getHttpClientFactory());
+            RemoteWebDriver remoteWebDriver = uploadCache ? new UploadCachingRemoteWebDriver(executor, capability, getUploadCacheClient())
+                                                          : new RemoteWebDriver(executor, capability);
+            remoteWebDriver.setFileDetector(new LocalFileDetector());
+            WebDriver driver = coalesceCommands ? new CoalescingWebDriver(remoteWebDriver) : remoteWebDriver;
+            return cacheElements ? new CachingWebDriver(driver) : driver;
+        }
+        finally
+        {
+            if(admission != null)
+            {
+                admission.release();
+            }
+        }
     }
     
     /**
@@ -282,6 +504,400 @@ public class WebDriverFactory implements FactoryBean<WebDriver>
         return new InternetExplorerDriver(capabilities);
     }
     
+    /**
+     * Starts a new session on the session threads without blocking the caller.
+     * @param browser {@link Browser} type of session
+     * @return {@link CompletableFuture} completed with the {@link WebDriver} or exceptionally if it could not be started
+     */
+    public CompletableFuture<WebDriver> getObjectAsync(final Browser browser)
+    {
+        if(browser == null)
+        {
+            throw new IllegalArgumentException("Browser type is required");
+        }
+        return CompletableFuture.supplyAsync(new Supplier<WebDriver>()
+        {
+            public WebDriver get()
+            {
+                return getObject(browser);
+            }
+        }, getSessionExecutor());
+    }
+
+    /**
+     * Starts a number of sessions concurrently and waits for all of them.
+     * If any session fails to start the others are quit.
+     * @param browser {@link Browser} type of session
+     * @param count int number of sessions
+     * @return List of started {@link WebDriver}
+     * @throws RuntimeException if a session could not be started
+     */
+    public List<WebDriver> getObjects(final Browser browser, final int count)
+    {
+        if(count < 1)
+        {
+            throw new IllegalArgumentException("At least one session is required");
+        }
+        List<CompletableFuture<WebDriver>> futures = new ArrayList<CompletableFuture<WebDriver>>(count);
+        for (int i = 0; i < count; i++)
+        {
+            futures.add(getObjectAsync(browser));
+        }
+        List<WebDriver> drivers = new ArrayList<WebDriver>(count);
+        RuntimeException failure = null;
+        for (CompletableFuture<WebDriver> future : futures)
+        {
+            try
+            {
+                drivers.add(future.join());
+            }
+            catch (CompletionException e)
+            {
+                if(failure == null)
+                {
+                    failure = new RuntimeException(String.format("Unable to start %d %s sessions", count, browser), e.getCause());
+                }
+            }
+        }
+        if(failure != null)
+        {
+            for (WebDriver driver : drivers)
+            {
+                quitQuietly(driver);
+            }
+            throw failure;
+        }
+        return drivers;
+    }
+
+    /**
+     * @return int number of sessions that are started at the same time
+     */
+    public synchronized int getSessionConcurrency()
+    {
+        return getSessionExecutor().getMaximumPoolSize();
+    }
+
+    /**
+     * Lazily creates the bounded session threads, sized to the configured maximum
+     * or else to the number of slots of the grid.
+     */
+    private synchronized ThreadPoolExecutor getSessionExecutor()
+    {
+        if(sessionExecutor == null)
+        {
+            int limit = maxConcurrentSessions > 0 ? maxConcurrentSessions : getGridCapacity();
+            sessionExecutor = new ThreadPoolExecutor(limit, limit, SESSION_THREAD_TIMEOUT, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                    {
+                        private final AtomicInteger count = new AtomicInteger();
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "webdriver-session-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sessionExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sessionExecutor;
+    }
+
+    /**
+     * @return int total slots of the grid, or the number of processors if the grid can not be reached
+     */
+    private int getGridCapacity()
+    {
+        if(gridUrl != null && !gridUrl.isEmpty())
+        {
+            try
+            {
+                int slots = HubStatus.fetch(gridUrl).getTotalSlots();
+                if(slots > 0)
+                {
+                    return slots;
+                }
+            }
+            catch (IOException e)
+            {
+                logger.debug("Unable to read the grid capacity", e);
+            }
+            catch (IllegalArgumentException e)
+            {
+                logger.debug("Unable to read the grid capacity", e);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private void quitQuietly(WebDriver driver)
+    {
+        try
+        {
+            driver.quit();
+        }
+        catch (RuntimeException e)
+        {
+            logger.debug("Problem quitting session", e);
+        }
+    }
+
+    /**
+     * Lazily creates the admission controller for the grid.
+     * @return {@link SessionAdmissionController} or null if admission control is disabled
+     */
+    private synchronized SessionAdmissionController getAdmissionController()
+    {
+        if(admissionControl && admissionController == null)
+        {
+            admissionController = new SessionAdmissionController(gridUrl, admissionPollInterval, admissionMaxWait);
+        }
+        return admissionController;
+    }
+
+    /**
+     * @return {@link SharedHttpClientFactory} connection pool shared by the remote sessions of this factory
+     */
+    public synchronized SharedHttpClientFactory getHttpClientFactory()
+    {
+        if(httpClientFactory == null)
+        {
+            httpClientFactory = new SharedHttpClientFactory(httpMaxConnections, httpMaxConnectionsPerRoute,
+                    httpConnectTimeout, httpSocketTimeout, httpIdleTimeout, httpGzipMinSize);
+        }
+        return httpClientFactory;
+    }
+
+    /**
+     * @return {@link UploadCacheClient} shared by the remote sessions of this factory
+     */
+    public synchronized UploadCacheClient getUploadCacheClient()
+    {
+        if(uploadCacheClient == null)
+        {
+            uploadCacheClient = new UploadCacheClient(gridUrl);
+        }
+        return uploadCacheClient;
+    }
+
+    /**
+     * Takes a screenshot and writes it in the background, the calling thread
+     * only waits for the browser to return the image.
+     * @param driver {@link WebDriver} created by this factory
+     * @param name String file name without extension
+     * @return {@link CompletableFuture} completed with the written file
+     */
+    public CompletableFuture<File> takeScreenshot(WebDriver driver, String name)
+    {
+        return getScreenshotService().capture(driver, name);
+    }
+
+    /**
+     * @return {@link ScreenshotService} writing the screenshots of this factory
+     */
+    public synchronized ScreenshotService getScreenshotService()
+    {
+        if(screenshotService == null)
+        {
+            screenshotService = new ScreenshotService(new File(screenshotDirectory), screenshotQueueSize, screenshotOfferTimeout);
+        }
+        return screenshotService;
+    }
+
+    /**
+     * @return {@link SessionMetricsRegistry} session creation metrics, also published over jmx
+     */
+    public SessionMetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Borrows a started session from the pool, the session must be given back
+     * with {@link #returnObject(WebDriver)} instead of being quit.
+     * @param browser {@link Browser} type of session
+     * @return {@link WebDriver} instance
+     */
+    public WebDriver borrowObject(Browser browser)
+    {
+        return getPool().borrow(browser);
+    }
+
+    /**
+     * Gives a borrowed session back to the pool to be reset and reused.
+     * @param driver {@link WebDriver} obtained from {@link #borrowObject(Browser)}
+     */
+    public void returnObject(WebDriver driver)
+    {
+        getPool().release(driver);
+    }
+
+    /**
+     * Lazily creates the session pool from the configured pool settings. Idle sessions
+     * of a browser are only started once it has been borrowed, use
+     * {@link WebDriverPool#warmUp(Browser)} to start them ahead of the first test.
+     * The recycle count of the pool is published over jmx with the session metrics.
+     * @return {@link WebDriverPool} pool
+     */
+    public synchronized WebDriverPool getPool()
+    {
+        if(pool == null)
+        {
+            pool = new WebDriverPool(this, poolMinIdle, poolMaxSize, poolMaxWait, poolMaxUses);
+            metrics.register(pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Quits all idle pooled sessions, stops the session threads, writes the pending
+     * screenshots, closes the connections to the grid, removes the metrics MBeans and
+     * deletes the download directories of sessions that were not quit.
+     */
+    public synchronized void destroy()
+    {
+        if(pool != null)
+        {
+            pool.close();
+            pool = null;
+        }
+        if(sessionExecutor != null)
+        {
+            sessionExecutor.shutdown();
+            sessionExecutor = null;
+        }
+        if(screenshotService != null)
+        {
+            screenshotService.close(SCREENSHOT_CLOSE_TIMEOUT);
+            screenshotService = null;
+        }
+        if(httpClientFactory != null)
+        {
+            httpClientFactory.close();
+            httpClientFactory = null;
+        }
+        metrics.close();
+        synchronized (downloadDirectories)
+        {
+            for (File dir : downloadDirectories.values())
+            {
+                FileUtils.deleteQuietly(dir);
+            }
+            downloadDirectories.clear();
+        }
+    }
+
+    public void setPoolMinIdle(int poolMinIdle)
+    {
+        this.poolMinIdle = poolMinIdle;
+    }
+
+    public void setPoolMaxSize(int poolMaxSize)
+    {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public void setPoolMaxWait(long poolMaxWait)
+    {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    public void setPoolMaxUses(int poolMaxUses)
+    {
+        this.poolMaxUses = poolMaxUses;
+    }
+
+    /**
+     * @param maxConcurrentSessions int sessions started at the same time, 0 to use the grid capacity
+     */
+    public void setMaxConcurrentSessions(int maxConcurrentSessions)
+    {
+        this.maxConcurrentSessions = maxConcurrentSessions;
+    }
+
+    /**
+     * @param admissionControl boolean true to wait for a free grid slot before requesting a remote session
+     */
+    public void setAdmissionControl(boolean admissionControl)
+    {
+        this.admissionControl = admissionControl;
+    }
+
+    public void setAdmissionMaxWait(long admissionMaxWait)
+    {
+        this.admissionMaxWait = admissionMaxWait;
+    }
+
+    public void setAdmissionPollInterval(long admissionPollInterval)
+    {
+        this.admissionPollInterval = admissionPollInterval;
+    }
+
+    public void setUploadCache(boolean uploadCache)
+    {
+        this.uploadCache = uploadCache;
+    }
+
+    public void setScreenshotDirectory(String screenshotDirectory)
+    {
+        this.screenshotDirectory = screenshotDirectory;
+    }
+
+    public void setScreenshotQueueSize(int screenshotQueueSize)
+    {
+        this.screenshotQueueSize = screenshotQueueSize;
+    }
+
+    public void setScreenshotOfferTimeout(long screenshotOfferTimeout)
+    {
+        this.screenshotOfferTimeout = screenshotOfferTimeout;
+    }
+
+    public void setCoalesceCommands(boolean coalesceCommands)
+    {
+        this.coalesceCommands = coalesceCommands;
+    }
+
+    public void setCacheElements(boolean cacheElements)
+    {
+        this.cacheElements = cacheElements;
+    }
+
+    public void setHttpMaxConnections(int httpMaxConnections)
+    {
+        this.httpMaxConnections = httpMaxConnections;
+    }
+
+    public void setHttpMaxConnectionsPerRoute(int httpMaxConnectionsPerRoute)
+    {
+        this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute;
+    }
+
+    public void setHttpConnectTimeout(int httpConnectTimeout)
+    {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    public void setHttpSocketTimeout(int httpSocketTimeout)
+    {
+        this.httpSocketTimeout = httpSocketTimeout;
+    }
+
+    public void setHttpIdleTimeout(long httpIdleTimeout)
+    {
+        this.httpIdleTimeout = httpIdleTimeout;
+    }
+
+    public void setHttpGzipMinSize(int httpGzipMinSize)
+    {
+        this.httpGzipMinSize = httpGzipMinSize;
+    }
+
+    public void setStreamResponses(boolean streamResponses)
+    {
+        this.streamResponses = streamResponses;
+    }
+
     public String getGridUrl()
     {
         return gridUrl;
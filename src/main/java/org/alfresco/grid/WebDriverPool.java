@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.po.Browser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Pool of started {@link WebDriver} sessions keyed by {@link Browser}.
+ * <p>Starting a browser, and for remote browsers the grid new session handshake,
+ * is the most expensive part of a test. The pool keeps finished sessions open,
+ * resets them on return and hands them out again instead of quitting them.
+ * Each browser type holds at most <code>maxSize</code> live sessions and is topped up
+ * in the background to <code>minIdle</code> idle sessions. The pool does not know which
+ * browsers will be asked for, so a browser is only topped up once it has been borrowed;
+ * call {@link #warmUp(Browser)} to have its idle sessions ready for the first borrow.
+ * An idle session is checked before it is handed out, one whose browser has died or whose
+ * grid session has timed out is quit and replaced.
+ * A browser that has served <code>maxUses</code> sessions is quit on return instead of
+ * being kept, so that a long run does not accumulate the memory a browser leaks over time.</p>
+ *
+ * @since 1.9
+ */
+public class WebDriverPool implements WebDriverPoolMBean
+{
+    private static final String BLANK_PAGE = "about:blank";
+    private static final long POLL_INTERVAL = 100;
+    private final Log logger = LogFactory.getLog(WebDriverPool.class);
+    private final WebDriverFactory factory;
+    private final int minIdle;
+    private final int maxSize;
+    private final long maxWait;
+    private final int maxUses;
+    private final ConcurrentMap<Browser, BrowserPool> pools = new ConcurrentHashMap<Browser, BrowserPool>();
+    private final Map<WebDriver, Browser> borrowed = new ConcurrentHashMap<WebDriver, Browser>();
+    private final Map<WebDriver, Integer> uses = new ConcurrentHashMap<WebDriver, Integer>();
+    private final AtomicLong recycled = new AtomicLong();
+    private final ExecutorService warmer;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param factory {@link WebDriverFactory} used to start new sessions
+     * @param minIdle int number of idle sessions kept ready per browser
+     * @param maxSize int maximum number of live sessions per browser
+     * @param maxWait long milliseconds to wait for a session when the pool is exhausted
+     */
+    public WebDriverPool(final WebDriverFactory factory, final int minIdle, final int maxSize, final long maxWait)
+    {
+        this(factory, minIdle, maxSize, maxWait, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param factory {@link WebDriverFactory} used to start new sessions
+     * @param minIdle int number of idle sessions kept ready per browser
+     * @param maxSize int maximum number of live sessions per browser
+     * @param maxWait long milliseconds to wait for a session when the pool is exhausted
+     * @param maxUses int number of times a session is handed out before it is quit, 0 for no limit
+     */
+    public WebDriverPool(final WebDriverFactory factory, final int minIdle, final int maxSize, final long maxWait, final int maxUses)
+    {
+        if(factory == null)
+        {
+            throw new IllegalArgumentException("WebDriverFactory is required");
+        }
+        if(maxSize < 1 || minIdle < 0 || minIdle > maxSize)
+        {
+            throw new IllegalArgumentException(String.format("Invalid pool size, min idle: %d max size: %d", minIdle, maxSize));
+        }
+        this.factory = factory;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.maxUses = Math.max(0, maxUses);
+        this.warmer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "webdriver-pool-warmer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Borrows a session from the pool, starting a new one if no idle session is available
+     * and the pool has not reached its maximum size.
+     * @param browser {@link Browser} type of session
+     * @return {@link WebDriver} ready to use
+     * @throws IllegalStateException if the pool is closed
+     * @throws RuntimeException if no session became available within the max wait time
+     */
+    public WebDriver borrow(final Browser browser)
+    {
+        if(browser == null)
+        {
+            throw new IllegalArgumentException("Browser type is required");
+        }
+        BrowserPool pool = getPool(browser);
+        long deadline = System.currentTimeMillis() + maxWait;
+        try
+        {
+            while(!closed)
+            {
+                WebDriver driver = pool.idle.pollFirst();
+                if(driver == null && pool.permits.tryAcquire())
+                {
+                    driver = create(pool);
+                }
+                else
+                {
+                    if(driver == null)
+                    {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if(remaining <= 0)
+                        {
+                            throw new RuntimeException(String.format("Timed out waiting %d ms for a %s session", maxWait, browser));
+                        }
+                        driver = pool.idle.pollFirst(Math.min(remaining, POLL_INTERVAL), TimeUnit.MILLISECONDS);
+                    }
+                    if(driver != null && !isAlive(driver))
+                    {
+                        destroy(pool, driver);
+                        continue;
+                    }
+                }
+                if(driver != null)
+                {
+                    borrowed.put(driver, browser);
+                    Integer count = uses.get(driver);
+                    uses.put(driver, count == null ? 1 : count + 1);
+                    fill(pool);
+                    return driver;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a session", e);
+        }
+        throw new IllegalStateException("WebDriver pool is closed");
+    }
+
+    /**
+     * Returns a borrowed session to the pool. The session is reset by deleting
+     * cookies, closing extra windows and navigating to a blank page; a session that
+     * fails to reset or has been used <code>maxUses</code> times is quit and its place in the pool freed.
+     * @param driver {@link WebDriver} previously obtained from {@link #borrow(Browser)}
+     */
+    public void release(final WebDriver driver)
+    {
+        if(driver == null)
+        {
+            return;
+        }
+        Browser browser = borrowed.remove(driver);
+        if(browser == null)
+        {
+            throw new IllegalArgumentException("WebDriver was not borrowed from this pool");
+        }
+        BrowserPool pool = getPool(browser);
+        if(!closed && isWornOut(driver))
+        {
+            recycled.incrementAndGet();
+            destroy(pool, driver);
+            fill(pool);
+            return;
+        }
+        if(closed || !reset(driver))
+        {
+            destroy(pool, driver);
+            return;
+        }
+        pool.idle.offerFirst(driver);
+    }
+
+    /**
+     * Starts sessions until the browser has <code>minIdle</code> idle sessions.
+     * @param browser {@link Browser} type of session
+     */
+    public void warmUp(final Browser browser)
+    {
+        BrowserPool pool = getPool(browser);
+        while(!closed && pool.idle.size() < minIdle && pool.permits.tryAcquire())
+        {
+            WebDriver driver = create(pool);
+            if(closed)
+            {
+                destroy(pool, driver);
+                return;
+            }
+            pool.idle.offerLast(driver);
+        }
+    }
+
+    /**
+     * Quits all idle sessions and stops handing out new ones.
+     * Borrowed sessions are quit when they are returned.
+     */
+    public void close()
+    {
+        closed = true;
+        warmer.shutdownNow();
+        for(BrowserPool pool : pools.values())
+        {
+            WebDriver driver;
+            while((driver = pool.idle.pollFirst()) != null)
+            {
+                destroy(pool, driver);
+            }
+        }
+    }
+
+    /**
+     * @param browser {@link Browser} type of session
+     * @return int number of idle sessions held for the browser
+     */
+    public int getIdleCount(final Browser browser)
+    {
+        BrowserPool pool = pools.get(browser);
+        return pool == null ? 0 : pool.idle.size();
+    }
+
+    /**
+     * @param browser {@link Browser} type of session
+     * @return int number of live sessions, idle and borrowed, for the browser
+     */
+    public int getSize(final Browser browser)
+    {
+        BrowserPool pool = pools.get(browser);
+        return pool == null ? 0 : maxSize - pool.permits.availablePermits();
+    }
+
+    /**
+     * @return long number of sessions quit because they reached the max uses
+     */
+    public long getRecycledCount()
+    {
+        return recycled.get();
+    }
+
+    private boolean isWornOut(final WebDriver driver)
+    {
+        Integer count = uses.get(driver);
+        return maxUses > 0 && count != null && count >= maxUses;
+    }
+
+    private BrowserPool getPool(final Browser browser)
+    {
+        BrowserPool pool = pools.get(browser);
+        if(pool == null)
+        {
+            pool = new BrowserPool(browser, maxSize);
+            BrowserPool existing = pools.putIfAbsent(browser, pool);
+            if(existing != null)
+            {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Starts a new session, the caller must hold a permit which is given back on failure.
+     */
+    private WebDriver create(final BrowserPool pool)
+    {
+        try
+        {
+            return factory.getObject(pool.browser);
+        }
+        catch (RuntimeException e)
+        {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Tops up idle sessions in the background so the next borrow does not wait for a browser to start.
+     */
+    private void fill(final BrowserPool pool)
+    {
+        if(closed || pool.idle.size() >= minIdle)
+        {
+            return;
+        }
+        warmer.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    warmUp(pool.browser);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error(String.format("Unable to pre-start %s session", pool.browser), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks that an idle session still answers, its browser may have died or
+     * the grid may have timed the session out while it was held.
+     */
+    private boolean isAlive(final WebDriver driver)
+    {
+        try
+        {
+            driver.getWindowHandle();
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Idle session no longer answers, it will be replaced", e);
+            return false;
+        }
+    }
+
+    private boolean reset(final WebDriver driver)
+    {
+        try
+        {
+            Set<String> handles = driver.getWindowHandles();
+            if(handles.size() > 1)
+            {
+                String current = driver.getWindowHandle();
+                for(String handle : handles)
+                {
+                    if(!handle.equals(current))
+                    {
+                        driver.switchTo().window(handle).close();
+                    }
+                }
+                driver.switchTo().window(current);
+            }
+            driver.manage().deleteAllCookies();
+            driver.get(BLANK_PAGE);
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Unable to reset session, it will be discarded", e);
+            return false;
+        }
+    }
+
+    private void destroy(final BrowserPool pool, final WebDriver driver)
+    {
+        uses.remove(driver);
+        try
+        {
+            driver.quit();
+        }
+        catch (RuntimeException e)
+        {
+            logger.debug("Problem quitting pooled session", e);
+        }
+        finally
+        {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Idle sessions and live session permits for a single browser type.
+     */
+    private static class BrowserPool
+    {
+        private final Browser browser;
+        private final LinkedBlockingDeque<WebDriver> idle = new LinkedBlockingDeque<WebDriver>();
+        private final Semaphore permits;
+
+        BrowserPool(final Browser browser, final int maxSize)
+        {
+            this.browser = browser;
+            this.permits = new Semaphore(maxSize);
+        }
+    }
+}
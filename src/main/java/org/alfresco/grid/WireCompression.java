@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.seleniumhq.jetty9.server.Handler;
+import org.seleniumhq.jetty9.server.Request;
+import org.seleniumhq.jetty9.server.handler.HandlerWrapper;
+import org.seleniumhq.jetty9.servlets.gzip.GzipHandler;
+
+/**
+ * Gzip compression of the webdriver wire protocol between the clients and the hub.
+ * <p>Page sources, screenshots and uploaded files are sent as json with base64 content, which
+ * compresses well. The hub compresses responses of at least <code>minSize</code> bytes for
+ * clients that accept gzip, which the selenium http client does, and reads requests sent with
+ * a gzip or deflate content encoding. The requests are forwarded to the node uncompressed, the
+ * jetty 5 server of the node can neither read nor write compressed bodies.</p>
+ * <p>Screenshots and uploaded files are base64 of png and zip content, which gzip shrinks by
+ * a quarter at best in more time than the smaller body saves on a fast link, so these
+ * commands are sent as they are.</p>
+ * <p>Clients compress their requests with {@link #createRequestInterceptor(int)}, only against
+ * a hub that reads compressed requests.</p>
+ *
+ * @since 1.9
+ */
+public final class WireCompression
+{
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    private static final int BUFFER_SIZE = 8192;
+    /** Content types of the wire protocol and the grid console */
+    private static final String MIME_TYPES = "application/json,text/html,text/plain,text/css,application/javascript";
+    /** Commands carrying content that is compressed already */
+    private static final String[] INCOMPRESSIBLE = {"/screenshot", "/file"};
+
+    private WireCompression(){}
+
+    /**
+     * Wraps the handler of a hub so that it reads compressed requests and compresses its responses.
+     * @param handler {@link Handler} of the hub
+     * @param minSize int smallest response in bytes worth compressing
+     * @return {@link Handler} to set on the hub server in place of the handler
+     */
+    public static Handler wrap(final Handler handler, final int minSize)
+    {
+        if(minSize < 1)
+        {
+            throw new IllegalArgumentException("Minimum compressed size must be positive");
+        }
+        GzipHandler gzip = new GzipHandler();
+        gzip.setMinGzipSize(minSize);
+        gzip.setMimeTypes(MIME_TYPES);
+        gzip.setVary(HttpHeaders.ACCEPT_ENCODING);
+        gzip.setHandler(handler);
+        WireHandler wire = new WireHandler();
+        wire.setHandler(gzip);
+        return wire;
+    }
+
+    /**
+     * @param path String path of a webdriver command
+     * @return boolean true if the command carries content worth compressing
+     */
+    static boolean isCompressible(final String path)
+    {
+        if(path == null)
+        {
+            return true;
+        }
+        int query = path.indexOf('?');
+        String command = query < 0 ? path : path.substring(0, query);
+        for (String suffix : INCOMPRESSIBLE)
+        {
+            if(command.endsWith(suffix))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compresses request bodies of at least <code>minSize</code> bytes, to be added first so
+     * that the content length is set from the compressed body.
+     * @param minSize int smallest request in bytes worth compressing
+     * @return {@link HttpRequestInterceptor} for the client talking to the hub
+     */
+    public static HttpRequestInterceptor createRequestInterceptor(final int minSize)
+    {
+        if(minSize < 1)
+        {
+            throw new IllegalArgumentException("Minimum compressed size must be positive");
+        }
+        return new HttpRequestInterceptor()
+        {
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException
+            {
+                if(!(request instanceof HttpEntityEnclosingRequest) || request.containsHeader(HttpHeaders.CONTENT_ENCODING)
+                        || !isCompressible(request.getRequestLine().getUri()))
+                {
+                    return;
+                }
+                HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+                HttpEntity entity = enclosing.getEntity();
+                if(entity == null || !entity.isRepeatable() || entity.getContentLength() < minSize)
+                {
+                    return;
+                }
+                ByteArrayEntity compressed = new ByteArrayEntity(gzip(EntityUtils.toByteArray(entity)));
+                Header contentType = entity.getContentType();
+                if(contentType != null)
+                {
+                    compressed.setContentType(contentType);
+                }
+                compressed.setContentEncoding(GZIP);
+                request.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+                request.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+                enclosing.setEntity(compressed);
+            }
+        };
+    }
+
+    static byte[] gzip(final byte[] content) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes, BUFFER_SIZE);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Hands on compressed requests with their body decompressed and without the encoding headers,
+     * so that the hub and the node see a plain request, and keeps the responses of commands
+     * that do not compress from being compressed.
+     */
+    private static class WireHandler extends HandlerWrapper
+    {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                HttpServletResponse response) throws IOException, ServletException
+        {
+            HttpServletRequest wire = request;
+            if(!isCompressible(target))
+            {
+                wire = new HiddenHeadersRequest(wire, HttpHeaders.ACCEPT_ENCODING);
+            }
+            String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+            if(encoding != null)
+            {
+                encoding = encoding.trim();
+                if(!GZIP.equalsIgnoreCase(encoding) && !DEFLATE.equalsIgnoreCase(encoding))
+                {
+                    response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported content encoding " + encoding);
+                    baseRequest.setHandled(true);
+                    return;
+                }
+                wire = new InflatedRequest(wire, GZIP.equalsIgnoreCase(encoding));
+            }
+            super.handle(target, baseRequest, wire, response);
+        }
+    }
+
+    private static class HiddenHeadersRequest extends HttpServletRequestWrapper
+    {
+        private final String[] hidden;
+
+        HiddenHeadersRequest(final HttpServletRequest request, final String... hidden)
+        {
+            super(request);
+            this.hidden = hidden;
+        }
+
+        private boolean isHidden(final String name)
+        {
+            for (String header : hidden)
+            {
+                if(header.equalsIgnoreCase(name))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name)
+        {
+            return isHidden(name) ? Collections.<String>emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames()
+        {
+            List<String> names = new ArrayList<String>();
+            for (Enumeration<String> e = super.getHeaderNames(); e.hasMoreElements();)
+            {
+                String name = e.nextElement();
+                if(!isHidden(name))
+                {
+                    names.add(name);
+                }
+            }
+            return Collections.enumeration(names);
+        }
+
+        @Override
+        public int getIntHeader(String name)
+        {
+            return isHidden(name) ? -1 : super.getIntHeader(name);
+        }
+    }
+
+    private static class InflatedRequest extends HiddenHeadersRequest
+    {
+        private final boolean gzip;
+        private ServletInputStream input;
+        private BufferedReader reader;
+
+        InflatedRequest(final HttpServletRequest request, final boolean gzip)
+        {
+            super(request, HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_LENGTH);
+            this.gzip = gzip;
+        }
+
+        @Override
+        public int getContentLength()
+        {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong()
+        {
+            return -1;
+        }
+
+        @Override
+        public synchronized ServletInputStream getInputStream() throws IOException
+        {
+            if(reader != null)
+            {
+                throw new IllegalStateException("The request body is already read as characters");
+            }
+            if(input == null)
+            {
+                ServletInputStream raw = super.getInputStream();
+                InputStream inflater = gzip ? new GZIPInputStream(raw, BUFFER_SIZE) : new InflaterInputStream(raw);
+                input = new InflatedInputStream(inflater, raw);
+            }
+            return input;
+        }
+
+        @Override
+        public synchronized BufferedReader getReader() throws IOException
+        {
+            if(reader == null)
+            {
+                String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), charset == null ? "UTF-8" : charset));
+            }
+            return reader;
+        }
+    }
+
+    private static class InflatedInputStream extends ServletInputStream
+    {
+        private final InputStream inflater;
+        private final ServletInputStream raw;
+        private boolean finished;
+
+        InflatedInputStream(final InputStream inflater, final ServletInputStream raw)
+        {
+            this.inflater = inflater;
+            this.raw = raw;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int value = inflater.read();
+            finished = value < 0;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = inflater.read(b, off, len);
+            finished = count < 0;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            inflater.close();
+        }
+
+        public boolean isFinished()
+        {
+            return finished;
+        }
+
+        public boolean isReady()
+        {
+            return raw.isReady();
+        }
+
+        public void setReadListener(ReadListener readListener)
+        {
+            throw new IllegalStateException("Compressed requests are read blocking");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Runs the operations queued on an ElementBatch in one script call.
+ * arguments[0] is a list of [operation, strategy, locator, attribute name],
+ * the result is a list of [found, value] in the same order. An operation the
+ * browser can not run, such as xpath without document.evaluate, has a null found
+ * flag and is run with plain driver calls instead.
+ */
+var operations = arguments[0];
+var results = [];
+
+function find(strategy, locator) {
+    var found = [];
+    var i, candidates;
+    switch (strategy) {
+        case 'id':
+            found = document.querySelectorAll('[id="' + locator.replace(/(["\\])/g, '\\$1') + '"]');
+            break;
+        case 'name':
+            found = document.getElementsByName(locator);
+            break;
+        case 'css selector':
+            found = document.querySelectorAll(locator);
+            break;
+        case 'class name':
+            found = document.querySelectorAll('.' + locator.replace(/([^\w-])/g, '\\$1'));
+            break;
+        case 'tag name':
+            found = document.getElementsByTagName(locator);
+            break;
+        case 'xpath':
+            if (!document.evaluate) {
+                return null;
+            }
+            var snapshot = document.evaluate(locator, document, null, 7, null);
+            found = [];
+            for (i = 0; i < snapshot.snapshotLength; i++) {
+                if (snapshot.snapshotItem(i).nodeType === 1) {
+                    found.push(snapshot.snapshotItem(i));
+                }
+            }
+            break;
+        case 'link text':
+        case 'partial link text':
+            candidates = document.getElementsByTagName('a');
+            found = [];
+            for (i = 0; i < candidates.length; i++) {
+                var linkText = text(candidates[i]);
+                if (strategy === 'link text' ? linkText === locator : linkText.indexOf(locator) >= 0) {
+                    found.push(candidates[i]);
+                }
+            }
+            break;
+    }
+    return Array.prototype.slice.call(found);
+}
+
+function text(element) {
+    if (!displayed(element)) {
+        return '';
+    }
+    var value = element.innerText === undefined ? element.textContent : element.innerText;
+    var lines = (value || '').replace(/\u00a0/g, ' ').split(/\r?\n/);
+    for (var i = 0; i < lines.length; i++) {
+        lines[i] = lines[i].replace(/[ \t\f]+/g, ' ').replace(/^ | $/g, '');
+    }
+    return lines.join('\n').replace(/^\s+|\s+$/g, '');
+}
+
+function displayed(element) {
+    if (element.tagName.toLowerCase() === 'input' && (element.type || '').toLowerCase() === 'hidden') {
+        return false;
+    }
+    for (var parent = element; parent && parent.nodeType === 1; parent = parent.parentNode) {
+        var style = window.getComputedStyle ? window.getComputedStyle(parent, null) : parent.currentStyle;
+        if (style.display === 'none' || style.opacity === '0') {
+            return false;
+        }
+        if (parent === element && (style.visibility === 'hidden' || style.visibility === 'collapse')) {
+            return false;
+        }
+    }
+    var bounds = element.getBoundingClientRect();
+    return bounds.right - bounds.left > 0 && bounds.bottom - bounds.top > 0;
+}
+
+function attribute(element, name) {
+    var value = element[name];
+    if (value === undefined || value === null || typeof value === 'object' || typeof value === 'function') {
+        return element.getAttribute(name);
+    }
+    if (typeof value === 'boolean') {
+        return value ? 'true' : null;
+    }
+    return String(value);
+}
+
+for (var index = 0; index < operations.length; index++) {
+    var operation = operations[index];
+    var elements = find(operation[1], operation[2]);
+    if (elements === null) {
+        results.push([null, null]);
+        continue;
+    }
+    var first = elements.length > 0 ? elements[0] : null;
+    switch (operation[0]) {
+        case 'present':
+            results.push([true, first !== null]);
+            break;
+        case 'findAll':
+            results.push([true, elements]);
+            break;
+        case 'texts':
+            var texts = [];
+            for (var j = 0; j < elements.length; j++) {
+                texts.push(text(elements[j]));
+            }
+            results.push([true, texts]);
+            break;
+        case 'find':
+            results.push([first !== null, first]);
+            break;
+        case 'text':
+            results.push([first !== null, first === null ? null : text(first)]);
+            break;
+        case 'displayed':
+            results.push([first !== null, first === null ? null : displayed(first)]);
+            break;
+        case 'attribute':
+            results.push([first !== null, first === null ? null : attribute(first, operation[3])]);
+            break;
+    }
+}
+return results;
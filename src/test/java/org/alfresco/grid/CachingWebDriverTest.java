@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.internal.WrapsElement;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.WebDriverWait;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link CachingWebDriver} answers repeated lookups from its cache
+ * and drops the cache when the page changes.
+ *
+ * @since 1.9
+ */
+public class CachingWebDriverTest
+{
+    private static final long WAIT_SECONDS = 5;
+    private static final String PAGE = "<!DOCTYPE html><html><head><title>Cache</title></head><body>"
+            + "<div id=\"menu\"><a class=\"entry\" href=\"#one\">One</a><a class=\"entry\" href=\"#two\">Two</a></div>"
+            + "<h1 id=\"title\">Site</h1>"
+            + "</body></html>";
+    private File page;
+    private CountingDriver counting;
+    private CachingWebDriver driver;
+
+    /**
+     * Html unit driver counting the lookups it runs.
+     */
+    private static class CountingDriver extends HtmlUnitDriver
+    {
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        CountingDriver()
+        {
+            super(true);
+        }
+
+        @Override
+        public WebElement findElement(By by)
+        {
+            lookups.incrementAndGet();
+            return super.findElement(by);
+        }
+
+        @Override
+        public List<WebElement> findElements(By by)
+        {
+            lookups.incrementAndGet();
+            return super.findElements(by);
+        }
+    }
+
+    @BeforeClass
+    public void setUp() throws IOException
+    {
+        page = File.createTempFile("cache", ".html");
+        FileUtils.writeStringToFile(page, PAGE, StandardCharsets.UTF_8);
+        counting = new CountingDriver();
+        driver = new CachingWebDriver(counting);
+    }
+
+    @BeforeMethod
+    public void load()
+    {
+        driver.get(page.toURI().toString());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+    {
+        driver.quit();
+        page.delete();
+    }
+
+    @Test
+    public void repeatedLookupHitsCache()
+    {
+        int lookups = counting.lookups.get();
+        long hits = driver.getHitCount();
+        WebElement title = driver.findElement(By.id("title"));
+        Assert.assertSame(driver.findElement(By.id("title")), title);
+        Assert.assertEquals(counting.lookups.get(), lookups + 1);
+        Assert.assertEquals(driver.getHitCount(), hits + 1);
+        Assert.assertEquals(title.getText(), "Site");
+        Assert.assertEquals(title, ((WrapsElement) title).getWrappedElement());
+    }
+
+    @Test
+    public void childLookupHitsCache()
+    {
+        WebElement menu = driver.findElement(By.id("menu"));
+        long misses = driver.getMissCount();
+        WebElement entry = menu.findElement(By.className("entry"));
+        Assert.assertSame(driver.findElement(By.id("menu")).findElement(By.className("entry")), entry);
+        Assert.assertEquals(driver.getMissCount(), misses + 1);
+        Assert.assertEquals(entry.getText(), "One");
+    }
+
+    @Test
+    public void navigationInvalidates()
+    {
+        WebElement title = driver.findElement(By.id("title"));
+        driver.navigate().refresh();
+        Assert.assertNotSame(driver.findElement(By.id("title")), title);
+    }
+
+    @Test
+    public void clickInvalidates()
+    {
+        WebElement title = driver.findElement(By.id("title"));
+        driver.findElement(By.linkText("Two")).click();
+        Assert.assertNotSame(driver.findElement(By.id("title")), title);
+    }
+
+    @Test
+    public void urlChangeInvalidates()
+    {
+        driver.getCurrentUrl();
+        WebElement title = driver.findElement(By.id("title"));
+        counting.get(page.toURI().toString() + "#two");
+        driver.getCurrentUrl();
+        Assert.assertNotSame(driver.findElement(By.id("title")), title);
+    }
+
+    @Test
+    public void staleElementInvalidates()
+    {
+        WebElement title = driver.findElement(By.id("title"));
+        long stale = driver.getStaleCount();
+        replaceTitle();
+        try
+        {
+            title.getText();
+            Assert.fail("Expected a stale element");
+        }
+        catch (StaleElementReferenceException e)
+        {
+            Assert.assertEquals(driver.getStaleCount(), stale + 1);
+        }
+        Assert.assertEquals(driver.findElement(By.id("title")).getText(), "Changed");
+    }
+
+    @Test
+    public void waitsForStaleness()
+    {
+        WebElement title = driver.findElement(By.id("title"));
+        Assert.assertFalse(ExpectedConditions.stalenessOf(title).apply(driver));
+        replaceTitle();
+        Assert.assertTrue(new WebDriverWait(driver, WAIT_SECONDS).until(ExpectedConditions.stalenessOf(title)));
+    }
+
+    @Test
+    public void listsAreNotCached()
+    {
+        List<WebElement> entries = driver.findElements(By.className("entry"));
+        Assert.assertEquals(entries.size(), 2);
+        Assert.assertEquals(entries.get(1).getText(), "Two");
+        int lookups = counting.lookups.get();
+        counting.executeScript("setTimeout(function() { var entry = document.createElement('a');"
+                + "entry.className = 'entry'; entry.innerHTML = 'Three';"
+                + "document.getElementById('menu').appendChild(entry); }, 200);");
+        new WebDriverWait(driver, WAIT_SECONDS).until(new ExpectedCondition<Boolean>()
+        {
+            public Boolean apply(WebDriver input)
+            {
+                return input.findElements(By.className("entry")).size() == 3;
+            }
+        });
+        Assert.assertTrue(counting.lookups.get() > lookups);
+    }
+
+    private void replaceTitle()
+    {
+        counting.executeScript("var old = document.getElementById('title');"
+                + "var title = document.createElement('h1'); title.id = 'title'; title.innerHTML = 'Changed';"
+                + "old.parentNode.replaceChild(title, old);");
+    }
+
+    @Test
+    public void missingElementNotCached()
+    {
+        Assert.assertTrue(driver.findElements(By.id("missing")).isEmpty());
+        long misses = driver.getMissCount();
+        Assert.assertTrue(driver.findElements(By.id("missing")).isEmpty());
+        try
+        {
+            driver.findElement(By.id("missing"));
+            Assert.fail("Expected no such element");
+        }
+        catch (NoSuchElementException e)
+        {
+            Assert.assertEquals(driver.getMissCount(), misses + 2);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.support.pagefactory.ByChained;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+/**
+ * Test the {@link CoalescingWebDriver} reads elements in one script call
+ * with the same results as separate driver calls.
+ *
+ * @since 1.9
+ */
+public class CoalescingWebDriverTest
+{
+    private static final String PAGE = "<!DOCTYPE html><html><head><title>Batch</title></head><body>"
+            + "<h1 id=\"title\">Document  Library</h1>"
+            + "<ul><li class=\"item\">One</li><li class=\"item\">Two</li><li class=\"item\">Three</li></ul>"
+            + "<a href=\"#details\" name=\"details\">View details</a>"
+            + "<input id=\"agree\" type=\"checkbox\" checked=\"checked\"/>"
+            + "<div id=\"hidden\" style=\"display:none\">Hidden</div>"
+            + "</body></html>";
+    private File page;
+    private CountingDriver counting;
+    private CoalescingWebDriver driver;
+
+    /**
+     * Html unit driver counting the scripts it runs.
+     */
+    private static class CountingDriver extends HtmlUnitDriver
+    {
+        private final AtomicInteger scripts = new AtomicInteger();
+
+        CountingDriver(final BrowserVersion version)
+        {
+            super(version, true);
+        }
+
+        @Override
+        public Object executeScript(String script, Object... args)
+        {
+            scripts.incrementAndGet();
+            return super.executeScript(script, args);
+        }
+    }
+
+    @BeforeClass
+    public void setUp() throws IOException
+    {
+        page = File.createTempFile("batch", ".html");
+        FileUtils.writeStringToFile(page, PAGE, StandardCharsets.UTF_8);
+        counting = new CountingDriver(BrowserVersion.FIREFOX_38);
+        driver = new CoalescingWebDriver(counting);
+        driver.get(page.toURI().toString());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+    {
+        driver.quit();
+        page.delete();
+    }
+
+    @Test
+    public void readsInOneScript()
+    {
+        int scripts = counting.scripts.get();
+        long operations = driver.getOperationCount();
+        long roundTrips = driver.getRoundTripCount();
+        ElementBatch batch = driver.batch();
+        ElementBatch.Result<String> title = batch.getText(By.id("title"));
+        ElementBatch.Result<List<String>> items = batch.getTexts(By.className("item"));
+        ElementBatch.Result<String> href = batch.getAttribute(By.linkText("View details"), "name");
+        ElementBatch.Result<String> checked = batch.getAttribute(By.id("agree"), "checked");
+        ElementBatch.Result<Boolean> hidden = batch.isDisplayed(By.id("hidden"));
+        ElementBatch.Result<String> hiddenText = batch.getText(By.id("hidden"));
+        ElementBatch.Result<Boolean> missing = batch.isPresent(By.cssSelector("#missing"));
+        ElementBatch.Result<WebElement> link = batch.findElement(By.xpath("//a[@name='details']"));
+        Assert.assertEquals(batch.execute(), 1);
+        Assert.assertEquals(counting.scripts.get(), scripts + 1);
+
+        Assert.assertEquals(title.get(), driver.findElement(By.id("title")).getText());
+        Assert.assertEquals(items.get(), Arrays.asList("One", "Two", "Three"));
+        Assert.assertEquals(href.get(), "details");
+        Assert.assertEquals(checked.get(), driver.findElement(By.id("agree")).getAttribute("checked"));
+        Assert.assertFalse(hidden.get());
+        Assert.assertEquals(hiddenText.get(), driver.findElement(By.id("hidden")).getText());
+        Assert.assertEquals(hiddenText.get(), "");
+        Assert.assertFalse(missing.get());
+        Assert.assertEquals(link.get().getText(), "View details");
+        Assert.assertEquals(driver.getOperationCount() - operations, 8);
+        Assert.assertEquals(driver.getRoundTripCount() - roundTrips, 1);
+    }
+
+    @Test
+    public void unsupportedScriptRunsDirectly()
+    {
+        CoalescingWebDriver old = new CoalescingWebDriver(new CountingDriver(BrowserVersion.INTERNET_EXPLORER_8));
+        try
+        {
+            old.get(page.toURI().toString());
+            ElementBatch batch = old.batch();
+            ElementBatch.Result<String> title = batch.getText(By.id("title"));
+            ElementBatch.Result<String> link = batch.getText(By.xpath("//a[@name='details']"));
+            Assert.assertEquals(batch.execute(), 3);
+            Assert.assertEquals(title.get(), "Document Library");
+            Assert.assertEquals(link.get(), "View details");
+        }
+        finally
+        {
+            old.quit();
+        }
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void missingElement()
+    {
+        ElementBatch batch = CoalescingWebDriver.batch(driver);
+        ElementBatch.Result<String> text = batch.getText(By.id("missing"));
+        batch.execute();
+        text.get();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void notExecuted()
+    {
+        driver.batch().getText(By.id("title")).get();
+    }
+
+    @Test
+    public void customLocatorRunsDirectly()
+    {
+        ElementBatch batch = driver.batch();
+        ElementBatch.Result<List<String>> items = batch.getTexts(new ByChained(By.tagName("ul"), By.className("item")));
+        Assert.assertEquals(batch.execute(), 4);
+        Assert.assertEquals(items.get(), Arrays.asList("One", "Two", "Three"));
+    }
+}
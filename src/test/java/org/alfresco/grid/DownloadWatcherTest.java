@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link DownloadWatcher} only reports a download once its partial file is gone.
+ *
+ * @since 1.9
+ */
+public class DownloadWatcherTest
+{
+    @Test
+    public void waitsForPartialFile() throws Exception
+    {
+        final File directory = Files.createTempDirectory("downloads").toFile();
+        final File file = new File(directory, "report.pdf");
+        final File partial = new File(directory, "report.pdf.part");
+        Thread browser = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    FileUtils.touch(file);
+                    FileUtils.writeStringToFile(partial, "first half");
+                    Thread.sleep(200);
+                    FileUtils.writeStringToFile(partial, "first half, second half");
+                    Thread.sleep(200);
+                    FileUtils.deleteQuietly(file);
+                    FileUtils.moveFile(partial, file);
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        browser.start();
+        File downloaded = DownloadWatcher.waitForFile(directory, "report.pdf", 10000);
+        Assert.assertEquals(downloaded, file);
+        Assert.assertFalse(partial.exists());
+        Assert.assertEquals(FileUtils.readFileToString(downloaded), "first half, second half");
+        browser.join();
+    }
+
+    @Test
+    public void emptyDownload() throws Exception
+    {
+        File directory = Files.createTempDirectory("downloads").toFile();
+        File file = new File(directory, "empty.txt");
+        FileUtils.touch(file);
+        Assert.assertEquals(DownloadWatcher.waitForFile(directory, "empty.txt", 5000), file);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void timesOut() throws Exception
+    {
+        DownloadWatcher.waitForFile(Files.createTempDirectory("downloads").toFile(), "missing.pdf", 200);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link FirefoxProfileCache} reuses encoded profiles.
+ *
+ * @since 1.9
+ */
+public class FirefoxProfileCacheTest
+{
+    private Map<String, Object> preferences(String language)
+    {
+        Map<String, Object> preferences = new HashMap<String, Object>();
+        preferences.put("intl.accept_languages", language);
+        preferences.put("app.update.auto", false);
+        preferences.put("browser.download.folderList", 2);
+        return preferences;
+    }
+
+    @Test
+    public void sameEncodedProfileForSamePreferences()
+    {
+        FirefoxProfileCache cache = new FirefoxProfileCache();
+        String encoded = cache.getEncoded(preferences("en-GB"));
+        Assert.assertNotNull(encoded);
+        Assert.assertSame(cache.getEncoded(preferences("en-GB")), encoded);
+        Assert.assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void newEncodedProfileForDifferentPreferences()
+    {
+        FirefoxProfileCache cache = new FirefoxProfileCache();
+        String english = cache.getEncoded(preferences("en-GB"));
+        String french = cache.getEncoded(preferences("fr"));
+        Assert.assertNotEquals(french, english);
+        Assert.assertEquals(cache.size(), 2);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test the local {@link Grid} runs a {@link ForkedGridNode} in a jvm of its own
+ * and stops it when the grid is closed or the node fails to register.
+ *
+ * @since 1.9
+ */
+public class ForkedGridNodeTest
+{
+    private static final int HUB_PORT = 4464;
+    private static final int NODE_PORT = 5598;
+
+    @Test
+    public void passesJvmOptions()
+    {
+        ForkedGridNode node = new ForkedGridNode(HUB_PORT, NODE_PORT, " -Xmx256m  -XX:+UseSerialGC ");
+        Assert.assertEquals(node.getCommand().subList(1, 3), Arrays.asList("-Xmx256m", "-XX:+UseSerialGC"));
+        Assert.assertTrue(node.getCommand().contains(GridNode.class.getName()));
+        String cacheDir = new File(UploadCache.getParentDirectory(), String.valueOf(NODE_PORT)).getPath();
+        Assert.assertTrue(node.getCommand().contains("-D" + UploadCache.CACHE_DIR + "=" + cacheDir));
+        Assert.assertFalse(node.isAlive());
+    }
+
+    @Test
+    public void startsAndStopsNodeJvm() throws Exception
+    {
+        ForkedGridNode node = new ForkedGridNode(HUB_PORT, NODE_PORT, "-Xmx256m");
+        Grid grid = new Grid(new GridHub(HUB_PORT), Collections.singletonList(node));
+        try
+        {
+            grid.start();
+            Assert.assertTrue(node.isAlive());
+            Assert.assertEquals(grid.getForkedNodes(), Collections.singletonList(node));
+            Assert.assertTrue(grid.getNodes().isEmpty());
+            Assert.assertEquals(HubStatus.fetch("http://localhost:" + HUB_PORT).getFreeSlots(), node.getSlotCount());
+        }
+        finally
+        {
+            grid.close();
+        }
+        Assert.assertFalse(node.isAlive());
+        try
+        {
+            new Socket("localhost", NODE_PORT).close();
+            Assert.fail("The node port should be closed");
+        }
+        catch (IOException e)
+        {
+            // the node jvm has exited
+        }
+    }
+
+    @Test
+    public void stopsNodeJvmThatFailsToRegister()
+    {
+        ForkedGridNode node = new ForkedGridNode(HUB_PORT, NODE_PORT, "-Xmx256m");
+        node.startServer();
+        Assert.assertTrue(node.isAlive());
+        try
+        {
+            //No hub is running for the node to register with
+            node.register(500);
+            Assert.fail("Node registered without a hub");
+        }
+        catch (RuntimeException e)
+        {
+            Assert.assertTrue(e.getMessage().contains("register"));
+        }
+        Assert.assertFalse(node.isAlive());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link GridProperties} snapshots, port overrides and reload of external overrides.
+ *
+ * @since 1.9
+ */
+public class GridPropertiesTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void clear()
+    {
+        System.clearProperty(GridProperties.CONFIG_DIR);
+        GridProperties.reload();
+    }
+
+    private String getValue(String[] properties, String parameter)
+    {
+        List<String> values = Arrays.asList(properties);
+        int index = values.indexOf(parameter);
+        return index < 0 ? null : values.get(index + 1);
+    }
+
+    @Test
+    public void cachedPropertiesAreCopies()
+    {
+        String[] first = GridProperties.getHubProperties();
+        first[1] = "changed";
+        String[] second = GridProperties.getHubProperties();
+        Assert.assertNotSame(second, first);
+        Assert.assertNotEquals(second[1], "changed");
+    }
+
+    @Test
+    public void portOverrides()
+    {
+        String[] node = GridProperties.getNodeProperties(4450, 5590);
+        Assert.assertEquals(getValue(node, "-hub"), "http://localhost:4450/grid/register");
+        Assert.assertEquals(getValue(node, "-port"), "5590");
+        Assert.assertEquals(getValue(GridProperties.getNodeProperties(), "-hub"), "http://localhost:4444/grid/register");
+    }
+
+    @Test
+    public void externalOverrideIsReloaded() throws Exception
+    {
+        File dir = Files.createTempDirectory("grid-config").toFile();
+        File hub = new File(dir, "hub.local.properties");
+        write(hub, "grid.browserTimeout=90");
+        System.setProperty(GridProperties.CONFIG_DIR, dir.getAbsolutePath());
+        GridProperties.reload();
+        Assert.assertEquals(getValue(GridProperties.getHubProperties(), "-browserTimeout"), "90");
+
+        write(hub, "grid.browserTimeout=120");
+        long deadline = System.currentTimeMillis() + 30000;
+        while(!"120".equals(getValue(GridProperties.getHubProperties(), "-browserTimeout")) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(getValue(GridProperties.getHubProperties(), "-browserTimeout"), "120");
+        hub.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void changedDirectoryStopsPreviousWatcher() throws Exception
+    {
+        File first = Files.createTempDirectory("grid-config").toFile();
+        File second = Files.createTempDirectory("grid-config").toFile();
+        System.setProperty(GridProperties.CONFIG_DIR, first.getAbsolutePath());
+        GridProperties.reload();
+        GridProperties.getHubSetting("hub.node.selection");
+        Assert.assertEquals(GridProperties.getWatchedDirectory(), first.toPath());
+
+        System.setProperty(GridProperties.CONFIG_DIR, second.getAbsolutePath());
+        GridProperties.reload();
+        GridProperties.getHubSetting("hub.node.selection");
+        Assert.assertEquals(GridProperties.getWatchedDirectory(), second.toPath());
+        long deadline = System.currentTimeMillis() + 5000;
+        while(countWatchers() > 1 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(countWatchers(), 1);
+
+        System.clearProperty(GridProperties.CONFIG_DIR);
+        GridProperties.reload();
+        GridProperties.getHubSetting("hub.node.selection");
+        Assert.assertNull(GridProperties.getWatchedDirectory());
+        first.delete();
+        second.delete();
+    }
+
+    private int countWatchers()
+    {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if(thread.isAlive() && "grid-config-watcher".equals(thread.getName()))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void write(File file, String content) throws IOException
+    {
+        FileWriter writer = new FileWriter(file);
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the local {@link Grid} starts its hub and node concurrently and is ready
+ * with all node slots registered, and closes them when one fails to start. The
+ * startup time is compared with a sequential start by the GridStartupBenchmark.
+ *
+ * @since 1.9
+ */
+public class GridStartupTest
+{
+    private static final int HUB_PORT = 4451;
+    private static final int NODE_PORT = 5591;
+    private static final int FAILED_HUB_PORT = 4450;
+    private static final int FAILED_NODE_PORT = 5590;
+
+    /**
+     * Node whose server fails to start.
+     */
+    private static class FailingNode implements LocalNode
+    {
+        private boolean stopped;
+
+        public void startServer()
+        {
+            throw new IllegalStateException("Node failed to start");
+        }
+
+        public void register(long timeout)
+        {
+        }
+
+        public int getSlotCount()
+        {
+            return 1;
+        }
+
+        public void stop()
+        {
+            stopped = true;
+        }
+    }
+
+    @Test
+    public void overlappedStartupIsReady() throws Exception
+    {
+        GridNode node = new GridNode(HUB_PORT, NODE_PORT);
+        Grid grid = new Grid(new GridHub(HUB_PORT), Collections.singletonList(node));
+        try
+        {
+            grid.start();
+            Assert.assertTrue(grid.isAlive());
+            Assert.assertTrue(grid.getStartupTime() > 0);
+            Assert.assertEquals(HubStatus.fetch("http://localhost:" + HUB_PORT).getFreeSlots(), node.getSlotCount());
+        }
+        finally
+        {
+            grid.close();
+        }
+    }
+
+    @Test
+    public void failedStartupClosesHubAndNodes() throws Exception
+    {
+        FailingNode failing = new FailingNode();
+        GridNode node = new GridNode(FAILED_HUB_PORT, FAILED_NODE_PORT);
+        Grid grid = new Grid(new GridHub(FAILED_HUB_PORT), Arrays.<LocalNode>asList(node, failing));
+        try
+        {
+            grid.start();
+            Assert.fail("Grid started with a failing node");
+        }
+        catch (RuntimeException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(failing.stopped);
+        Assert.assertFalse(grid.isAlive());
+        //Both ports are free again once the hub and the node are closed
+        new ServerSocket(FAILED_HUB_PORT).close();
+        new ServerSocket(FAILED_NODE_PORT).close();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import org.seleniumhq.jetty9.util.thread.ExecutorThreadPool;
+import org.seleniumhq.jetty9.util.thread.QueuedThreadPool;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link HttpServerSettings} configure the hub http server.
+ *
+ * @since 1.9
+ */
+public class HttpServerSettingsTest
+{
+    @Test
+    public void defaultSettings()
+    {
+        Assert.assertTrue(new HttpServerSettings(0, 0, 0, 0, 0, 0, null).isDefault());
+        Assert.assertFalse(new HttpServerSettings(0, 0, 0, 0, 0, 0, "elastic").isDefault());
+        Assert.assertFalse(HttpServerSettings.forHub().getExecutor().isEmpty());
+        //The shipped hub properties keep the plain start path
+        Assert.assertTrue(HttpServerSettings.forHub().isDefault());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unknownExecutor()
+    {
+        new HttpServerSettings(0, 0, 0, 0, 0, 0, "forkjoin");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void minAboveMaxThreads()
+    {
+        new HttpServerSettings(20, 10, 0, 0, 0, 0, null);
+    }
+
+    @Test
+    public void pooledThreads()
+    {
+        QueuedThreadPool pool = (QueuedThreadPool) new HttpServerSettings(4, 16, 1, 100, 0, 0, "pooled").createThreadPool();
+        Assert.assertEquals(pool.getMaxThreads(), 16);
+        Assert.assertEquals(pool.getMinThreads(), 4);
+    }
+
+    @Test
+    public void elasticThreads()
+    {
+        Assert.assertTrue(new HttpServerSettings(0, 0, 0, 0, 0, 0, "elastic").createThreadPool() instanceof ExecutorThreadPool);
+    }
+
+    @Test
+    public void hubAnswersWithSettings()
+    {
+        GridHub hub = new GridHub(new HttpServerSettings(2, 12, 1, 50, 64, 10000, "pooled"), 4455);
+        hub.run();
+        try
+        {
+            Assert.assertTrue(hub.isAlive());
+        }
+        finally
+        {
+            hub.stop();
+        }
+        hub = new GridHub(new HttpServerSettings(0, 0, 0, 0, 0, 0, "elastic"), 4455);
+        hub.run();
+        try
+        {
+            Assert.assertTrue(hub.isAlive());
+        }
+        finally
+        {
+            hub.stop();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openqa.grid.internal.Registry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link HubMetrics} of a hub are served in the Prometheus text format.
+ *
+ * @since 1.9
+ */
+public class HubMetricsTest
+{
+    private static final int HUB_PORT = 4465;
+    private static final int NODE_PORT = 5599;
+
+    @Test
+    public void namesCommandsWithoutIds()
+    {
+        Assert.assertEquals(HubMetrics.getCommandName("POST", "/session"), "POST /session");
+        Assert.assertEquals(HubMetrics.getCommandName("GET", "/session/3f1c/url"), "GET /session/:sessionId/url");
+        Assert.assertEquals(HubMetrics.getCommandName("POST", "/session/3f1c/element/17/click"), "POST /session/:sessionId/element/:id/click");
+        Assert.assertEquals(HubMetrics.getCommandName("GET", "/session/3f1c/element/17/attribute/href"),
+                "GET /session/:sessionId/element/:id/attribute/:id");
+        Assert.assertEquals(HubMetrics.getCommandName("DELETE", "/session/3f1c"), "DELETE /session/:sessionId");
+        Assert.assertEquals(HubMetrics.getCommandName("POST", "/selenium-server/driver"), "POST other");
+    }
+
+    @Test
+    public void writesHistograms() throws IOException
+    {
+        Registry registry = Registry.newInstance();
+        HubMetrics metrics = HubMetrics.get(registry);
+        Assert.assertSame(HubMetrics.get(registry), metrics);
+        metrics.recordQueueWait(40);
+        metrics.recordQueueWait(2000);
+        metrics.recordSession(90000);
+        metrics.recordCommand("GET", "/session/a/url", 12.5);
+        StringWriter out = new StringWriter();
+        metrics.write(registry, out);
+        String text = out.toString();
+        Assert.assertTrue(text.contains("# TYPE grid_new_session_queue_wait_seconds histogram\n"), text);
+        Assert.assertTrue(text.contains("grid_new_session_queue_wait_seconds_bucket{le=\"0.025\"} 0\n"), text);
+        Assert.assertTrue(text.contains("grid_new_session_queue_wait_seconds_bucket{le=\"0.05\"} 1\n"), text);
+        Assert.assertTrue(text.contains("grid_new_session_queue_wait_seconds_bucket{le=\"+Inf\"} 2\n"), text);
+        Assert.assertTrue(text.contains("grid_new_session_queue_wait_seconds_sum 2.04\n"), text);
+        Assert.assertTrue(text.contains("grid_session_duration_seconds_bucket{le=\"120\"} 1\n"), text);
+        Assert.assertTrue(text.contains("grid_command_duration_seconds_bucket{command=\"GET /session/:sessionId/url\",le=\"0.025\"} 1\n"), text);
+        Assert.assertTrue(text.contains("grid_command_duration_seconds_count{command=\"GET /session/:sessionId/url\"} 1\n"), text);
+        Assert.assertTrue(text.contains("grid_new_session_queue_length 0\n"), text);
+        registry.stop();
+    }
+
+    @Test
+    public void hubServesNodeSlots() throws IOException
+    {
+        GridHub hub = new GridHub(HUB_PORT);
+        GridNode node = new GridNode(true, HUB_PORT, NODE_PORT);
+        Grid grid = new Grid(hub, Collections.singletonList(node));
+        CloseableHttpClient client = HttpClients.createDefault();
+        try
+        {
+            grid.start();
+            CloseableHttpResponse response = client.execute(new HttpGet(hub.getMetricsUrl()));
+            String text;
+            try
+            {
+                Assert.assertEquals(response.getStatusLine().getStatusCode(), 200);
+                Assert.assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+                text = EntityUtils.toString(response.getEntity());
+            }
+            finally
+            {
+                response.close();
+            }
+            String labels = String.format("{node=\"http://localhost:%d\",browser=\"firefox\"}", NODE_PORT);
+            int slots = node.getSlotCount();
+            Assert.assertTrue(text.contains("grid_nodes 1\n"), text);
+            Assert.assertTrue(text.contains("grid_node_slots" + labels + " " + slots + "\n"), text);
+            Assert.assertTrue(text.contains("grid_node_slots_busy" + labels + " 0\n"), text);
+            Assert.assertTrue(text.contains("grid_node_slots_free" + labels + " " + slots + "\n"), text);
+            Assert.assertTrue(text.contains("grid_sessions_active 0\n"), text);
+
+            //Nodes of the local grid register with the proxy recording the histograms
+            String proxy = EntityUtils.toString(client.execute(new HttpGet(hub.getUrl().replaceAll("/$", "")
+                    + "/grid/api/proxy?id=http://localhost:" + NODE_PORT)).getEntity());
+            Assert.assertTrue(proxy.contains(LoadAwareRemoteProxy.class.getName()), proxy);
+        }
+        finally
+        {
+            client.close();
+            grid.close();
+        }
+    }
+}
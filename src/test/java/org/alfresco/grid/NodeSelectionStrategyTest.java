@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.grid.internal.TestSlot;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link NodeSelectionStrategy} orders the hub nodes by load.
+ *
+ * @since 1.9
+ */
+public class NodeSelectionStrategyTest
+{
+    /**
+     * Stand-in node with the given number of slots and sessions.
+     */
+    private RemoteProxy node(final String id, final int slots, final int used)
+    {
+        return (RemoteProxy) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {RemoteProxy.class},
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if("getTotalUsed".equals(method.getName()))
+                        {
+                            return used;
+                        }
+                        if("getTestSlots".equals(method.getName()))
+                        {
+                            return Arrays.asList(new TestSlot[slots]);
+                        }
+                        if("hashCode".equals(method.getName()))
+                        {
+                            return id.hashCode();
+                        }
+                        if("equals".equals(method.getName()))
+                        {
+                            return proxy == args[0];
+                        }
+                        return id;
+                    }
+                });
+    }
+
+    @Test
+    public void fromString()
+    {
+        Assert.assertEquals(NodeSelectionStrategy.fromString("leastSessions"), NodeSelectionStrategy.LEAST_SESSIONS);
+        Assert.assertEquals(NodeSelectionStrategy.fromString("COMMAND_LATENCY"), NodeSelectionStrategy.COMMAND_LATENCY);
+        Assert.assertEquals(NodeSelectionStrategy.fromString(null), NodeSelectionStrategy.DEFAULT);
+    }
+
+    @Test
+    public void leastSessionsFirst()
+    {
+        Registry registry = Registry.newInstance();
+        try
+        {
+            //Equally used in proportion, the default order keeps the busier node first
+            RemoteProxy busy = node("busy", 8, 4);
+            RemoteProxy idle = node("idle", 2, 1);
+            registry.getAllProxies().add(busy);
+            registry.getAllProxies().add(idle);
+            Assert.assertSame(registry.getAllProxies().getSorted().get(0), busy);
+
+            NodeSelectionStrategy.LEAST_SESSIONS.apply(registry);
+            List<RemoteProxy> sorted = registry.getAllProxies().getSorted();
+            Assert.assertSame(sorted.get(0), idle);
+            Assert.assertSame(sorted.get(1), busy);
+        }
+        finally
+        {
+            registry.stop();
+        }
+    }
+
+    @Test
+    public void fasterNodeFirst()
+    {
+        Registry registry = Registry.newInstance();
+        try
+        {
+            LoadAwareRemoteProxy slow = new LoadAwareRemoteProxy(RegistrationRequest.build("-role", "node", "-port", "5601"), registry);
+            LoadAwareRemoteProxy fast = new LoadAwareRemoteProxy(RegistrationRequest.build("-role", "node", "-port", "5602"), registry);
+            slow.recordCommand(200);
+            fast.recordCommand(300);
+            fast.recordCommand(50);
+            Assert.assertEquals(fast.getCommandLatency(), 250d);
+            for (int i = 0; i < 10; i++)
+            {
+                fast.recordCommand(50);
+            }
+            Assert.assertTrue(NodeSelectionStrategy.COMMAND_LATENCY.compare(fast, slow) < 0);
+        }
+        finally
+        {
+            registry.stop();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.server.DefaultDriverSessions;
+import org.openqa.selenium.remote.server.DriverSessions;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link NodeSessionReaper} quits idle and expired sessions and counts them.
+ *
+ * @since 1.9
+ */
+public class NodeSessionReaperTest
+{
+    private static final long LIMIT = 200;
+    private DriverSessions sessions;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        sessions = new DefaultDriverSessions();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        for (SessionId id : sessions.getSessions())
+        {
+            sessions.deleteSession(id);
+        }
+    }
+
+    @Test
+    public void reapIdleSession() throws Exception
+    {
+        NodeSessionReaper reaper = new NodeSessionReaper(LIMIT, 0);
+        SessionId idle = sessions.newSession(DesiredCapabilities.htmlUnit());
+        reaper.start(sessions, 0);
+        try
+        {
+            Assert.assertEquals(reaper.reap(), 0);
+            Thread.sleep(LIMIT * 2);
+            SessionId active = sessions.newSession(DesiredCapabilities.htmlUnit());
+            Assert.assertEquals(reaper.reap(), 1);
+            Assert.assertFalse(sessions.getSessions().contains(idle));
+            Assert.assertTrue(sessions.getSessions().contains(active));
+            Assert.assertEquals(reaper.getIdleReapedCount(), 1);
+            Assert.assertEquals(reaper.getExpiredCount(), 0);
+            Assert.assertEquals(reaper.getActiveSessionCount(), 1);
+        }
+        finally
+        {
+            reaper.stop();
+        }
+    }
+
+    @Test
+    public void recycleExpiredSession() throws Exception
+    {
+        NodeSessionReaper reaper = new NodeSessionReaper(0, LIMIT);
+        SessionId old = sessions.newSession(DesiredCapabilities.htmlUnit());
+        reaper.start(sessions, 0);
+        try
+        {
+            Assert.assertEquals(reaper.reap(), 0);
+            Thread.sleep(LIMIT * 2);
+            sessions.get(old).updateLastAccessTime();
+            Assert.assertEquals(reaper.reap(), 1);
+            Assert.assertTrue(sessions.getSessions().isEmpty());
+            Assert.assertEquals(reaper.getExpiredCount(), 1);
+            Assert.assertEquals(reaper.getIdleReapedCount(), 0);
+        }
+        finally
+        {
+            reaper.stop();
+        }
+    }
+
+    @Test
+    public void publishedOverJmx() throws Exception
+    {
+        NodeSessionReaper reaper = new NodeSessionReaper(LIMIT, LIMIT);
+        ObjectName name = new ObjectName("org.alfresco.grid:type=NodeSessionReaper,port=1");
+        reaper.start(sessions, 1);
+        try
+        {
+            Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "IdleReapedCount"), 0L);
+        }
+        finally
+        {
+            reaper.stop();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void disabledWithoutLimits()
+    {
+        Assert.assertFalse(new NodeSessionReaper(0, 0).isEnabled());
+        Assert.assertEquals(new NodeSessionReaper(LIMIT, 0).getInterval(), 1000);
+        Assert.assertEquals(new NodeSessionReaper(0, 3600000).getInterval(), 60000);
+    }
+
+    @Test
+    public void offByDefault()
+    {
+        GridNode node = new GridNode(4454, 5594);
+        node.startServer();
+        try
+        {
+            Assert.assertEquals(node.getReaper().getActiveSessionCount(), 0);
+            Assert.assertEquals(node.getReaper().getIdleTimeout(), 0);
+            Assert.assertEquals(node.getReaper().getMaxAge(), 0);
+        }
+        finally
+        {
+            node.stop();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link ScreenshotService} writes in the background, skips identical frames
+ * and holds callers back when the queue is full.
+ *
+ * @since 1.9
+ */
+public class ScreenshotServiceTest
+{
+    private String frame(String content)
+    {
+        return Base64.encodeBase64String(content.getBytes());
+    }
+
+    @Test
+    public void writesFramesOnce() throws Exception
+    {
+        File directory = Files.createTempDirectory("screenshots").toFile();
+        ScreenshotService service = new ScreenshotService(directory, 8, 1000);
+        try
+        {
+            File first = service.submit(frame("error page"), "first").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(first, new File(directory, "first.png"));
+            Assert.assertEquals(FileUtils.readFileToString(first, "UTF-8"), "error page");
+            File second = service.submit(frame("error page"), "second").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(second, new File(directory, "second.png"));
+            Assert.assertEquals(FileUtils.readFileToString(second, "UTF-8"), "error page");
+            Assert.assertEquals(service.submit(frame("other page"), "third").get(5, TimeUnit.SECONDS).getName(), "third.png");
+            //Reusing the name of a linked frame leaves the first frame alone
+            service.submit(frame("login page"), "second").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(FileUtils.readFileToString(second, "UTF-8"), "login page");
+            Assert.assertEquals(FileUtils.readFileToString(first, "UTF-8"), "error page");
+            Assert.assertEquals(service.getWrittenCount(), 3);
+            Assert.assertEquals(service.getDuplicateCount(), 1);
+        }
+        finally
+        {
+            service.close(5000);
+        }
+    }
+
+    @Test
+    public void dropsWhenQueueStaysFull() throws Exception
+    {
+        File directory = Files.createTempDirectory("screenshots").toFile();
+        ScreenshotService service = new ScreenshotService(directory, 1, 0);
+        //A large frame keeps the writer busy decoding while the test thread keeps submitting
+        String large = frame(StringUtils.repeat("screenshot", 1000000));
+        try
+        {
+            long start = System.nanoTime();
+            CompletableFuture<File> last = null;
+            for (int i = 0; i < 5; i++)
+            {
+                last = service.submit(large, "frame" + i);
+            }
+            long submitTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue(service.getDroppedCount() > 0);
+            Assert.assertTrue(last.isCompletedExceptionally());
+            Assert.assertTrue(submitTime < 1000, "Submitting took " + submitTime + " ms");
+        }
+        finally
+        {
+            service.close(5000);
+        }
+        Assert.assertEquals(service.getWrittenCount(), 1);
+    }
+}
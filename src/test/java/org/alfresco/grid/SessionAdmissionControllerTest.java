@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Test the {@link SessionAdmissionController} against a stand-in hub whose free slots are set by the test.
+ *
+ * @since 1.9
+ */
+public class SessionAdmissionControllerTest
+{
+    private static final long POLL_INTERVAL = 20;
+    private final AtomicInteger freeSlots = new AtomicInteger();
+    private final AtomicLong responseDelay = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private HttpServer hub;
+    private String gridUrl;
+
+    @BeforeClass
+    public void startHub() throws IOException
+    {
+        hub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        hub.setExecutor(executor);
+        hub.createContext("/grid/api/hub", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    Thread.sleep(responseDelay.get());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = String.format("{\"slotCounts\":{\"free\":%d,\"total\":2},\"newSessionRequestCount\":0}",
+                        freeSlots.get()).getBytes();
+                exchange.sendResponseHeaders(Grid.RESPONSE_STATUS_200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        hub.start();
+        gridUrl = "http://localhost:" + hub.getAddress().getPort() + "/wd/hub";
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopHub()
+    {
+        hub.stop(0);
+        executor.shutdownNow();
+    }
+
+    @BeforeMethod
+    public void resetSlots()
+    {
+        freeSlots.set(0);
+        responseDelay.set(0);
+    }
+
+    @Test
+    public void admitsInArrivalOrderWhenSlotsFree() throws Exception
+    {
+        final SessionAdmissionController controller = new SessionAdmissionController(gridUrl, POLL_INTERVAL, 10000);
+        final List<Integer> admitted = new CopyOnWriteArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++)
+        {
+            final int request = i;
+            new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    controller.acquire();
+                    //The session starts and takes the slot on the hub
+                    freeSlots.decrementAndGet();
+                    admitted.add(request);
+                    controller.release();
+                    done.countDown();
+                }
+            }).start();
+            while(controller.getWaitingCount() < i + 1)
+            {
+                Thread.sleep(5);
+            }
+        }
+        Thread.sleep(POLL_INTERVAL * 5);
+        Assert.assertTrue(admitted.isEmpty());
+
+        freeSlots.set(1);
+        while(admitted.isEmpty())
+        {
+            Thread.sleep(5);
+        }
+        Thread.sleep(POLL_INTERVAL * 5);
+        //The only free slot has been taken
+        Assert.assertEquals(admitted.size(), 1);
+
+        freeSlots.set(2);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(admitted.get(0), Integer.valueOf(0));
+        Assert.assertEquals(admitted.get(1), Integer.valueOf(1));
+        Assert.assertEquals(admitted.get(2), Integer.valueOf(2));
+    }
+
+    @Test
+    public void slowHubDoesNotBlockRelease() throws Exception
+    {
+        responseDelay.set(1000);
+        final SessionAdmissionController controller = new SessionAdmissionController(gridUrl, POLL_INTERVAL, 10000);
+        Thread waiter = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                controller.acquire();
+                controller.release();
+            }
+        });
+        waiter.start();
+        while(controller.getWaitingCount() < 1)
+        {
+            Thread.sleep(5);
+        }
+        //The waiter is now reading the slow hub
+        Thread.sleep(100);
+        long start = System.currentTimeMillis();
+        controller.release();
+        Assert.assertEquals(controller.getWaitingCount(), 1);
+        Assert.assertTrue(System.currentTimeMillis() - start < 500, "Release waited for the hub");
+        responseDelay.set(0);
+        freeSlots.set(1);
+        waiter.join(5000);
+        Assert.assertFalse(waiter.isAlive());
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void timesOutWithoutFreeSlot()
+    {
+        new SessionAdmissionController(gridUrl, POLL_INTERVAL, 200).acquire();
+    }
+
+    @Test
+    public void admitsWhenHubCanNotBeRead()
+    {
+        SessionAdmissionController controller = new SessionAdmissionController("http://localhost:1/wd/hub", POLL_INTERVAL, 200);
+        controller.acquire();
+        controller.release();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+import org.alfresco.po.Browser;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+/**
+ * Test the {@link SessionMetrics} counters, percentiles and jmx publication.
+ *
+ * @since 1.9
+ */
+public class SessionMetricsTest
+{
+    @Test
+    public void countsOutcomes()
+    {
+        SessionMetrics metrics = new SessionMetrics(Browser.HtmlUnit);
+        long first = metrics.start();
+        long second = metrics.start();
+        Assert.assertEquals(metrics.getInFlightCount(), 2);
+        metrics.success(first);
+        metrics.failure(second);
+        SessionMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(snapshot.getSuccessCount(), 1);
+        Assert.assertEquals(snapshot.getFailureCount(), 1);
+        Assert.assertEquals(snapshot.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void percentilesFromBuckets() throws Exception
+    {
+        SessionMetrics metrics = new SessionMetrics(Browser.HtmlUnit);
+        Assert.assertEquals(metrics.getLatencyP99(), 0);
+        for (int i = 0; i < 99; i++)
+        {
+            metrics.success(metrics.start());
+        }
+        long start = metrics.start();
+        Thread.sleep(30);
+        metrics.success(start);
+        Assert.assertEquals(metrics.getLatencyP50(), 10);
+        Assert.assertEquals(metrics.getLatencyP99(), 10);
+        Assert.assertEquals(metrics.getLatencyPercentile(100), 50);
+        metrics.reset();
+        Assert.assertEquals(metrics.getSuccessCount(), 0);
+        Assert.assertEquals(metrics.getLatencyP50(), 0);
+    }
+
+    @Test
+    public void publishedOverJmx() throws Exception
+    {
+        SessionMetricsRegistry registry = new SessionMetricsRegistry();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            SessionMetrics metrics = registry.get(Browser.Safari);
+            metrics.success(metrics.start());
+            Object count = server.getAttribute(SessionMetricsRegistry.getObjectName(Browser.Safari), "SuccessCount");
+            Assert.assertEquals(count, Long.valueOf(1));
+            Assert.assertEquals(registry.snapshot().get(Browser.Safari).getSuccessCount(), 1);
+        }
+        finally
+        {
+            registry.close();
+        }
+        Assert.assertFalse(server.isRegistered(SessionMetricsRegistry.getObjectName(Browser.Safari)));
+    }
+
+    @Test
+    public void closeKeepsMBeanOfOtherRegistry() throws Exception
+    {
+        SessionMetricsRegistry first = new SessionMetricsRegistry();
+        SessionMetricsRegistry second = new SessionMetricsRegistry();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            first.get(Browser.Chrome);
+            second.get(Browser.Chrome);
+            second.close();
+            Assert.assertTrue(server.isRegistered(SessionMetricsRegistry.getObjectName(Browser.Chrome)));
+        }
+        finally
+        {
+            first.close();
+        }
+        Assert.assertFalse(server.isRegistered(SessionMetricsRegistry.getObjectName(Browser.Chrome)));
+    }
+}
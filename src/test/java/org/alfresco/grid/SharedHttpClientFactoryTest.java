@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the {@link SharedHttpClientFactory} keeps connections to the hub open
+ * across the clients of different drivers.
+ *
+ * @since 1.9
+ */
+public class SharedHttpClientFactoryTest
+{
+    private static final int HUB_PORT = 4456;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+
+    @BeforeClass
+    public void startHub() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(HUB_PORT), 0);
+        server.createContext("/wd/hub", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "{\"status\":0,\"value\":{}}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopHub()
+    {
+        server.stop(0);
+    }
+
+    private static void status(final HttpClient client) throws IOException
+    {
+        HttpResponse response = client.execute(new HttpRequest(HttpMethod.GET, "/status"), true);
+        Assert.assertEquals(response.getStatus(), 200);
+    }
+
+    @Test
+    public void reusesConnectionAfterDriverQuits() throws IOException
+    {
+        SharedHttpClientFactory factory = new SharedHttpClientFactory(10, 10, 2000, 5000, 30000);
+        try
+        {
+            URL url = new URL("http://localhost:" + HUB_PORT + "/wd/hub");
+            HttpClient first = factory.createClient(url);
+            status(first);
+            first.close();
+            HttpClient second = factory.createClient(url);
+            status(second);
+            status(second);
+            Assert.assertEquals(clientPorts.size(), 1);
+            Assert.assertEquals(factory.getStats().getAvailable(), 1);
+            Assert.assertEquals(factory.getStats().getLeased(), 0);
+        }
+        finally
+        {
+            factory.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsRouteLargerThanPool()
+    {
+        new SharedHttpClientFactory(10, 20, 2000, 5000, 30000);
+    }
+}
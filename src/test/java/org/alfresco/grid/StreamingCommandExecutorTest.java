@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandInfo;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the {@link StreamingCommandExecutor} reads the same responses as the selenium
+ * executor and streams large values to files.
+ *
+ * @since 1.9
+ */
+public class StreamingCommandExecutorTest
+{
+    private static final int HUB_PORT = 4459;
+    private static final String SESSION_ID = "streaming-session";
+    private final Map<String, String> responses = new HashMap<String, String>();
+    private String pageSource;
+    private byte[] screenshot;
+    private HttpServer server;
+    private SharedHttpClientFactory factory;
+    private URL url;
+
+    @BeforeClass
+    public void startHub() throws IOException
+    {
+        StringBuilder source = new StringBuilder("<html><body>");
+        for (int i = 0; i < 20000; i++)
+        {
+            source.append("<p class=\"row\">Row ").append(i).append(" caf\u00e9 \u2713\t\\ / \u0001</p>\n");
+        }
+        pageSource = source.append("</body></html>").toString();
+        screenshot = new byte[300000];
+        new Random(7).nextBytes(screenshot);
+
+        JsonObject capabilities = new JsonObject();
+        capabilities.addProperty("browserName", "htmlunit");
+        responses.put("POST /session", envelope(0, capabilities).toString());
+        responses.put("GET /source", envelope(0, pageSource).toString());
+        responses.put("GET /screenshot", envelope(0, Base64.encodeBase64String(screenshot)).toString());
+        JsonObject result = new JsonObject();
+        JsonArray list = new JsonArray();
+        list.add(new JsonPrimitive(1));
+        list.add(new JsonPrimitive(2.5));
+        list.add(new JsonPrimitive(true));
+        list.add(JsonNull.INSTANCE);
+        list.add(new JsonPrimitive("a \"quoted\" {brace}"));
+        result.add("list", list);
+        result.addProperty("name", "value");
+        responses.put("POST /execute", envelope(0, result).toString());
+        JsonObject error = new JsonObject();
+        error.addProperty("message", "Unable to locate element");
+        responses.put("POST /element", envelope(ErrorCodes.NO_SUCH_ELEMENT, error).toString());
+        responses.put("GET /title", "{ \"sessionId\" : null , \"status\" : 0 , \"value\" : \"T\\u00eftle\" }");
+
+        server = HttpServer.create(new InetSocketAddress(HUB_PORT), 0);
+        server.createContext("/wd/hub", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                String path = exchange.getRequestURI().getPath().replace("/wd/hub", "").replace("/session/" + SESSION_ID, "");
+                String body = responses.get(exchange.getRequestMethod() + " " + path);
+                byte[] content;
+                if(body == null)
+                {
+                    content = "Not found".getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                    exchange.sendResponseHeaders(404, content.length);
+                }
+                else
+                {
+                    content = body.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                    exchange.sendResponseHeaders(path.equals("/element") ? 500 : 200, content.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(content);
+                exchange.close();
+            }
+        });
+        server.start();
+        factory = new SharedHttpClientFactory(10, 10, 2000, 5000, 30000);
+        url = new URL("http://localhost:" + HUB_PORT + "/wd/hub");
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopHub()
+    {
+        factory.close();
+        server.stop(0);
+    }
+
+    private static JsonObject envelope(final int status, final Object value)
+    {
+        JsonObject response = new JsonObject();
+        response.addProperty("sessionId", SESSION_ID);
+        response.addProperty("status", status);
+        if(value instanceof String)
+        {
+            response.addProperty("value", (String) value);
+        }
+        else
+        {
+            response.add("value", (JsonObject) value);
+        }
+        return response;
+    }
+
+    private static Command command(final String name)
+    {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        if(DriverCommand.EXECUTE_SCRIPT.equals(name))
+        {
+            parameters.put("script", "return {};");
+            parameters.put("args", Collections.emptyList());
+        }
+        else if(DriverCommand.FIND_ELEMENT.equals(name))
+        {
+            parameters.put("using", "id");
+            parameters.put("value", "missing");
+        }
+        return new Command(new SessionId(SESSION_ID), name, parameters);
+    }
+
+    @Test
+    public void readsSameResponsesAsSelenium() throws IOException
+    {
+        HttpCommandExecutor selenium = new HttpCommandExecutor(Collections.<String, CommandInfo>emptyMap(), url, factory);
+        StreamingCommandExecutor streaming = new StreamingCommandExecutor(url, factory);
+        for (String name : Arrays.asList(DriverCommand.GET_PAGE_SOURCE, DriverCommand.SCREENSHOT, DriverCommand.EXECUTE_SCRIPT,
+                DriverCommand.FIND_ELEMENT, DriverCommand.GET_TITLE, DriverCommand.GET_CURRENT_URL))
+        {
+            Response expected = selenium.execute(command(name));
+            Response actual = streaming.execute(command(name));
+            Assert.assertEquals(actual.getStatus(), expected.getStatus(), name);
+            Assert.assertEquals(actual.getSessionId(), expected.getSessionId(), name);
+            Assert.assertEquals(actual.getValue(), expected.getValue(), name);
+        }
+        Assert.assertEquals(streaming.execute(command(DriverCommand.GET_PAGE_SOURCE)).getValue(), pageSource);
+        Assert.assertEquals(streaming.execute(command(DriverCommand.GET_TITLE)).getValue(), "T\u00eftle");
+    }
+
+    @Test
+    public void writesValuesToFiles() throws IOException
+    {
+        StreamingCommandExecutor streaming = new StreamingCommandExecutor(url, factory);
+        File source = File.createTempFile("source", ".html");
+        File image = File.createTempFile("screenshot", ".png");
+        try
+        {
+            Response response = streaming.execute(command(DriverCommand.GET_PAGE_SOURCE), source, false);
+            Assert.assertEquals(response.getValue(), source);
+            Assert.assertEquals(FileUtils.readFileToString(source, StandardCharsets.UTF_8), pageSource);
+            response = streaming.execute(command(DriverCommand.SCREENSHOT), image, true);
+            Assert.assertEquals(response.getValue(), image);
+            Assert.assertEquals(FileUtils.readFileToByteArray(image), screenshot);
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(source);
+            FileUtils.deleteQuietly(image);
+        }
+    }
+
+    @Test
+    public void failedCommandKeepsError() throws IOException
+    {
+        StreamingCommandExecutor streaming = new StreamingCommandExecutor(url, factory);
+        File file = File.createTempFile("element", ".json");
+        try
+        {
+            Response response = streaming.execute(command(DriverCommand.FIND_ELEMENT), file, false);
+            Assert.assertEquals(response.getStatus().intValue(), ErrorCodes.NO_SUCH_ELEMENT);
+            Assert.assertEquals(((Map<?, ?>) response.getValue()).get("message"), "Unable to locate element");
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    @Test
+    public void streamsThroughDecoratedDriver() throws IOException
+    {
+        RemoteWebDriver remote = new RemoteWebDriver(new StreamingCommandExecutor(url, factory), DesiredCapabilities.htmlUnit());
+        CachingWebDriver driver = new CachingWebDriver(remote);
+        File source = File.createTempFile("source", ".html");
+        File image = File.createTempFile("screenshot", ".png");
+        try
+        {
+            Assert.assertEquals(driver.getPageSource(), pageSource);
+            StreamingCommandExecutor.getPageSource(driver, source);
+            Assert.assertEquals(FileUtils.readFileToString(source, StandardCharsets.UTF_8), pageSource);
+            StreamingCommandExecutor.getScreenshot(driver, image);
+            Assert.assertEquals(FileUtils.readFileToByteArray(image), screenshot);
+            try
+            {
+                driver.findElement(By.id("missing"));
+                Assert.fail("Expected the element to be missing");
+            }
+            catch (NoSuchElementException e)
+            {
+                Assert.assertTrue(e.getMessage().startsWith("Unable to locate element"));
+            }
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(source);
+            FileUtils.deleteQuietly(image);
+        }
+    }
+}
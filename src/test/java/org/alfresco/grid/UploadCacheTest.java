@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.remote.SessionId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Test the {@link UploadCache} store and that the {@link UploadCacheClient}
+ * only sends a file to a node that does not hold its content yet.
+ *
+ * @since 1.9
+ */
+public class UploadCacheTest
+{
+    private static final int HUB_PORT = 4453;
+    private static final int NODE_PORT = 5593;
+
+    private File file(String name, String content) throws IOException
+    {
+        File file = new File(Files.createTempDirectory("upload").toFile(), name);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    @Test
+    public void storesByContentAndEvictsLeastRecentlyUsed() throws Exception
+    {
+        UploadCache cache = new UploadCache(Files.createTempDirectory("upload-cache").toFile(), 10);
+        File first = file("first.txt", "123456");
+        File second = file("second.txt", "abcdef");
+        String firstHash = UploadCache.hash(first);
+        File cached = cache.put(firstHash, first.getName(), new ByteArrayInputStream("123456".getBytes()));
+        Assert.assertEquals(cached.getName(), "first.txt");
+        Assert.assertEquals(FileUtils.readFileToString(cached, "UTF-8"), "123456");
+        Assert.assertEquals(cache.get(firstHash), cached);
+
+        cache.put(UploadCache.hash(second), second.getName(), new ByteArrayInputStream("abcdef".getBytes()));
+        Assert.assertNull(cache.get(firstHash));
+        Assert.assertFalse(cached.exists());
+        Assert.assertEquals(cache.getCount(), 1);
+        Assert.assertEquals(cache.getSize(), 6);
+    }
+
+    @Test
+    public void keepsPinnedFilesUntilReleased() throws Exception
+    {
+        UploadCache cache = new UploadCache(Files.createTempDirectory("upload-cache").toFile(), 10);
+        String firstHash = UploadCache.hash(file("first.txt", "123456"));
+        File pinned = cache.put(firstHash, "first.txt", "session", new ByteArrayInputStream("123456".getBytes()));
+        Assert.assertTrue(cache.isPinned(firstHash));
+
+        cache.put(UploadCache.hash(file("second.txt", "abcdef")), "second.txt", new ByteArrayInputStream("abcdef".getBytes()));
+        Assert.assertTrue(pinned.isFile());
+        Assert.assertEquals(cache.getCount(), 2);
+        Assert.assertEquals(cache.getSize(), 12);
+
+        cache.release("session");
+        Assert.assertFalse(cache.isPinned(firstHash));
+        Assert.assertFalse(pinned.exists());
+        Assert.assertEquals(cache.getCount(), 1);
+        Assert.assertEquals(cache.getSize(), 6);
+    }
+
+    @Test
+    public void dropsPinsOfUnusedSessions() throws Exception
+    {
+        UploadCache cache = new UploadCache(Files.createTempDirectory("upload-cache").toFile(), 10, 1);
+        String firstHash = UploadCache.hash(file("first.txt", "123456"));
+        File pinned = cache.put(firstHash, "first.txt", "session", new ByteArrayInputStream("123456".getBytes()));
+        Thread.sleep(10);
+
+        cache.put(UploadCache.hash(file("second.txt", "abcdef")), "second.txt", new ByteArrayInputStream("abcdef".getBytes()));
+        Assert.assertFalse(pinned.exists());
+        Assert.assertFalse(cache.isPinned(firstHash));
+        Assert.assertEquals(cache.getCount(), 1);
+    }
+
+    @Test
+    public void keepsFilesInPrivateDirectory() throws Exception
+    {
+        File parent = Files.createTempDirectory("upload-cache").toFile();
+        File other = file("other.txt", "other");
+        FileUtils.copyFileToDirectory(other, parent);
+        UploadCache first = new UploadCache(parent, 10);
+        UploadCache second = new UploadCache(parent, 10);
+        Assert.assertNotEquals(first.getDirectory(), second.getDirectory());
+        Assert.assertEquals(first.getDirectory().getParentFile(), parent);
+        File cached = first.put(UploadCache.hash(other), "other.txt", new ByteArrayInputStream("other".getBytes()));
+
+        first.destroy();
+        Assert.assertFalse(cached.exists());
+        Assert.assertFalse(first.getDirectory().exists());
+        Assert.assertTrue(second.getDirectory().isDirectory());
+        Assert.assertTrue(new File(parent, "other.txt").isFile());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsContentNotMatchingHash() throws Exception
+    {
+        UploadCache cache = new UploadCache(Files.createTempDirectory("upload-cache").toFile(), 10);
+        cache.put(UploadCache.hash(file("file.txt", "expected")), "file.txt", new ByteArrayInputStream("other".getBytes()));
+    }
+
+    @Test
+    public void uploadsOncePerContent() throws Exception
+    {
+        System.setProperty(UploadCache.CACHE_DIR, Files.createTempDirectory("node-upload-cache").toFile().getPath());
+        GridNode node = new GridNode(HUB_PORT, NODE_PORT);
+        node.startServer();
+        //Stand-in hub that places every session on the node
+        HttpServer hub = HttpServer.create(new InetSocketAddress("localhost", HUB_PORT), 0);
+        hub.createContext("/grid/api/testsession", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                byte[] body = ("{\"success\":true,\"proxyId\":\"http://localhost:" + NODE_PORT + "\"}").getBytes();
+                exchange.sendResponseHeaders(Grid.RESPONSE_STATUS_200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        hub.start();
+        try
+        {
+            UploadCacheClient client = new UploadCacheClient("http://localhost:" + HUB_PORT + "/wd/hub");
+            File file = file("fixture.txt", "upload fixture");
+            String path = client.upload(new SessionId("first"), file);
+            Assert.assertNotNull(path);
+            Assert.assertEquals(FileUtils.readFileToString(new File(path), "UTF-8"), "upload fixture");
+            Assert.assertEquals(client.upload(new SessionId("second"), file), path);
+            Assert.assertEquals(client.getMissCount(), 1);
+            Assert.assertEquals(client.getHitCount(), 1);
+
+            //Same content under another name is not uploaded again but keeps its own name
+            File copy = file("copy.txt", "upload fixture");
+            String copyPath = client.upload(new SessionId("third"), copy);
+            Assert.assertEquals(new File(copyPath).getName(), "copy.txt");
+            Assert.assertEquals(FileUtils.readFileToString(new File(copyPath), "UTF-8"), "upload fixture");
+            Assert.assertEquals(new File(client.upload(new SessionId("fourth"), file)).getName(), "fixture.txt");
+            Assert.assertEquals(client.getMissCount(), 1);
+            Assert.assertEquals(client.getHitCount(), 3);
+
+            //The content stays pinned on the node until every session using it is released
+            String hash = UploadCache.hash(file);
+            Assert.assertTrue(UploadCache.getInstance().isPinned(hash));
+            for(String session : new String[] {"first", "second", "third"})
+            {
+                client.release(new SessionId(session));
+            }
+            Assert.assertTrue(UploadCache.getInstance().isPinned(hash));
+            client.release(new SessionId("fourth"));
+            Assert.assertFalse(UploadCache.getInstance().isPinned(hash));
+        }
+        finally
+        {
+            hub.stop(0);
+            node.stop();
+        }
+    }
+
+    @Test
+    public void unsupportedWithoutHub() throws Exception
+    {
+        UploadCacheClient client = new UploadCacheClient("http://localhost:1/wd/hub");
+        Assert.assertNull(client.upload(new SessionId("session"), file("file.txt", "content")));
+    }
+}
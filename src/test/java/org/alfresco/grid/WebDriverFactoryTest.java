@@ -18,6 +18,10 @@
  */
 package org.alfresco.grid;
 
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.List;
+
 import org.alfresco.po.Browser;
 import org.openqa.selenium.WebDriver;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,10 +44,20 @@ public class WebDriverFactoryTest extends AbstractTestNGSpringContextTests
     @Autowired
     WebDriverFactory factory;
     WebDriver driver,driver2;
+    boolean pooled;
     @AfterMethod(alwaysRun = true)
     void close()
     {
-        driver.quit();
+        if(pooled)
+        {
+            factory.returnObject(driver);
+        }
+        else if(driver != null)
+        {
+            driver.quit();
+        }
+        driver = null;
+        pooled = false;
     }
     @Test
     public void getFireFox()
@@ -58,6 +72,71 @@ public class WebDriverFactoryTest extends AbstractTestNGSpringContextTests
         Assert.assertNotNull(driver);
     }
     @Test
+    public void getPooledHtmlUnit() throws Exception
+    {
+        WebDriver pooled = factory.borrowObject(Browser.HtmlUnit);
+        Assert.assertNotNull(pooled);
+        factory.returnObject(pooled);
+        driver = factory.borrowObject(Browser.HtmlUnit);
+        this.pooled = true;
+        Assert.assertSame(driver, pooled);
+        Assert.assertEquals(driver.getCurrentUrl(), "about:blank");
+        Object recycled = ManagementFactory.getPlatformMBeanServer().getAttribute(SessionMetricsRegistry.getPoolObjectName(), "RecycledCount");
+        Assert.assertEquals(recycled, factory.getPool().getRecycledCount());
+    }
+    @Test
+    public void recycleHtmlUnitAfterMaxUses()
+    {
+        WebDriverPool pool = new WebDriverPool(factory, 0, 1, 1000, 2);
+        try
+        {
+            WebDriver first = pool.borrow(Browser.HtmlUnit);
+            pool.release(first);
+            Assert.assertSame(pool.borrow(Browser.HtmlUnit), first);
+            pool.release(first);
+            Assert.assertEquals(pool.getRecycledCount(), 1);
+            WebDriver second = pool.borrow(Browser.HtmlUnit);
+            Assert.assertNotSame(second, first);
+            pool.release(second);
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+    @Test
+    public void replaceDeadIdleSession()
+    {
+        WebDriverPool pool = new WebDriverPool(factory, 0, 1, 1000);
+        try
+        {
+            WebDriver first = pool.borrow(Browser.HtmlUnit);
+            pool.release(first);
+            first.quit();
+            WebDriver second = pool.borrow(Browser.HtmlUnit);
+            Assert.assertNotSame(second, first);
+            Assert.assertEquals(pool.getSize(Browser.HtmlUnit), 1);
+            pool.release(second);
+        }
+        finally
+        {
+            pool.close();
+        }
+    }
+    @Test
+    public void getHtmlUnitAsync() throws Exception
+    {
+        List<WebDriver> drivers = factory.getObjects(Browser.HtmlUnit, 3);
+        Assert.assertEquals(drivers.size(), 3);
+        Assert.assertEquals(new HashSet<WebDriver>(drivers).size(), 3);
+        for (WebDriver started : drivers)
+        {
+            started.quit();
+        }
+        driver = factory.getObjectAsync(Browser.HtmlUnit).get();
+        Assert.assertNotNull(driver);
+    }
+    @Test
     public void getGrid()
     {
         Assert.assertNotNull(factory.getGridUrl());
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.grid;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.seleniumhq.jetty9.server.Request;
+import org.seleniumhq.jetty9.server.Server;
+import org.seleniumhq.jetty9.server.handler.AbstractHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link WireCompression} of the hub compresses large responses
+ * and reads compressed requests.
+ *
+ * @since 1.9
+ */
+public class WireCompressionTest
+{
+    private static final int HUB_PORT = 4457;
+    private static final int NODE_PORT = 5597;
+    private static final int SMALL_PORT = 4458;
+    private static final long REGISTER_TIMEOUT = 10000;
+    private static final String HUB_URL = "http://localhost:" + HUB_PORT;
+    private GridHub hub;
+
+    @BeforeClass
+    public void startHub()
+    {
+        hub = new GridHub(new HttpServerSettings(0, 0, 0, 0, 0, 0, null, 512), HUB_PORT);
+        hub.run();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopHub()
+    {
+        hub.stop();
+    }
+
+    private static HttpURLConnection open(final String path, final boolean gzip) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(HUB_URL + path).openConnection();
+        if(gzip)
+        {
+            connection.setRequestProperty("Accept-Encoding", WireCompression.GZIP);
+        }
+        return connection;
+    }
+
+    @Test
+    public void compressesLargeResponse() throws IOException
+    {
+        HttpURLConnection plain = open("/grid/console", false);
+        String console = IOUtils.toString(plain.getInputStream(), StandardCharsets.UTF_8);
+        Assert.assertNull(plain.getHeaderField("Content-Encoding"));
+
+        HttpURLConnection compressed = open("/grid/console", true);
+        Assert.assertEquals(compressed.getHeaderField("Content-Encoding"), WireCompression.GZIP);
+        byte[] body = IOUtils.toByteArray(compressed.getInputStream());
+        Assert.assertTrue(body.length < console.length(), body.length + " compressed bytes of " + console.length());
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+        Assert.assertTrue(IOUtils.toString(in, StandardCharsets.UTF_8).contains("Grid Console"));
+    }
+
+    @Test
+    public void keepsSmallAndIncompressibleResponsesPlain() throws Exception
+    {
+        Server server = new Server(new InetSocketAddress("localhost", SMALL_PORT));
+        server.setHandler(WireCompression.wrap(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                    HttpServletResponse response) throws IOException
+            {
+                byte[] body = StringUtils.repeat(target, 100).getBytes(StandardCharsets.UTF_8);
+                response.setContentType("application/json");
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                baseRequest.setHandled(true);
+            }
+        }, 512));
+        server.start();
+        try
+        {
+            HttpURLConnection small = (HttpURLConnection) new URL("http://localhost:" + SMALL_PORT + "/a").openConnection();
+            small.setRequestProperty("Accept-Encoding", WireCompression.GZIP);
+            Assert.assertNull(small.getHeaderField("Content-Encoding"));
+            Assert.assertEquals(IOUtils.toString(small.getInputStream(), StandardCharsets.UTF_8).length(), 200);
+
+            HttpURLConnection large = (HttpURLConnection) new URL("http://localhost:" + SMALL_PORT + "/large").openConnection();
+            large.setRequestProperty("Accept-Encoding", WireCompression.GZIP);
+            Assert.assertEquals(large.getHeaderField("Content-Encoding"), WireCompression.GZIP);
+
+            HttpURLConnection screenshot = (HttpURLConnection) new URL("http://localhost:" + SMALL_PORT + "/wd/hub/session/1/screenshot").openConnection();
+            screenshot.setRequestProperty("Accept-Encoding", WireCompression.GZIP);
+            Assert.assertNull(screenshot.getHeaderField("Content-Encoding"));
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void readsCompressedRequest() throws Exception
+    {
+        String node = "http://localhost:" + NODE_PORT;
+        RegistrationRequest registration = RegistrationRequest.build("-role", "node", "-host", "localhost",
+                "-port", String.valueOf(NODE_PORT), "-hub", HUB_URL + "/grid/register");
+        SharedHttpClientFactory factory = new SharedHttpClientFactory(4, 4, 2000, 5000, 0, 64);
+        try
+        {
+            HttpClient client = factory.createClient(new URL(HUB_URL));
+            HttpRequest register = new HttpRequest(HttpMethod.POST, "/grid/register");
+            register.setContent(registration.toJSON().getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(client.execute(register, true).getStatus(), 200);
+
+            //The hub adds the proxy of a registration in the background
+            long deadline = System.currentTimeMillis() + REGISTER_TIMEOUT;
+            HttpResponse proxy = client.execute(new HttpRequest(HttpMethod.GET, "/grid/api/proxy?id=" + node), true);
+            while(!proxy.getContentString().contains("\"success\":true") && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(Grid.MIN_POLL_INTERVAL);
+                proxy = client.execute(new HttpRequest(HttpMethod.GET, "/grid/api/proxy?id=" + node), true);
+            }
+            Assert.assertTrue(proxy.getContentString().contains("\"success\":true"), proxy.getContentString());
+            HttpResponse console = client.execute(new HttpRequest(HttpMethod.GET, "/grid/console"), true);
+            Assert.assertTrue(console.getContentString().contains(node));
+        }
+        finally
+        {
+            factory.close();
+        }
+    }
+}